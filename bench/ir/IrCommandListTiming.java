@@ -0,0 +1,59 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+/*******************/
+/* GENERAL IMPORTS */
+/*******************/
+import java.util.List;
+
+/**
+ * Times building an IR stream of n commands through Ir.AddIrCommand and then reading it back
+ * with getCommandList(), for n = 10k, 100k and 1M (or the sizes given as arguments). Appends and
+ * the list view are O(1), so the time per command should stay flat as n grows.
+ *
+ * Run with "make bench" after "make".
+ */
+public class IrCommandListTiming
+{
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args)
+	{
+		int[] sizes = { 10_000, 100_000, 1_000_000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int k = 0; k < args.length; k++) sizes[k] = Integer.parseInt(args[k]);
+		}
+		// Warm up the JIT on the largest size before measuring
+		time(sizes[sizes.length - 1]);
+		System.out.printf("%10s %12s %12s%n", "commands", "best ms", "ns/command");
+		for (int n : sizes) {
+			long best = Long.MAX_VALUE;
+			for (int r = 0; r < ROUNDS; r++)
+				best = Math.min(best, time(n));
+			System.out.printf("%10d %12.2f %12.1f%n", n, best / 1e6, (double) best / n);
+		}
+	}
+
+	/** Nanoseconds to append n commands to a fresh Ir and walk getCommandList() once. */
+	private static long time(int n)
+	{
+		IrCommand[] cmds = new IrCommand[n];
+		for (int i = 0; i < n; i++)
+			cmds[i] = new IrCommandLabel("Label_" + i);
+		Ir ir = new Ir();
+		long start = System.nanoTime();
+		for (IrCommand c : cmds)
+			ir.AddIrCommand(c);
+		List<IrCommand> list = ir.getCommandList();
+		int labels = 0;
+		for (int i = 0; i < list.size(); i++)
+			if (list.get(i).getLabelName() != null) labels++;
+		long elapsed = System.nanoTime() - start;
+		if (labels != n)
+			throw new IllegalStateException("expected " + n + " commands, read " + labels);
+		return elapsed;
+	}
+}
@@ -3,122 +3,89 @@ import java_cup.runtime.Symbol;
 import ast.*;
 import ir.*;
 import cfg.*;
+import dfa.*;
 import mips.*;
 import java.util.*;
 
 public class Main
 {
-	/** Build per-function local/param layout so MIPS can use stack for locals (fixes recursion).
-	 *  Functions that make calls get $ra saved in frame so jr $ra returns to caller. */
+	/** Build the $sp-relative frame of every function: a $ra slot at 0 if it makes any jal, then the
+	 *  callee-saved registers it writes, its params, locals still in memory and spill slots, 4 bytes
+	 *  each. Mem2Reg keeps variables in registers, so a leaf function without spills usually gets no
+	 *  frame at all. */
 	private static void buildFunctionLayouts(List<IrCommand> commands,
+			Map<Integer, String> allocation,
+			Set<Integer> spilledTemps,
 			Map<String, Map<String, Integer>> functionVarOffsets,
 			Map<String, Integer> functionFrameSizes,
-			Map<String, Integer> functionParamCount,
 			Set<String> allLocalVarNames,
-			Set<String> functionSavesRa) {
-		// Find function entry indices
-		List<Integer> entryIndices = new ArrayList<>();
-		for (int i = 0; i < commands.size(); i++) {
-			String ln = commands.get(i).getLabelName();
-			if (ln != null && !ln.startsWith("Label_"))
-				entryIndices.add(i);
-		}
-		// Build call graph and find recursive functions; also find functions that make any call
-		Map<String, Set<String>> callGraph = new HashMap<>();
-		Set<String> allFuncs = new HashSet<>();
-		Set<String> makesCall = new HashSet<>();
-		for (int k = 0; k < entryIndices.size(); k++) {
-			String fn = commands.get(entryIndices.get(k)).getLabelName();
-			allFuncs.add(fn);
-			callGraph.put(fn, new HashSet<>());
-		}
-		for (int k = 0; k < entryIndices.size(); k++) {
-			int start = entryIndices.get(k);
-			int end = (k + 1 < entryIndices.size()) ? entryIndices.get(k + 1) : commands.size();
-			String caller = commands.get(start).getLabelName();
-			for (int i = start; i < end; i++) {
-				IrCommand c = commands.get(i);
-				if (c instanceof IrCommandCall) {
-					makesCall.add(caller);
-					String callee = ((IrCommandCall) c).getFuncName();
-					if (callee != null && allFuncs.contains(callee))
-						callGraph.get(caller).add(callee);
-				} else if (c instanceof IrCommandConcatStrings || c instanceof IrCommandCallAndStoreFieldWithBaseInS2
-						|| c instanceof IrCommandEqStrings) {
-					// These emit jal; caller must save $ra
-					makesCall.add(caller);
-				}
-			}
-		}
-		Set<String> recursive = new HashSet<>();
-		for (String f : allFuncs) {
-			Set<String> visited = new HashSet<>();
-			if (reaches(callGraph, f, f, visited))
-				recursive.add(f);
-		}
+			Set<String> functionSavesRa,
+			Map<String, List<String>> functionCalleeSaves) {
+		List<Integer> entryIndices = Ir.findFunctionEntries(commands);
+		// Params are allocated just before their function's label, i.e. at the end of the previous region
+		Set<String> allParams = new HashSet<>();
+		for (IrCommand c : commands)
+			if (c instanceof IrCommandStoreParam) allParams.add(((IrCommandStoreParam) c).getVarName());
 		for (int k = 0; k < entryIndices.size(); k++) {
 			int start = entryIndices.get(k);
 			int end = (k + 1 < entryIndices.size()) ? entryIndices.get(k + 1) : commands.size();
 			String funcName = commands.get(start).getLabelName();
-			java.util.List<Object[]> paramList = new ArrayList<>();
-			for (int i = start; i < end; i++) {
-				IrCommand c = commands.get(i);
-				if (c instanceof IrCommandStoreParam) {
-					IrCommandStoreParam sp = (IrCommandStoreParam) c;
-					paramList.add(new Object[]{ sp.getVarName(), sp.getParamIndex() });
-				}
-			}
-			paramList.sort((a, b) -> Integer.compare((Integer)a[1], (Integer)b[1]));
-			List<String> paramNames = new ArrayList<>();
-			for (Object[] p : paramList)
-				paramNames.add((String) p[0]);
-			Set<String> paramSet = new HashSet<>(paramNames);
+			boolean savesRa = false;
+			List<IrCommandStoreParam> params = new ArrayList<>();
 			List<String> localNames = new ArrayList<>();
+			// Spill slots of this function's temps, in serial order
+			Set<Integer> spilledHere = new TreeSet<>();
+			Set<String> regsWritten = new HashSet<>();
 			for (int i = start; i < end; i++) {
 				IrCommand c = commands.get(i);
-				if (c instanceof IrCommandAllocate) {
+				// Calls, concat and string equality (and allocation under -DGC=1) emit jal; the function must keep its own $ra
+				if (c instanceof IrCommandCall || c instanceof IrCommandConcatStrings || c instanceof IrCommandEqStrings)
+					savesRa = true;
+				if (MipsGenerator.gcMode() && (c instanceof IrCommandAllocateClass || c instanceof IrCommandAllocateArray))
+					savesRa = true;
+				if (c instanceof IrCommandStoreParam)
+					params.add((IrCommandStoreParam) c);
+				else if (c instanceof IrCommandAllocate) {
 					String v = ((IrCommandAllocate) c).getVarName();
-					if (!paramSet.contains(v) && !localNames.contains(v))
+					if (!allParams.contains(v) && !localNames.contains(v))
 						localNames.add(v);
 				}
+				for (temp.Temp t : c.getUse()) if (spilledTemps.contains(t.getSerialNumber())) spilledHere.add(t.getSerialNumber());
+				for (temp.Temp t : c.getDef()) {
+					if (spilledTemps.contains(t.getSerialNumber())) spilledHere.add(t.getSerialNumber());
+					else regsWritten.add(allocation.get(t.getSerialNumber()));
+				}
 			}
-			List<String> allVars = new ArrayList<>(paramNames);
-			for (String v : localNames) if (!allVars.contains(v)) allVars.add(v);
-			// If function makes a call, reserve word at 0($sp) for $ra; vars at 4,8,... Recursive with 2+ params: save $fp, raSlot=8.
-			boolean savesRa = makesCall.contains(funcName);
-			boolean useFp = recursive.contains(funcName) && allVars.size() > 1;
-			int raSlot = useFp ? 8 : (savesRa ? 4 : 0);
+			// main never returns, so it owes its caller nothing
+			List<String> calleeSaves = new ArrayList<>();
+			if (!"main".equals(funcName))
+				for (String r : MipsGenerator.CALLEE_SAVED_REGS)
+					if (regsWritten.contains(r)) calleeSaves.add(r);
+			params.sort((a, b) -> Integer.compare(a.getParamIndex(), b.getParamIndex()));
+			List<String> allVars = new ArrayList<>(calleeSaves);
+			for (IrCommandStoreParam sp : params) allVars.add(sp.getVarName());
+			allVars.addAll(localNames);
+			for (int serial : spilledHere) allVars.add(MipsGenerator.spillSlotName(serial));
+			int raSlot = savesRa ? 4 : 0;
 			Map<String, Integer> offsets = new HashMap<>();
 			for (int i = 0; i < allVars.size(); i++)
 				offsets.put(allVars.get(i), raSlot + i * 4);
-			int frameSize = raSlot + allVars.size() * 4;
-			if (recursive.contains(funcName)) {
-				functionVarOffsets.put(funcName, offsets);
-				functionFrameSizes.put(funcName, frameSize);
-				functionParamCount.put(funcName, paramNames.size());
-				allLocalVarNames.addAll(allVars);
-				if (savesRa) functionSavesRa.add(funcName);
-			} else if (savesRa) {
-				functionVarOffsets.put(funcName, new HashMap<>());
-				functionFrameSizes.put(funcName, 4);
-				functionSavesRa.add(funcName);
-			} else {
-				functionVarOffsets.put(funcName, new HashMap<>());
-				functionFrameSizes.put(funcName, 0);
-			}
+			functionVarOffsets.put(funcName, offsets);
+			functionFrameSizes.put(funcName, raSlot + allVars.size() * 4);
+			allLocalVarNames.addAll(allVars);
+			if (savesRa) functionSavesRa.add(funcName);
+			functionCalleeSaves.put(funcName, calleeSaves);
 		}
 	}
 
-	private static boolean reaches(Map<String, Set<String>> graph, String start, String target, Set<String> visited) {
-		for (String callee : graph.getOrDefault(start, Collections.emptySet())) {
-			if (callee.equals(target)) return true;
-			if (!visited.contains(callee)) {
-				visited.add(callee);
-				if (reaches(graph, callee, target, visited)) return true;
-				visited.remove(callee);
-			}
-		}
-		return false;
+	/** Emit one command, reloading spilled operands before it and storing spilled results after it.
+	 *  Calls only save the registers of temps live across them. */
+	private static void emitCommand(IrCommand c, Map<IrCommand, Set<Integer>> liveAcrossCalls) {
+		Set<temp.Temp> defs = c.getDef();
+		MipsGenerator.getInstance().reloadSpilled(c.getRegisterUses(), defs);
+		MipsGenerator.getInstance().setLiveAcrossCall(liveAcrossCalls.get(c));
+		c.mipsMe();
+		MipsGenerator.getInstance().storeSpilled(defs);
 	}
 
 	static public void main(String argv[])
@@ -147,27 +114,35 @@ public class Main
 
 			ast.irMe();
 
-			List<IrCommand> commands = Ir.getInstance().getCommandList();
-			Map<Integer, String> allocation = RegisterAllocator.allocate(commands);
-
-			if (allocation == null)
-			{
-				fileWriter.print("Register Allocation Failed");
-				fileWriter.close();
-				return;
-			}
+			UninitializedAnalysis.run(Ir.getInstance().getCommandList());
+			List<IrCommand> commands = Mem2Reg.run(Ir.getInstance().getCommandList());
+			Devirtualization.run(commands);
+			commands = Inliner.run(commands);
+			commands = ConstantPropagation.run(commands);
+			ValueNumbering.run(commands);
+			commands = StringConcatFusion.run(commands);
+			RangeAnalysis ranges = RangeAnalysis.run(commands);
+			BoundsCheckElimination.run(commands, ranges);
+			NullCheckElimination.run(commands);
+			commands = StrengthReduction.run(commands, ranges);
+			commands = LoopInvariantCodeMotion.run(commands);
+			commands = DeadCodeElimination.run(commands);
+			Set<Integer> spilledTemps = new HashSet<>();
+			Map<IrCommand, Set<Integer>> liveAcrossCalls = new IdentityHashMap<>();
+			Map<Integer, String> allocation = RegisterAllocator.allocate(commands, spilledTemps, liveAcrossCalls);
 
-			// Pre-pass: compute per-function local variable layout for stack allocation (fixes recursion)
+			// Pre-pass: compute the $sp-relative frame of every function
 			java.util.Map<String, java.util.Map<String, Integer>> functionVarOffsets = new java.util.HashMap<>();
 			java.util.Map<String, Integer> functionFrameSizes = new java.util.HashMap<>();
-			java.util.Map<String, Integer> functionParamCount = new java.util.HashMap<>();
 			java.util.Set<String> allLocalVarNames = new java.util.HashSet<>();
 			java.util.Set<String> functionSavesRa = new java.util.HashSet<>();
-			buildFunctionLayouts(commands, functionVarOffsets, functionFrameSizes, functionParamCount, allLocalVarNames, functionSavesRa);
+			java.util.Map<String, List<String>> functionCalleeSaves = new java.util.HashMap<>();
+			buildFunctionLayouts(commands, allocation, spilledTemps, functionVarOffsets, functionFrameSizes, allLocalVarNames, functionSavesRa, functionCalleeSaves);
 
 			MipsGenerator.getInstance().setOutput(fileWriter);
 			MipsGenerator.getInstance().setRegisterAllocation(allocation);
-			MipsGenerator.getInstance().setFunctionLayouts(allLocalVarNames, functionVarOffsets, functionFrameSizes, functionParamCount, functionSavesRa);
+			MipsGenerator.getInstance().setSpilledTemps(spilledTemps);
+			MipsGenerator.getInstance().setFunctionLayouts(allLocalVarNames, functionVarOffsets, functionFrameSizes, functionSavesRa, functionCalleeSaves);
 			// Global init is only the IR before IrCommandGlobalInitEnd (global var allocate/store).
 			int globalInitEndIdx = 0;
 			for (int i = 0; i < commands.size(); i++) {
@@ -178,10 +153,10 @@ public class Main
 			}
 			MipsGenerator.getInstance().emitProgramEntry();
 			for (int i = 0; i < globalInitEndIdx; i++)
-				commands.get(i).mipsMe();
+				emitCommand(commands.get(i), liveAcrossCalls);
 			MipsGenerator.getInstance().emitPreambleAndHandlers();
 			for (int i = globalInitEndIdx + 1; i < commands.size(); i++)
-				commands.get(i).mipsMe();
+				emitCommand(commands.get(i), liveAcrossCalls);
 			MipsGenerator.getInstance().finalizeFile();
 
 			AstGraphviz.getInstance().finalizeFile();
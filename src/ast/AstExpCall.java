@@ -279,91 +279,30 @@ public class AstExpCall extends AstExp
                 paramExps.add(e.head);
         java.util.Collections.reverse(paramExps);
 
-        // Only for method calls (obj.method(...) / arr.foo(...)): save receiver to $s2 before evaluating other args.
-        // For global functions like BubbleSort(arr, 7), do not reorder — first arg is just first arg.
-        // After reverse, method-call list from grammar (receiver, args) is [args..., receiver], so receiver is last.
-        java.util.List<Temp> argTemps = new java.util.ArrayList<>();
-        boolean firstArgFromS2 = false;
-        boolean arg0InS0 = false;
-        boolean arg0OnStack = false;
-        /** When true, 4+ args and second param (args.get(1)) was pushed; load $a2 from stack. */
-        boolean arg1OnStack = false;
-        /** When true, exactly 3 args evaluated left-to-right; first two pushed. Used only for 3-arg global calls (TEST_203). */
-        boolean argsPushedLTR3 = false;
-        if (!paramExps.isEmpty() && isMethodCall && (firstArgType instanceof types.TypeArray || firstArgType instanceof TypeClass)) {
-            int receiverIdx = paramExps.size() - 1;
-            ast.AstExp receiverExp = paramExps.get(receiverIdx);
-            if (receiverExp instanceof AstExpVarSimple) {
-                String receiverIrName = ir.VarNameMapper.getInstance().getIrName(((AstExpVarSimple) receiverExp).name);
-                if (receiverIrName != null) {
-                    Ir.getInstance().AddIrCommand(new IrCommandLoadVarToS2(receiverIrName));
-                } else {
-                    Temp firstArgTemp = receiverExp.irMe();
-                    Ir.getInstance().AddIrCommand(new IrCommandMoveBaseToS2(firstArgTemp));
-                }
-            } else {
-                Temp firstArgTemp = receiverExp.irMe();
-                Ir.getInstance().AddIrCommand(new IrCommandMoveBaseToS2(firstArgTemp));
-            }
-            for (int i = 0; i < receiverIdx; i++) {
-                Temp t = paramExps.get(i).irMe();
-                argTemps.add(t);
-                // Preserve method-call arg in $s0 so it isn't clobbered (e.g. obj.addPairs(other) when obj/other are call results).
-                if (receiverIdx == 1) {
-                    Ir.getInstance().AddIrCommand(new ir.IrCommandMoveTempToS0(t));
-                    arg0InS0 = true;
-                }
-            }
-            firstArgFromS2 = true;
+        // Arguments are passed as plain temps in parameter order; the register allocator keeps
+        // earlier ones alive across nested calls and coalesces them into $a0-$a3 where it can.
+        // Evaluation order is unchanged: for method calls (obj.m(...) / arr.foo(...)) the receiver,
+        // which is last after the reverse, is evaluated first and becomes param 0.
+        int n = paramExps.size();
+        Temp[] argTemps = new Temp[n];
+        if (n > 0 && isMethodCall && (firstArgType instanceof types.TypeArray || firstArgType instanceof TypeClass)) {
+            argTemps[0] = paramExps.get(n - 1).irMe();
+            for (int i = 0; i < n - 1; i++)
+                argTemps[i + 1] = paramExps.get(i).irMe();
+        } else if (n == 2 || n == 3) {
+            // 2 or 3 args: evaluate left-to-right so side effects run in source order (TEST_203, TEST_86).
+            for (int i = 0; i < n; i++)
+                argTemps[i] = paramExps.get(i).irMe();
         } else {
-            int size = paramExps.size();
-            // 2 or 3 args: evaluate left-to-right so side effects run in source order (TEST_203, TEST_86). Push first size-1.
-            if (size == 2 || size == 3) {
-                argsPushedLTR3 = true;
-                for (int i = 0; i < size; i++) {
-                    Temp t = paramExps.get(i).irMe();
-                    argTemps.add(t);
-                    if (i < size - 1)
-                        Ir.getInstance().AddIrCommand(new ir.IrCommandPush(t));
-                }
-            } else {
-                // Evaluate right-to-left; preserve first-evaluated so it isn't clobbered (fixes addPairs(addPairs(a,b), addPairs(a,b))).
-                if (DEBUG_ARGS_STDERR) {
-                    System.err.println("[DEBUG_ARGS] " + funcName + " paramExps.size()=" + paramExps.size() + " (before eval, source order after reverse: param0=1st, param1=2nd)");
-                    for (int i = 0; i < paramExps.size(); i++)
-                        System.err.println("  param[" + i + "] class=" + paramExps.get(i).getClass().getSimpleName());
-                }
-                boolean logEvalOrder = (System.getProperty("DEBUG_EVAL_ORDER") != null);
-                for (int i = paramExps.size() - 1; i >= 0; i--) {
-                    if (logEvalOrder) {
-                        System.err.println("[DEBUG_EVAL_ORDER] " + funcName + " about to eval arg " + (i + 1) + " (0-based i=" + i + ")");
-                        Ir.getInstance().AddIrCommand(new ir.IrCommandDebugPrintConstInt(i + 1));
-                    }
-                    Temp t = paramExps.get(i).irMe();
-                    argTemps.add(t);
-                    if (DEBUG_ARGS_STDERR) System.err.println("[DEBUG_ARGS] " + funcName + " eval order: i=" + i + " -> temp " + t + " (argTemps[" + (paramExps.size()-1-i) + "])");
-                    int sz = paramExps.size();
-                    // Preserve first param (leftmost, evaluated last when i==0) so it isn't clobbered before the call.
-                    if (i == 0 && sz > 1) {
-                        if (System.getProperty("DEBUG_ARGS") != null) System.err.println("[DEBUG_ARGS] AstExpCall " + funcName + " preserving arg i=" + i + " (1st param) in $s0+stack, temp=" + t);
-                        Ir.getInstance().AddIrCommand(new ir.IrCommandMoveTempToS0(t));
-                        Ir.getInstance().AddIrCommand(new ir.IrCommandPushS0());
-                        arg0OnStack = true;
-                        arg0InS0 = true;
-                    }
-                    if (i == 1 && sz == 3) {
-                        if (System.getProperty("DEBUG_ARGS") != null) System.err.println("[DEBUG_ARGS] AstExpCall " + funcName + " preserving arg i=" + i + ", temp=" + t);
-                        Ir.getInstance().AddIrCommand(new ir.IrCommandMoveTempToS0(t));
-                        arg0InS0 = true;
-                    }
-                    // Preserve param that goes in $a2 (third arg) so it isn't clobbered; push when i==2 for 4+ args.
-                    if (i == 2 && sz >= 4) {
-                        if (System.getProperty("DEBUG_ARGS") != null) System.err.println("[DEBUG_ARGS] AstExpCall " + funcName + " preserving arg i=" + i + " (3rd param) on stack, temp=" + t);
-                        Ir.getInstance().AddIrCommand(new ir.IrCommandPush(t));
-                        arg1OnStack = true;
-                    }
+            // Evaluate right-to-left.
+            boolean logEvalOrder = (System.getProperty("DEBUG_EVAL_ORDER") != null);
+            for (int i = n - 1; i >= 0; i--) {
+                if (logEvalOrder) {
+                    System.err.println("[DEBUG_EVAL_ORDER] " + funcName + " about to eval arg " + (i + 1) + " (0-based i=" + i + ")");
+                    Ir.getInstance().AddIrCommand(new ir.IrCommandDebugPrintConstInt(i + 1));
                 }
-                if (System.getProperty("DEBUG_ARGS") != null && arg0InS0) System.err.println("[DEBUG_ARGS] AstExpCall " + funcName + " arg0InS0=true, argTemps.size()=" + argTemps.size());
+                argTemps[i] = paramExps.get(i).irMe();
+                if (DEBUG_ARGS_STDERR) System.err.println("[DEBUG_ARGS] " + funcName + " eval order: i=" + i + " -> temp " + argTemps[i]);
             }
         }
 
@@ -377,7 +316,7 @@ public class AstExpCall extends AstExp
             dst = TempFactory.getInstance().getFreshTemp();
 
         boolean isVirtual = (isMethodCall && firstArgType instanceof TypeClass);
-        int methodSlot = isVirtual ? types.VtableBuilder.getMethodSlot(funcName) : -1;
+        int methodSlot = isVirtual ? types.VtableBuilder.getMethodSlot(((TypeClass) firstArgType).name, funcName) : -1;
         String mipsLabel = funcName;
         if (isVirtual && methodSlot < 0) {
             TypeClass receiverClass = (TypeClass) firstArgType;
@@ -385,7 +324,8 @@ public class AstExpCall extends AstExp
             if (definingClass != null)
                 mipsLabel = definingClass.name + "_" + funcName;
         }
-        Ir.getInstance().AddIrCommand(new IrCommandCall(dst, mipsLabel, argTemps, null, firstArgFromS2, isVirtual && methodSlot >= 0, methodSlot, arg0InS0, arg0OnStack, arg1OnStack, argsPushedLTR3));
+        String receiverClass = (isVirtual && methodSlot >= 0) ? ((TypeClass) firstArgType).name : null;
+        Ir.getInstance().AddIrCommand(new IrCommandCall(dst, mipsLabel, java.util.Arrays.asList(argTemps), isVirtual && methodSlot >= 0, methodSlot, receiverClass));
         return dst;
     }
 }
@@ -3,11 +3,16 @@ package ast;
 import types.*;
 import temp.*;
 import ir.*;
+import java.util.HashMap;
+import java.util.Map;
 
 public class AstExpString extends AstExp
 {
     public String value;
 
+    /** Literal text -> label of its .asciiz: identical literals share one copy (and compare by pointer). */
+    private static final Map<String, String> literalLabels = new HashMap<String, String>();
+
     /******************/
     /* ORIGINAL CONSTRUCTOR USED BY CUP */
     /******************/
@@ -48,7 +53,7 @@ public class AstExpString extends AstExp
     /*****************/
     @Override
     public Temp irMe() {
-        String label = "str_" + serialNumber;
+        String label = literalLabels.computeIfAbsent(value, v -> "str_" + serialNumber);
         Ir.getInstance().AddIrCommand(new IrCommandAllocateString(label, value));
         Temp dst = TempFactory.getInstance().getFreshTemp();
         Ir.getInstance().AddIrCommand(new IrCommandLoadAddress(dst, label));
@@ -77,18 +77,8 @@ public class AstExpVarSubscript extends AstExpVar
     /*****************/
     @Override
     public Temp irMe() {
-        // Evaluate index first so any call in subscript does not clobber the array base.
-        // When subscript is a call (e.g. arr[birthday()]), push index so loading base cannot overwrite it.
+        // Evaluate index first, then the array base.
         Temp indexTemp = subscript.irMe();
-        if (subscript instanceof AstExpCall) {
-            Ir.getInstance().AddIrCommand(new IrCommandPush(indexTemp));
-            Temp arrayBase = var.irMe();
-            Temp indexRestored = TempFactory.getInstance().getFreshTemp();
-            Ir.getInstance().AddIrCommand(new IrCommandPop(indexRestored));
-            Temp dst = TempFactory.getInstance().getFreshTemp();
-            Ir.getInstance().AddIrCommand(new IrCommandLoadArray(dst, arrayBase, indexRestored));
-            return dst;
-        }
         Temp arrayBase = var.irMe();
         Temp dst = TempFactory.getInstance().getFreshTemp();
         Ir.getInstance().AddIrCommand(new IrCommandLoadArray(dst, arrayBase, indexTemp));
@@ -117,59 +117,20 @@ public class AstStmtAssign extends AstStmt
         else if (var instanceof AstExpVarField)
         {
             AstExpVarField f = (AstExpVarField) var;
-            if (exp instanceof AstExpCall)
-            {
-                // When base is simple var (e.g. l3), load it directly into $s2 from memory so no temp can be clobbered.
-                String baseIrName = null;
-                if (f.var instanceof AstExpVarSimple) {
-                    baseIrName = VarNameMapper.getInstance().getIrName(((AstExpVarSimple) f.var).name);
-                    if (baseIrName == null) baseIrName = ((AstExpVarSimple) f.var).name;
-                    Ir.getInstance().AddIrCommand(new IrCommandLoadVarToS2(baseIrName));
-                } else {
-                    Temp baseTemp = f.var.irMe();
-                    Ir.getInstance().AddIrCommand(new IrCommandMoveBaseToS2(baseTemp));
-                }
-                AstExpCall call = (AstExpCall) exp;
-                java.util.List<Temp> argTemps = new java.util.ArrayList<>();
-                for (AstExpList e = call.params; e != null; e = e.tail)
-                    if (e.head != null) argTemps.add(e.head.irMe());
-                java.util.Collections.reverse(argTemps);
-                boolean isVirtual = (call.isMethodCall && call.firstArgType instanceof TypeClass);
-                int methodSlot = isVirtual ? types.VtableBuilder.getMethodSlot(call.funcName) : -1;
-                String mipsLabel = call.funcName;
-                if (isVirtual && methodSlot < 0) {
-                    TypeClass definingClass = ((TypeClass) call.firstArgType).getMethodDefiningClass(call.funcName);
-                    if (definingClass != null)
-                        mipsLabel = definingClass.name + "_" + call.funcName;
-                }
-                Ir.getInstance().AddIrCommand(new IrCommandCallAndStoreFieldWithBaseInS2(mipsLabel, argTemps, f.fieldOffset, isVirtual && methodSlot >= 0, methodSlot));
-                // Restore base var from $s2 so outer activation's slot is correct for later "return l3" (callee may have overwritten it).
-                if (baseIrName != null)
-                    Ir.getInstance().AddIrCommand(new IrCommandStoreS2ToVar(baseIrName));
-            }
-            else
-            {
-                Temp baseTemp = f.var.irMe();
-                Temp rhsTemp = exp.irMe();
-                Ir.getInstance().AddIrCommand(new IrCommandStoreField(baseTemp, f.fieldOffset, rhsTemp));
-            }
+            // Base first, then RHS; the null check on the base happens at the store, after the RHS.
+            Temp baseTemp = f.var.irMe();
+            Temp rhsTemp = exp.irMe();
+            Ir.getInstance().AddIrCommand(new IrCommandStoreField(baseTemp, f.fieldOffset, rhsTemp));
         }
         else if (var instanceof AstExpVarSubscript)
         {
             AstExpVarSubscript s = (AstExpVarSubscript) var;
             // LHS must be evaluated before RHS: e.g. arr[age] := arr[birthday()]+1000
             // must use age (10) before birthday() runs and updates it to 11.
-            // Use $s1 for index: move to $s1, push, RHS, pop, then store (index=null uses $s1).
             Temp indexTemp = s.subscript.irMe();
-            Ir.getInstance().AddIrCommand(new IrCommandMoveToS1(indexTemp));
-            Ir.getInstance().AddIrCommand(new IrCommandPushS1());
             Temp arrayBase = s.var.irMe();
-            Ir.getInstance().AddIrCommand(new IrCommandMoveBaseToS2(arrayBase));
-            Ir.getInstance().AddIrCommand(new IrCommandPushS2());
             Temp rhsTemp = exp.irMe();
-            Ir.getInstance().AddIrCommand(new IrCommandPopS2());
-            Ir.getInstance().AddIrCommand(new IrCommandPopS1());
-            Ir.getInstance().AddIrCommand(new IrCommandStoreArrayWithBaseInS2(null, rhsTemp));
+            Ir.getInstance().AddIrCommand(new IrCommandStoreArray(arrayBase, indexTemp, rhsTemp));
         }
 
         return null;
@@ -4,39 +4,52 @@ import ir.*;
 import java.util.*;
 
 /**
- * Control Flow Graph - represents the flow of execution through IR commands.
+ * Control Flow Graph - the basic blocks of a command list and the edges between them.
+ * The graph is fixed once CFGBuilder returns it, so the dominator tree and loop nest
+ * are computed on first request and shared by every pass that asks for them.
  */
 public class CFG
 {
     /****************/
     /* DATA MEMBERS */
     /****************/
-    public CFGNode entry;               // Entry point (first node)
-    public CFGNode exit;                // Exit point (last node)
-    public List<CFGNode> nodes;         // All nodes in the CFG
-    public Map<String, CFGNode> labels; // Map from label names to nodes
-    
+    public CFGNode entry;               // Entry point (first block)
+    public CFGNode exit;                // Exit point (last block)
+    public List<CFGNode> nodes;         // All blocks, in layout order
+    public Map<String, CFGNode> labels; // Map from label names to the blocks they start
+    public List<CFGNode> roots;         // Blocks control can enter from outside: the entry and every function label
+    private final List<IrCommand> commands;
+    private int[] blockOf;              // Command index -> block id
+
+    private DominatorTree dominatorTree;
+    private LoopNest loopNest;
+
     /******************/
     /* CONSTRUCTOR(S) */
     /******************/
-    public CFG()
+    public CFG(List<IrCommand> commands)
     {
+        this.commands = commands;
         this.nodes = new ArrayList<>();
         this.labels = new HashMap<>();
+        this.roots = new ArrayList<>();
+        this.blockOf = new int[commands.size()];
         this.entry = null;
         this.exit = null;
     }
-    
+
     /***************/
     /* ADD NODE    */
     /***************/
-    public CFGNode addNode(IrCommand command)
+    public CFGNode addNode(int start, int end)
     {
-        CFGNode node = new CFGNode(command, nodes.size());
+        CFGNode node = new CFGNode(commands, start, end, nodes.size());
+        for (int i = start; i < end; i++)
+            blockOf[i] = node.id;
         nodes.add(node);
         return node;
     }
-    
+
     /***************/
     /* GET NODES   */
     /***************/
@@ -44,7 +57,40 @@ public class CFG
     {
         return nodes;
     }
-    
+
+    public int size()
+    {
+        return nodes.size();
+    }
+
+    public List<IrCommand> getCommands()
+    {
+        return commands;
+    }
+
+    /** The block containing command index i. */
+    public CFGNode getBlockOf(int i)
+    {
+        return nodes.get(blockOf[i]);
+    }
+
+    /***************/
+    /* ANALYSES    */
+    /***************/
+    public DominatorTree getDominatorTree()
+    {
+        if (dominatorTree == null)
+            dominatorTree = DominatorTree.build(this);
+        return dominatorTree;
+    }
+
+    public LoopNest getLoopNest()
+    {
+        if (loopNest == null)
+            loopNest = LoopNest.build(this, getDominatorTree());
+        return loopNest;
+    }
+
     /***************/
     /* TO STRING   */
     /***************/
@@ -53,15 +99,17 @@ public class CFG
     {
         StringBuilder sb = new StringBuilder();
         sb.append("=== Control Flow Graph ===\n");
-        sb.append(String.format("Total nodes: %d\n", nodes.size()));
+        sb.append(String.format("Total blocks: %d\n", nodes.size()));
         sb.append(String.format("Entry: %s\n", entry));
         sb.append(String.format("Exit: %s\n", exit));
-        sb.append("\nNodes:\n");
+        sb.append("\nBlocks:\n");
         for (CFGNode node : nodes)
         {
-            sb.append(String.format("  %s -> successors: %d\n", 
-                node, node.successors.size()));
+            sb.append(String.format("  %s -> successors:", node));
+            for (CFGNode s : node.successors)
+                sb.append(" ").append(s.id);
+            sb.append("\n");
         }
         return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -1,107 +1,104 @@
 package cfg;
 
 import ir.*;
-import temp.*;
 import java.util.*;
 
 /**
- * Builds a Control Flow Graph from a list of IR commands.
+ * Builds a block-level Control Flow Graph from a list of IR commands.
+ *
+ * A block starts at the first command, at every label and after every jump,
+ * branch, return or jr $ra. A block ends by:
+ *  - IrCommandJumpLabel:      edge to the target only
+ *  - IrCommandReturn:         edge to the function's end label only (it returns directly)
+ *  - IrCommandJumpIfEqToZero: edges to the next block and to the target
+ *  - IrCommandJrRa:           no edges
+ *  - anything else:           edge to the next block
  */
 public class CFGBuilder
 {
     /**
      * Build CFG from IR singleton.
-     * We need to add a method to Ir to get all commands.
      */
     public static CFG buildFromIr(Ir ir)
     {
-        // Get all IR commands
-        List<IrCommand> commands = getAllCommands(ir);
-        
-        if (commands.isEmpty())
-        {
-            return new CFG();
-        }
-        
-        return buildFromCommandList(commands);
+        return buildFromCommandList(ir.getCommandList());
     }
-    
-    /**
-     * Extract all IR commands from the Ir singleton.
-     */
-    private static List<IrCommand> getAllCommands(Ir ir)
-    {
-        return ir.getCommandList();
-    }
-    
+
     /**
-     * Build CFG from a list of IR commands.
+     * Build CFG from a list of IR commands. The list must not change while the CFG is in use.
      */
     public static CFG buildFromCommandList(List<IrCommand> commands)
     {
-        CFG cfg = new CFG();
-        
-        if (commands.isEmpty())
+        CFG cfg = new CFG(commands);
+        int n = commands.size();
+        if (n == 0)
         {
             return cfg;
         }
-        
-        // Create a node for each command
-        List<CFGNode> nodes = new ArrayList<>();
-        Map<String, CFGNode> labelToNode = new HashMap<>();
-        
-        for (IrCommand cmd : commands)
+
+        // Find leaders
+        boolean[] leader = new boolean[n + 1];
+        leader[0] = true;
+        for (int i = 0; i < n; i++)
+        {
+            IrCommand cmd = commands.get(i);
+            if (cmd.getLabelName() != null)
+                leader[i] = true;
+            if (endsBlock(cmd))
+                leader[i + 1] = true;
+        }
+
+        // Create a node for each block
+        int start = 0;
+        for (int i = 1; i <= n; i++)
         {
-            CFGNode node = cfg.addNode(cmd);
-            nodes.add(node);
-            
-            // If this is a label, map it
-            String labelName = cmd.getLabelName();
-            if (labelName != null)
-                labelToNode.put(labelName, node);
+            if (i == n || leader[i])
+            {
+                CFGNode node = cfg.addNode(start, i);
+                String labelName = commands.get(start).getLabelName();
+                if (labelName != null)
+                    cfg.labels.put(labelName, node);
+                start = i;
+            }
         }
-        
-        // Set entry and exit
+
+        // Set entry, exit and roots
+        List<CFGNode> nodes = cfg.nodes;
         cfg.entry = nodes.get(0);
         cfg.exit = nodes.get(nodes.size() - 1);
-        
+        cfg.roots.add(cfg.entry);
+        for (CFGNode node : nodes)
+        {
+            String labelName = node.getFirstCommand().getLabelName();
+            if (node != cfg.entry && labelName != null && !labelName.startsWith("Label_"))
+                cfg.roots.add(node);
+        }
+
         // Build edges
-        for (int i = 0; i < nodes.size(); i++)
+        for (CFGNode current : nodes)
         {
-            CFGNode current = nodes.get(i);
-            IrCommand cmd = current.command;
-            
-            // Check command type and add appropriate edges
-            String jumpTarget = cmd.getJumpLabel();
-            boolean unconditionalJump = (cmd instanceof IrCommandJumpLabel || cmd instanceof IrCommandReturn);
+            IrCommand last = current.getLastCommand();
+            CFGNode next = (current.id + 1 < nodes.size()) ? nodes.get(current.id + 1) : null;
+            String jumpTarget = last.getJumpLabel();
+            CFGNode target = (jumpTarget != null) ? cfg.labels.get(jumpTarget) : null;
 
-            if (unconditionalJump && jumpTarget != null)
-            {
-                CFGNode target = labelToNode.get(jumpTarget);
-                if (target != null)
-                    current.addSuccessor(target);
-            }
-            else if (cmd instanceof IrCommandJumpIfEqToZero && jumpTarget != null)
-            {
-                CFGNode target = labelToNode.get(jumpTarget);
-                if (target != null)
-                    current.addSuccessor(target);
-                if (i + 1 < nodes.size())
-                    current.addSuccessor(nodes.get(i + 1));
-            }
-            else
-            {
-                if (i + 1 < nodes.size())
-                    current.addSuccessor(nodes.get(i + 1));
-                if (jumpTarget != null)
-                {
-                    CFGNode target = labelToNode.get(jumpTarget);
-                    if (target != null)
-                        current.addSuccessor(target);
-                }
-            }
+            boolean fallsThrough = !(last instanceof IrCommandJumpLabel
+                || last instanceof IrCommandReturn
+                || last instanceof IrCommandJrRa);
+            if (fallsThrough && next != null)
+                current.addSuccessor(next);
+            if (target != null)
+                current.addSuccessor(target);
         }
 
         return cfg;
     }
-}
\ No newline at end of file
+
+    private static boolean endsBlock(IrCommand cmd)
+    {
+        return cmd.getJumpLabel() != null
+            || cmd instanceof IrCommandJumpLabel
+            || cmd instanceof IrCommandReturn
+            || cmd instanceof IrCommandJrRa;
+    }
+}
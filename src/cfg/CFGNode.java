@@ -4,42 +4,59 @@ import ir.*;
 import java.util.*;
 
 /**
- * Represents a single node in the Control Flow Graph.
- * Each node contains one IR command and has edges to successor/predecessor nodes.
+ * Represents a basic block in the Control Flow Graph: the commands
+ * [start, end) of the underlying command list. Control enters a block
+ * only at its first command and leaves it only after its last one.
  */
 public class CFGNode
 {
     /****************/
     /* DATA MEMBERS */
     /****************/
-    public IrCommand command;           // The IR command at this node
-    public List<CFGNode> successors;    // Nodes that can execute after this one
-    public List<CFGNode> predecessors;  // Nodes that can execute before this one
-    public int id;                      // Unique identifier for debugging
-    
-    // For DFA: sets of variables
-    public Set<String> gen;             // Variables defined (generated) at this node
-    public Set<String> kill;            // Variables that might be killed at this node
-    public Set<String> in;              // Variables initialized coming INTO this node
-    public Set<String> out;             // Variables initialized going OUT of this node
-    
+    public final int id;                // Index in CFG.nodes (blocks are numbered in layout order)
+    public final int start;             // Index of the first command in the command list
+    public final int end;               // One past the index of the last command
+    public List<CFGNode> successors;    // Blocks that can execute after this one
+    public List<CFGNode> predecessors;  // Blocks that can execute before this one
+    private final List<IrCommand> commands;
+
     /******************/
     /* CONSTRUCTOR(S) */
     /******************/
-    public CFGNode(IrCommand command, int id)
+    public CFGNode(List<IrCommand> commands, int start, int end, int id)
     {
-        this.command = command;
+        this.commands = commands;
+        this.start = start;
+        this.end = end;
         this.id = id;
-        this.successors = new ArrayList<>();
-        this.predecessors = new ArrayList<>();
-        
-        // Initialize DFA sets
-        this.gen = new HashSet<>();
-        this.kill = new HashSet<>();
-        this.in = new HashSet<>();
-        this.out = new HashSet<>();
+        this.successors = new ArrayList<>(2);
+        this.predecessors = new ArrayList<>(2);
+    }
+
+    /****************/
+    /* COMMANDS     */
+    /****************/
+    /** View of the block's commands (no copy is made). */
+    public List<IrCommand> getCommands()
+    {
+        return commands.subList(start, end);
+    }
+
+    public IrCommand getFirstCommand()
+    {
+        return commands.get(start);
     }
-    
+
+    public IrCommand getLastCommand()
+    {
+        return commands.get(end - 1);
+    }
+
+    public int size()
+    {
+        return end - start;
+    }
+
     /***************/
     /* ADD EDGE    */
     /***************/
@@ -54,14 +71,15 @@ public class CFGNode
             successor.predecessors.add(this);
         }
     }
-    
+
     /***************/
     /* TO STRING   */
     /***************/
     @Override
     public String toString()
     {
-        String cmdType = (command != null) ? command.getClass().getSimpleName() : "null";
-        return String.format("CFGNode[%d]: %s", id, cmdType);
+        String label = getFirstCommand().getLabelName();
+        return String.format("CFGNode[%d]: commands %d..%d%s", id, start, end - 1,
+            (label != null) ? " (" + label + ")" : "");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+package cfg;
+
+import java.util.*;
+
+/**
+ * Immutable dominator tree of a CFG, computed with the iterative algorithm of
+ * Cooper, Harvey and Kennedy over the reverse postorder. Every root of the CFG
+ * (program entry, function labels) heads its own tree; blocks no root reaches
+ * are unreachable and have no dominator.
+ */
+public final class DominatorTree
+{
+    /****************/
+    /* DATA MEMBERS */
+    /****************/
+    private final int[] idom;           // Immediate dominator; -1 for roots and unreachable blocks
+    private final boolean[] reachable;
+    private final int[] rpo;            // Reachable blocks in reverse postorder
+    private final int[] depth;          // Depth in the dominator tree (roots are 0)
+    private final int[][] children;
+    private final int[][] frontier;
+
+    private DominatorTree(int[] idom, boolean[] reachable, int[] rpo, int[] depth, int[][] children, int[][] frontier)
+    {
+        this.idom = idom;
+        this.reachable = reachable;
+        this.rpo = rpo;
+        this.depth = depth;
+        this.children = children;
+        this.frontier = frontier;
+    }
+
+    /***************/
+    /* BUILD       */
+    /***************/
+    public static DominatorTree build(CFG cfg)
+    {
+        int n = cfg.size();
+        List<CFGNode> nodes = cfg.getNodes();
+
+        // Reverse postorder of a DFS from every root in turn
+        int[] post = new int[n];
+        int count = 0;
+        boolean[] seen = new boolean[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        for (CFGNode root : cfg.roots)
+        {
+            if (seen[root.id]) continue;
+            int sp = 0;
+            stack[sp++] = root.id;
+            seen[root.id] = true;
+            while (sp > 0)
+            {
+                CFGNode b = nodes.get(stack[sp - 1]);
+                if (next[b.id] < b.successors.size())
+                {
+                    int s = b.successors.get(next[b.id]++).id;
+                    if (!seen[s]) { seen[s] = true; stack[sp++] = s; }
+                }
+                else
+                {
+                    post[count++] = b.id;
+                    sp--;
+                }
+            }
+        }
+        int[] rpo = new int[count];
+        int[] order = new int[n];
+        Arrays.fill(order, -1);
+        for (int i = 0; i < count; i++)
+        {
+            rpo[i] = post[count - 1 - i];
+            order[rpo[i]] = i;
+        }
+
+        // Roots hang off a virtual block n that comes first in the order, so separate trees meet there
+        boolean[] isRoot = new boolean[n];
+        for (CFGNode root : cfg.roots) isRoot[root.id] = true;
+        int[] idom = new int[n + 1];
+        int[] orderWithTop = Arrays.copyOf(order, n + 1);
+        orderWithTop[n] = -1;
+        Arrays.fill(idom, -1);
+        idom[n] = n;
+        for (CFGNode root : cfg.roots) idom[root.id] = n;
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int i = 0; i < count; i++)
+            {
+                int b = rpo[i];
+                if (isRoot[b]) continue;
+                int newIdom = -1;
+                for (CFGNode p : nodes.get(b).predecessors)
+                {
+                    if (idom[p.id] < 0) continue;
+                    newIdom = (newIdom < 0) ? p.id : intersect(p.id, newIdom, idom, orderWithTop);
+                }
+                if (newIdom != idom[b]) { idom[b] = newIdom; changed = true; }
+            }
+        }
+        idom = Arrays.copyOf(idom, n);
+        for (int b = 0; b < n; b++)
+            if (idom[b] == n) idom[b] = -1;
+
+        boolean[] reachable = new boolean[n];
+        int[] depth = new int[n];
+        int[] childCount = new int[n];
+        for (int b : rpo)
+        {
+            reachable[b] = true;
+            if (idom[b] >= 0)
+            {
+                depth[b] = depth[idom[b]] + 1;
+                childCount[idom[b]]++;
+            }
+        }
+        int[][] children = new int[n][];
+        for (int b = 0; b < n; b++) children[b] = new int[childCount[b]];
+        Arrays.fill(childCount, 0);
+        for (int b : rpo)
+            if (idom[b] >= 0) children[idom[b]][childCount[idom[b]]++] = b;
+
+        // Dominance frontiers: walk up from each predecessor of a join to the join's idom
+        List<Set<Integer>> df = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) df.add(new LinkedHashSet<>());
+        for (int b : rpo)
+        {
+            List<CFGNode> preds = nodes.get(b).predecessors;
+            if (preds.size() < 2) continue;
+            for (CFGNode p : preds)
+            {
+                if (!reachable[p.id]) continue;
+                for (int runner = p.id; runner >= 0 && runner != idom[b]; runner = idom[runner])
+                    df.get(runner).add(b);
+            }
+        }
+        int[][] frontier = new int[n][];
+        for (int b = 0; b < n; b++)
+            frontier[b] = df.get(b).stream().mapToInt(Integer::intValue).toArray();
+
+        return new DominatorTree(idom, reachable, rpo, depth, children, frontier);
+    }
+
+    private static int intersect(int a, int b, int[] idom, int[] order)
+    {
+        while (a != b)
+        {
+            while (order[a] > order[b]) a = idom[a];
+            while (order[b] > order[a]) b = idom[b];
+        }
+        return a;
+    }
+
+    /***************/
+    /* QUERIES     */
+    /***************/
+    /** Immediate dominator of block b, or -1 if b is a root or unreachable. */
+    public int getIdom(int b) { return idom[b]; }
+
+    public boolean isReachable(int b) { return reachable[b]; }
+
+    /** Depth of b in its dominator tree; roots have depth 0. */
+    public int getDepth(int b) { return depth[b]; }
+
+    /** True if every path from a root to b goes through a (a block dominates itself). */
+    public boolean dominates(int a, int b)
+    {
+        if (!reachable[a] || !reachable[b]) return false;
+        while (depth[b] > depth[a]) b = idom[b];
+        return a == b;
+    }
+
+    /** Blocks immediately dominated by b, in reverse postorder. */
+    public int[] getChildren(int b) { return children[b].clone(); }
+
+    /** Dominance frontier of b. */
+    public int[] getFrontier(int b) { return frontier[b].clone(); }
+
+    /** Reachable blocks in reverse postorder (each block after its dominators). */
+    public int[] getReversePostorder() { return rpo.clone(); }
+}
@@ -0,0 +1,118 @@
+package cfg;
+
+import java.util.*;
+
+/**
+ * Natural loops of a CFG and how they nest. A back edge is an edge p -> h where h
+ * dominates p; the loop of header h is h plus every block that reaches such a p
+ * without passing through h (back edges to the same header share one loop).
+ * L's while statements always produce reducible graphs, so retreating edges that
+ * are not back edges are not treated as loops.
+ */
+public final class LoopNest
+{
+    /** One natural loop. */
+    public static final class Loop
+    {
+        private final int header;
+        private final int[] blocks;     // Sorted block ids, header included
+        private Loop parent;
+        private int depth;
+
+        private Loop(int header, int[] blocks)
+        {
+            this.header = header;
+            this.blocks = blocks;
+        }
+
+        public int getHeader() { return header; }
+
+        /** Block ids of the loop body in layout order, including the header and inner loops. */
+        public int[] getBlocks() { return blocks.clone(); }
+
+        public boolean contains(int b) { return Arrays.binarySearch(blocks, b) >= 0; }
+
+        /** Innermost enclosing loop, or null for an outermost loop. */
+        public Loop getParent() { return parent; }
+
+        /** 1 for an outermost loop. */
+        public int getDepth() { return depth; }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Loop[header=%d, blocks=%d, depth=%d]", header, blocks.length, depth);
+        }
+    }
+
+    /****************/
+    /* DATA MEMBERS */
+    /****************/
+    private final List<Loop> loops;     // Outer loops before the loops they contain
+    private final Loop[] innermost;     // Block id -> innermost loop containing it (null if none)
+
+    private LoopNest(List<Loop> loops, Loop[] innermost)
+    {
+        this.loops = loops;
+        this.innermost = innermost;
+    }
+
+    /***************/
+    /* BUILD       */
+    /***************/
+    public static LoopNest build(CFG cfg, DominatorTree dom)
+    {
+        int n = cfg.size();
+        List<CFGNode> nodes = cfg.getNodes();
+        List<Loop> loops = new ArrayList<>();
+        boolean[] inBody = new boolean[n];
+        int[] stack = new int[n];
+        for (int h : dom.getReversePostorder())
+        {
+            int sp = 0;
+            for (CFGNode p : nodes.get(h).predecessors)
+                if (dom.dominates(h, p.id) && !inBody[p.id]) { inBody[p.id] = true; stack[sp++] = p.id; }
+            if (sp == 0) continue;
+            inBody[h] = true;
+            // Walk backwards from the latches; the header stops the walk
+            while (sp > 0)
+            {
+                int b = stack[--sp];
+                if (b == h) continue;
+                for (CFGNode p : nodes.get(b).predecessors)
+                    if (dom.isReachable(p.id) && !inBody[p.id]) { inBody[p.id] = true; stack[sp++] = p.id; }
+            }
+            int size = 0;
+            for (int b = 0; b < n; b++) if (inBody[b]) size++;
+            int[] blocks = new int[size];
+            size = 0;
+            for (int b = 0; b < n; b++)
+                if (inBody[b]) { blocks[size++] = b; inBody[b] = false; }
+            loops.add(new Loop(h, blocks));
+        }
+
+        // Headers come in reverse postorder, so an enclosing loop is always found before the loops it contains
+        Loop[] innermost = new Loop[n];
+        for (Loop loop : loops)
+        {
+            loop.parent = innermost[loop.header];
+            loop.depth = (loop.parent != null) ? loop.parent.depth + 1 : 1;
+            for (int b : loop.blocks)
+                innermost[b] = loop;
+        }
+        return new LoopNest(Collections.unmodifiableList(loops), innermost);
+    }
+
+    /***************/
+    /* QUERIES     */
+    /***************/
+    public List<Loop> getLoops() { return loops; }
+
+    /** Innermost loop containing block b, or null. */
+    public Loop getLoop(int b) { return innermost[b]; }
+
+    /** Number of loops containing block b (0 outside any loop). */
+    public int getLoopDepth(int b) { return (innermost[b] != null) ? innermost[b].depth : 0; }
+
+    public boolean isLoopHeader(int b) { return innermost[b] != null && innermost[b].header == b; }
+}
@@ -0,0 +1,166 @@
+package dfa;
+
+import cfg.*;
+import java.util.*;
+
+/**
+ * Monotone dataflow framework over the basic blocks of a CFG.
+ *
+ * Facts are dense indices 0..domainSize()-1 kept in long[] bitsets (see DataFlowSet).
+ * A subclass fixes the direction and the meet operator and supplies the block
+ * transfer function; solve() then runs a deduplicating worklist seeded in reverse
+ * postorder (forward) or postorder (backward), so most blocks are visited once per
+ * loop nesting level and the whole fixed point is near-linear in the graph size.
+ *
+ * Boundary blocks (forward: CFG roots and blocks without predecessors; backward:
+ * blocks without successors) start from boundary(); every other block starts from
+ * the top of the lattice: the empty set for UNION, the full domain for INTERSECTION.
+ */
+public abstract class DataFlowAnalysis
+{
+    public enum Direction { FORWARD, BACKWARD }
+    public enum Meet { UNION, INTERSECTION }
+
+    /****************/
+    /* DATA MEMBERS */
+    /****************/
+    protected final CFG cfg;
+    private final Direction direction;
+    private final Meet meet;
+    private long[][] in;                // Facts at block entry
+    private long[][] out;               // Facts at block exit
+
+    protected DataFlowAnalysis(CFG cfg, Direction direction, Meet meet)
+    {
+        this.cfg = cfg;
+        this.direction = direction;
+        this.meet = meet;
+    }
+
+    /** Number of facts (bits) in the domain. */
+    protected abstract int domainSize();
+
+    /**
+     * Apply the block's transfer function: input is the entry set for a forward analysis and
+     * the exit set for a backward one. Write the other side into result (same length, arbitrary
+     * old contents) and leave input unchanged.
+     */
+    protected abstract void transfer(CFGNode block, long[] input, long[] result);
+
+    /** Facts at the boundary; empty by default. */
+    protected long[] boundary()
+    {
+        return DataFlowSet.empty(domainSize());
+    }
+
+    /***************/
+    /* SOLVE       */
+    /***************/
+    public void solve()
+    {
+        List<CFGNode> nodes = cfg.getNodes();
+        int n = nodes.size();
+        int size = domainSize();
+        long[] top = (meet == Meet.UNION) ? DataFlowSet.empty(size) : DataFlowSet.full(size);
+        long[] bound = boundary();
+        in = new long[n][];
+        out = new long[n][];
+        for (int b = 0; b < n; b++)
+        {
+            in[b] = top.clone();
+            out[b] = top.clone();
+        }
+        boolean forward = (direction == Direction.FORWARD);
+        boolean[] isRoot = new boolean[n];
+        for (CFGNode root : cfg.roots) isRoot[root.id] = true;
+
+        int[] post = postorder();
+        WorkList work = new WorkList(n);
+        for (int i = 0; i < n; i++)
+            work.add(forward ? post[n - 1 - i] : post[i]);
+
+        long[] result = new long[DataFlowSet.words(size)];
+        while (!work.isEmpty())
+        {
+            CFGNode node = nodes.get(work.remove());
+            List<CFGNode> sources = forward ? node.predecessors : node.successors;
+            long[] input = forward ? in[node.id] : out[node.id];
+            long[] output = forward ? out[node.id] : in[node.id];
+
+            if (sources.isEmpty() || (forward && isRoot[node.id]))
+            {
+                DataFlowSet.copy(bound, input);
+            }
+            else
+            {
+                long[][] sourceSets = forward ? out : in;
+                DataFlowSet.copy(sourceSets[sources.get(0).id], input);
+                for (int k = 1; k < sources.size(); k++)
+                {
+                    if (meet == Meet.UNION)
+                        DataFlowSet.union(input, sourceSets[sources.get(k).id]);
+                    else
+                        DataFlowSet.intersect(input, sourceSets[sources.get(k).id]);
+                }
+            }
+
+            transfer(node, input, result);
+            if (!Arrays.equals(result, output))
+            {
+                DataFlowSet.copy(result, output);
+                for (CFGNode next : forward ? node.successors : node.predecessors)
+                    work.add(next.id);
+            }
+        }
+    }
+
+    /** Blocks in postorder of a DFS from the roots; blocks no root reaches follow in index order. */
+    private int[] postorder()
+    {
+        List<CFGNode> nodes = cfg.getNodes();
+        int n = nodes.size();
+        int[] order = new int[n];
+        int k = 0;
+        boolean[] seen = new boolean[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        int[] starts = new int[cfg.roots.size() + n];
+        int numStarts = 0;
+        for (CFGNode root : cfg.roots) starts[numStarts++] = root.id;
+        for (int b = 0; b < n; b++) starts[numStarts++] = b;
+        for (int r = 0; r < numStarts; r++)
+        {
+            int root = starts[r];
+            if (seen[root]) continue;
+            int sp = 0;
+            stack[sp++] = root;
+            seen[root] = true;
+            while (sp > 0)
+            {
+                CFGNode b = nodes.get(stack[sp - 1]);
+                if (next[b.id] < b.successors.size())
+                {
+                    int s = b.successors.get(next[b.id]++).id;
+                    if (!seen[s]) { seen[s] = true; stack[sp++] = s; }
+                }
+                else
+                {
+                    order[k++] = b.id;
+                    sp--;
+                }
+            }
+        }
+        return order;
+    }
+
+    /***************/
+    /* RESULTS     */
+    /***************/
+    /** Facts at the entry of block b (shared; do not modify). */
+    public long[] getIn(int b) { return in[b]; }
+
+    /** Facts at the exit of block b (shared; do not modify). */
+    public long[] getOut(int b) { return out[b]; }
+
+    public CFG getCFG() { return cfg; }
+}
@@ -1,12 +1,58 @@
 package dfa;
-import java.util.*;
 
-public class DataFlowSet {
-    private Set<String> vars;
-    
-    public DataFlowSet() {
-        vars = new HashSet<>();
+import java.util.Arrays;
+
+/**
+ * Operations on dense bitsets stored as long[] (bit i lives in word i / 64).
+ * All sets of one analysis have the same number of words, so binary
+ * operations work word by word without bounds checks on the domain.
+ */
+public final class DataFlowSet {
+    private DataFlowSet() {}
+
+    /** Number of words needed for a domain of size elements. */
+    public static int words(int size) { return (size + 63) >>> 6; }
+
+    public static long[] empty(int size) { return new long[words(size)]; }
+
+    /** The set {0, ..., size-1}. */
+    public static long[] full(int size) {
+        long[] bits = new long[words(size)];
+        Arrays.fill(bits, -1L);
+        if ((size & 63) != 0) bits[bits.length - 1] = (1L << size) - 1;
+        return bits;
+    }
+
+    public static boolean get(long[] bits, int i) { return (bits[i >>> 6] & (1L << i)) != 0; }
+    public static void set(long[] bits, int i) { bits[i >>> 6] |= 1L << i; }
+    public static void clear(long[] bits, int i) { bits[i >>> 6] &= ~(1L << i); }
+
+    /** dst := src. */
+    public static void copy(long[] src, long[] dst) { System.arraycopy(src, 0, dst, 0, dst.length); }
+
+    /** dst := dst | src. */
+    public static void union(long[] dst, long[] src) {
+        for (int w = 0; w < dst.length; w++) dst[w] |= src[w];
+    }
+
+    /** dst := dst & src. */
+    public static void intersect(long[] dst, long[] src) {
+        for (int w = 0; w < dst.length; w++) dst[w] &= src[w];
+    }
+
+    /** dst := gen | (src & ~kill); returns true if dst changed. */
+    public static boolean genKill(long[] dst, long[] gen, long[] src, long[] kill) {
+        boolean changed = false;
+        for (int w = 0; w < dst.length; w++) {
+            long v = gen[w] | (src[w] & ~kill[w]);
+            if (v != dst[w]) { dst[w] = v; changed = true; }
+        }
+        return changed;
+    }
+
+    public static int cardinality(long[] bits) {
+        int n = 0;
+        for (long w : bits) n += Long.bitCount(w);
+        return n;
     }
-    
-    // Helper methods for set operations
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package dfa;
+
+import cfg.*;
+
+/**
+ * A dataflow analysis whose commands each kill and then generate a fixed set of facts
+ * (liveness, reaching definitions, available expressions). The per-command sets are
+ * folded into one gen/kill pair per block, so the fixed point iteration only does
+ * out = gen | (in & ~kill) per block.
+ */
+public abstract class GenKillAnalysis extends DataFlowAnalysis
+{
+    private final boolean forward;
+    private long[][] blockGen;
+    private long[][] blockKill;
+
+    protected GenKillAnalysis(CFG cfg, Direction direction, Meet meet)
+    {
+        super(cfg, direction, meet);
+        this.forward = (direction == Direction.FORWARD);
+    }
+
+    /** Facts generated by command i (an index into the CFG's command list). */
+    protected abstract int[] gen(int i);
+
+    /** Facts killed by command i; the command's kills are applied before its gens. */
+    protected abstract int[] kill(int i);
+
+    @Override
+    public void solve()
+    {
+        int n = cfg.size();
+        int words = DataFlowSet.words(domainSize());
+        blockGen = new long[n][];
+        blockKill = new long[n][];
+        for (CFGNode block : cfg.getNodes())
+        {
+            long[] g = new long[words];
+            long[] k = new long[words];
+            for (int j = 0; j < block.size(); j++)
+            {
+                int i = forward ? block.start + j : block.end - 1 - j;
+                for (int d : kill(i)) { DataFlowSet.clear(g, d); DataFlowSet.set(k, d); }
+                for (int u : gen(i)) DataFlowSet.set(g, u);
+            }
+            blockGen[block.id] = g;
+            blockKill[block.id] = k;
+        }
+        super.solve();
+    }
+
+    @Override
+    protected void transfer(CFGNode block, long[] input, long[] result)
+    {
+        DataFlowSet.genKill(result, blockGen[block.id], input, blockKill[block.id]);
+    }
+}
@@ -7,210 +7,166 @@ import java.util.*;
 
 /**
  * Data Flow Analysis to detect used-before-set errors.
- * 
+ *
  * This is a more sophisticated analysis where a definition sets a variable x
  * to an initialized value ONLY IF the value assigned to x is itself initialized.
- * 
+ *
  * Key insight: We track which variables AND temps hold initialized values.
  * - A Store to variable x initializes x only if the source temp is initialized
  * - A Load from variable x to temp t makes t initialized only if x is initialized
  * - A Binop produces an initialized temp only if all operands are initialized
  * - A ConstInt always produces an initialized temp
- * 
+ *
  * Algorithm:
- * - Forward analysis with intersection at merge points
- * - Track set of initialized variables AND temps at each program point
+ * - Forward analysis with intersection at merge points, on the dfa framework
+ * - Variables and temps are numbered densely: variables first, then temps
  * - Report variables that are used (Loaded) when not in the initialized set
+ *
+ * Parameters are initialized by their StoreParam. Globals are not tracked: they are laid out
+ * before IrCommandGlobalInitEnd and hold 0 until stored, whichever function reads them.
+ *
+ * Run on the IR before Mem2Reg (which turns such reads into the default 0); with
+ * -DUNINIT_REPORT=1 the variables found are printed to stderr.
  */
-public class UninitializedAnalysis
+public class UninitializedAnalysis extends DataFlowAnalysis
 {
-    private CFG cfg;
-    private Set<String> allVariables;         // All user-declared variables
-    private Set<String> uninitializedAccesses; // Variables accessed before initialization
-    
+    private static boolean report() { return "1".equals(System.getProperty("UNINIT_REPORT")); }
+
+    /** Print the variables that may be read before they are assigned, if the report is on. */
+    public static void run(List<IrCommand> commands)
+    {
+        if (!report() || commands.isEmpty())
+            return;
+        List<String> names = new ArrayList<>(new UninitializedAnalysis(CFGBuilder.buildFromCommandList(commands)).analyze());
+        Collections.sort(names);
+        System.err.printf("UNINIT total: %d variables may be read before assignment: %s%n", names.size(), String.join(", ", names));
+    }
+
+    private Map<String, Integer> variableIndex;   // All user-declared variables -> fact index
+    private Map<Integer, Integer> tempIndex;      // Temp serial -> fact index
+    private Set<String> uninitializedAccesses;    // Variables accessed before initialization
+
     public UninitializedAnalysis(CFG cfg)
     {
-        this.cfg = cfg;
-        this.allVariables = new HashSet<>();
+        super(cfg, Direction.FORWARD, Meet.INTERSECTION);
+        this.variableIndex = new HashMap<>();
+        this.tempIndex = new HashMap<>();
         this.uninitializedAccesses = new HashSet<>();
     }
-    
+
     /**
      * Run the analysis and return set of uninitialized variable names.
      */
     public Set<String> analyze()
     {
-        // Step 1: Collect all user variables (not temps)
-        collectAllVariables();
-        
+        // Step 1: Number all user variables, then all temps
+        collectFacts();
+
         // Step 2: Run the dataflow analysis
-        runDataFlowAnalysis();
-        
+        solve();
+
+        // Step 3: Find uninitialized accesses
+        findUninitializedAccesses();
+
         return uninitializedAccesses;
     }
-    
+
     /**
-     * Collect all user-declared variables (filter out temps).
+     * Collect all user-declared variables and the temps they flow through.
      */
-    private void collectAllVariables()
+    private void collectFacts()
     {
-        for (CFGNode node : cfg.getNodes())
+        boolean global = true;
+        for (IrCommand cmd : cfg.getCommands())
         {
-            IrCommand cmd = node.command;
-            
-            if (cmd instanceof IrCommandAllocate)
+            if (cmd instanceof IrCommandGlobalInitEnd)
+                global = false;
+            if (cmd instanceof IrCommandAllocate && !global)
             {
-                String varName = getVarName((IrCommandAllocate) cmd);
-                if (!isTemp(varName))
-                {
-                    allVariables.add(varName);
-                }
+                String varName = ((IrCommandAllocate) cmd).getVarName();
+                if (!variableIndex.containsKey(varName))
+                    variableIndex.put(varName, variableIndex.size());
             }
         }
+        for (IrCommand cmd : cfg.getCommands())
+        {
+            for (Temp t : cmd.getDef()) addTemp(t);
+            for (Temp t : cmd.getUse()) addTemp(t);
+        }
     }
-    
+
+    private void addTemp(Temp t)
+    {
+        if (t != null && !tempIndex.containsKey(t.getSerialNumber()))
+            tempIndex.put(t.getSerialNumber(), variableIndex.size() + tempIndex.size());
+    }
+
+    @Override
+    protected int domainSize()
+    {
+        return variableIndex.size() + tempIndex.size();
+    }
+
     /**
-     * Run the dataflow analysis.
-     * 
-     * State at each node: Set of initialized names (variables AND temps)
-     * Transfer function depends on command type.
+     * Block transfer: the commands' transfer functions in order.
+     * The entry of the program and of every function starts with nothing initialized.
      */
-    private void runDataFlowAnalysis()
+    @Override
+    protected void transfer(CFGNode node, long[] in, long[] out)
     {
-        // Initialize all nodes
-        for (CFGNode node : cfg.getNodes())
+        DataFlowSet.copy(in, out);
+        for (IrCommand cmd : node.getCommands())
         {
-            node.in.clear();
-            node.out.clear();
-            
-            // Optimistic initialization for non-entry nodes
-            if (node != cfg.entry)
-            {
-                node.in.addAll(allVariables);
-                node.out.addAll(allVariables);
-            }
+            applyTransferFunction(cmd, out);
         }
-        
-        // Iterate until fixpoint
-        boolean changed = true;
-        int iterations = 0;
-        int maxIterations = 1000;
-        
-        while (changed && iterations < maxIterations)
-        {
-            changed = false;
-            iterations++;
-            
-            for (CFGNode node : cfg.getNodes())
-            {
-                // Compute IN: intersection of predecessors' OUT
-                Set<String> newIn = new HashSet<>();
-                
-                if (node.predecessors.isEmpty())
-                {
-                    // Entry node: nothing initialized
-                    newIn.clear();
-                }
-                else
-                {
-                    // Intersection of all predecessors
-                    boolean first = true;
-                    for (CFGNode pred : node.predecessors)
-                    {
-                        if (first)
-                        {
-                            newIn.addAll(pred.out);
-                            first = false;
-                        }
-                        else
-                        {
-                            newIn.retainAll(pred.out);
-                        }
-                    }
-                }
-                
-                // Compute OUT using transfer function
-                Set<String> newOut = applyTransferFunction(node, newIn);
-                
-                // Check if changed
-                if (!newIn.equals(node.in) || !newOut.equals(node.out))
-                {
-                    changed = true;
-                    node.in = newIn;
-                    node.out = newOut;
-                }
-            }
-        }
-        
-        // Now find uninitialized accesses
-        findUninitializedAccesses();
     }
-    
+
     /**
-     * Apply transfer function for a node.
-     * Returns the OUT set given the IN set.
+     * Apply transfer function for a command, updating the initialized set in place.
      */
-    private Set<String> applyTransferFunction(CFGNode node, Set<String> in)
+    private void applyTransferFunction(IrCommand cmd, long[] state)
     {
-        Set<String> out = new HashSet<>(in);
-        IrCommand cmd = node.command;
-        
         if (cmd instanceof IrCommandAllocate)
         {
             // Allocate doesn't initialize
             // Variable starts uninitialized (remove from set if it was there)
-            String varName = getVarName((IrCommandAllocate) cmd);
-            if (!isTemp(varName))
-            {
-                out.remove(varName);
-            }
+            Integer var = variableIndex.get(((IrCommandAllocate) cmd).getVarName());
+            if (var != null)
+                DataFlowSet.clear(state, var);
+        }
+        else if (cmd instanceof IrCommandStoreParam)
+        {
+            // StoreParam: the incoming argument is always initialized
+            Integer var = variableIndex.get(((IrCommandStoreParam) cmd).getVarName());
+            if (var != null)
+                DataFlowSet.set(state, var);
         }
         else if (cmd instanceof IrCommandStore)
         {
             // Store: x := temp
             // x becomes initialized ONLY IF temp is initialized
-            String varName = getStoreVarName((IrCommandStore) cmd);
-            Temp srcTemp = getStoreValue((IrCommandStore) cmd);
-            
-            if (!isTemp(varName) && allVariables.contains(varName))
+            IrCommandStore store = (IrCommandStore) cmd;
+            Integer var = variableIndex.get(store.getVarName());
+            if (var != null)
             {
-                String tempName = getTempName(srcTemp);
-                if (in.contains(tempName))
-                {
-                    // Source is initialized, so target becomes initialized
-                    out.add(varName);
-                }
-                else
-                {
-                    // Source is NOT initialized, so target is NOT initialized
-                    out.remove(varName);
-                }
+                assign(state, var, isInitialized(state, store.getSrc()));
             }
         }
         else if (cmd instanceof IrCommandLoad)
         {
             // Load: temp := x
             // temp becomes initialized ONLY IF x is initialized
-            String varName = getLoadVarName((IrCommandLoad) cmd);
-            Temp dstTemp = getLoadDest((IrCommandLoad) cmd);
-            String tempName = getTempName(dstTemp);
-            
-            if (!isTemp(varName) && in.contains(varName))
-            {
-                out.add(tempName);
-            }
-            else if (!isTemp(varName))
-            {
-                out.remove(tempName);
-            }
+            IrCommandLoad load = (IrCommandLoad) cmd;
+            Integer var = variableIndex.get(load.getVarName());
+            // A global always holds a value
+            assign(state, tempIndex.get(load.getDst().getSerialNumber()), var == null || DataFlowSet.get(state, var));
         }
         else if (cmd instanceof IRcommandConstInt)
         {
             // ConstInt: temp := constant
             // temp is always initialized
-            Temp dstTemp = getConstIntDest((IRcommandConstInt) cmd);
-            String tempName = getTempName(dstTemp);
-            out.add(tempName);
+            for (Temp t : cmd.getDef())
+                DataFlowSet.set(state, tempIndex.get(t.getSerialNumber()));
         }
         else if (cmd instanceof IrCommandBinopAddIntegers ||
                  cmd instanceof IrCommandBinopSubIntegers ||
@@ -223,174 +179,67 @@ public class UninitializedAnalysis
         {
             // Binop: dst := op1 op op2
             // dst is initialized ONLY IF both op1 and op2 are initialized
-            Temp[] operands = getBinopOperands(cmd);
-            Temp dst = operands[0];
-            Temp op1 = operands[1];
-            Temp op2 = operands[2];
-            
-            String dstName = getTempName(dst);
-            String op1Name = getTempName(op1);
-            String op2Name = getTempName(op2);
-            
-            if (in.contains(op1Name) && in.contains(op2Name))
-            {
-                out.add(dstName);
-            }
-            else
-            {
-                out.remove(dstName);
-            }
+            boolean initialized = true;
+            for (Temp t : cmd.getUse())
+                initialized &= isInitialized(state, t);
+            for (Temp t : cmd.getDef())
+                assign(state, tempIndex.get(t.getSerialNumber()), initialized);
+        }
+        else if (cmd instanceof IrCommandMove)
+        {
+            // Move: dst := src, initialized as src is
+            IrCommandMove move = (IrCommandMove) cmd;
+            for (Temp t : cmd.getDef())
+                assign(state, tempIndex.get(t.getSerialNumber()), isInitialized(state, move.getSrc()));
+        }
+        else
+        {
+            // Calls, allocations, field/array loads, literals: the result is a real value
+            for (Temp t : cmd.getDef())
+                if (t != null) DataFlowSet.set(state, tempIndex.get(t.getSerialNumber()));
         }
         // Labels, jumps don't change initialization state
-        
-        return out;
     }
-    
+
     /**
      * Find variables that are accessed before being initialized.
      */
     private void findUninitializedAccesses()
     {
+        long[] state = DataFlowSet.empty(domainSize());
         for (CFGNode node : cfg.getNodes())
         {
-            IrCommand cmd = node.command;
-            
-            if (cmd instanceof IrCommandLoad)
+            DataFlowSet.copy(getIn(node.id), state);
+            for (IrCommand cmd : node.getCommands())
             {
-                String irName = getLoadVarName((IrCommandLoad) cmd);
-                if (!isTemp(irName) && allVariables.contains(irName))
+                if (cmd instanceof IrCommandLoad)
                 {
-                    if (!node.in.contains(irName))
+                    String irName = ((IrCommandLoad) cmd).getVarName();
+                    Integer var = variableIndex.get(irName);
+                    if (var != null && !DataFlowSet.get(state, var))
                     {
                         // Get original name for output
                         String originalName = VarNameMapper.getInstance().getOriginalName(irName);
                         uninitializedAccesses.add(originalName);
                     }
                 }
+                applyTransferFunction(cmd, state);
             }
         }
     }
-    
+
     // ==================== Helper methods ====================
-    
-    private String getVarName(IrCommandAllocate cmd)
-    {
-        try
-        {
-            java.lang.reflect.Field field = IrCommandAllocate.class.getDeclaredField("varName");
-            field.setAccessible(true);
-            return (String) field.get(cmd);
-        }
-        catch (Exception e)
-        {
-            return "unknown";
-        }
-    }
-    
-    private String getStoreVarName(IrCommandStore cmd)
-    {
-        try
-        {
-            java.lang.reflect.Field field = IrCommandStore.class.getDeclaredField("varName");
-            field.setAccessible(true);
-            return (String) field.get(cmd);
-        }
-        catch (Exception e)
-        {
-            return "unknown";
-        }
-    }
-    
-    private Temp getStoreValue(IrCommandStore cmd)
-    {
-        try
-        {
-            java.lang.reflect.Field field = IrCommandStore.class.getDeclaredField("src");
-            field.setAccessible(true);
-            return (Temp) field.get(cmd);
-        }
-        catch (Exception e)
-        {
-            return null;
-        }
-    }
-    
-    private String getLoadVarName(IrCommandLoad cmd)
-    {
-        try
-        {
-            java.lang.reflect.Field field = IrCommandLoad.class.getDeclaredField("varName");
-            field.setAccessible(true);
-            return (String) field.get(cmd);
-        }
-        catch (Exception e)
-        {
-            return "unknown";
-        }
-    }
-    
-    private Temp getLoadDest(IrCommandLoad cmd)
-    {
-        try
-        {
-            java.lang.reflect.Field field = IrCommandLoad.class.getDeclaredField("dst");
-            field.setAccessible(true);
-            return (Temp) field.get(cmd);
-        }
-        catch (Exception e)
-        {
-            return null;
-        }
-    }
-    
-    private Temp getConstIntDest(IRcommandConstInt cmd)
-    {
-        try
-        {
-            java.lang.reflect.Field field = IRcommandConstInt.class.getDeclaredField("t");
-            field.setAccessible(true);
-            return (Temp) field.get(cmd);
-        }
-        catch (Exception e)
-        {
-            return null;
-        }
-    }
-    
-    private Temp[] getBinopOperands(IrCommand cmd)
-    {
-        try
-        {
-            // All binop commands have dst, t1, t2 fields
-            java.lang.reflect.Field dstField = cmd.getClass().getDeclaredField("dst");
-            java.lang.reflect.Field t1Field = cmd.getClass().getDeclaredField("t1");
-            java.lang.reflect.Field t2Field = cmd.getClass().getDeclaredField("t2");
-            
-            dstField.setAccessible(true);
-            t1Field.setAccessible(true);
-            t2Field.setAccessible(true);
-            
-            return new Temp[] {
-                (Temp) dstField.get(cmd),
-                (Temp) t1Field.get(cmd),
-                (Temp) t2Field.get(cmd)
-            };
-        }
-        catch (Exception e)
-        {
-            return new Temp[] { null, null, null };
-        }
-    }
-    
-    private String getTempName(Temp t)
+
+    private boolean isInitialized(long[] state, Temp t)
     {
-        if (t == null) return "null_temp";
-        return "T_" + t.getSerialNumber();
+        return t != null && DataFlowSet.get(state, tempIndex.get(t.getSerialNumber()));
     }
-    
-    private boolean isTemp(String name)
+
+    private static void assign(long[] state, int fact, boolean value)
     {
-        // Temps start with T_, user variables contain @
-        return name != null && name.startsWith("T_") && !name.contains("@");
+        if (value)
+            DataFlowSet.set(state, fact);
+        else
+            DataFlowSet.clear(state, fact);
     }
 }
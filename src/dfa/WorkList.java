@@ -1,15 +1,26 @@
 package dfa;
-import cfg.*;
 import java.util.*;
 
+/**
+ * FIFO worklist of block ids that holds each block at most once.
+ */
 public class WorkList {
-    private Queue<CFGNode> queue;
-    
-    public WorkList() {
-        queue = new LinkedList<>();
+    private final ArrayDeque<Integer> queue;
+    private final boolean[] queued;
+
+    public WorkList(int numBlocks) {
+        queue = new ArrayDeque<>(numBlocks);
+        queued = new boolean[numBlocks];
+    }
+
+    /** Add block b unless it is already waiting. */
+    public void add(int b) {
+        if (!queued[b]) { queued[b] = true; queue.add(b); }
+    }
+    public int remove() {
+        int b = queue.poll();
+        queued[b] = false;
+        return b;
     }
-    
-    public void add(CFGNode node) { queue.add(node); }
-    public CFGNode remove() { return queue.poll(); }
     public boolean isEmpty() { return queue.isEmpty(); }
-}
\ No newline at end of file
+}
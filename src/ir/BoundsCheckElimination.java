@@ -0,0 +1,78 @@
+package ir;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import temp.Temp;
+
+/**
+ * Drops array bounds checks that RangeAnalysis can prove redundant.
+ *
+ * An access a[i] needs no bounds check when i >= 0 and i < length(a) hold just before it.
+ * The length is known when a (through copies) is the result of new int[n]; arrays never change
+ * length, so n is the length wherever that value flows. i < n holds when i's interval is below
+ * n's, or when a dominating branch compared a copy of i with a copy of n, which covers
+ * while (i < n) { ... a[i] ... } and constant indices into constant-size arrays.
+ *
+ * Checks ValueNumbering already dropped (a dominating access to the same element) stay dropped.
+ * Checks that cannot be proven stay in place: moving them ahead of the loop would report the
+ * access violation before output the loop prints first. With -DBOUNDS_REPORT=1 the number of
+ * checks removed per function is printed to stderr.
+ */
+public class BoundsCheckElimination
+{
+	private static boolean report() { return "1".equals(System.getProperty("BOUNDS_REPORT")); }
+
+	/** Clear checkBounds on every array access proven in range. */
+	public static void run(List<IrCommand> commands, RangeAnalysis ranges)
+	{
+		if (commands.isEmpty())
+			return;
+		Map<String, int[]> perFunction = new TreeMap<String, int[]>();
+		List<Integer> entries = Ir.findFunctionEntries(commands);
+		String function = "(global init)";
+		int nextEntry = 0;
+		for (int i = 0; i < commands.size(); i++) {
+			if (nextEntry < entries.size() && entries.get(nextEntry) == i) {
+				function = commands.get(i).getLabelName();
+				nextEntry++;
+			}
+			IrCommand c = commands.get(i);
+			boolean inRange;
+			if (c instanceof IrCommandLoadArray) {
+				IrCommandLoadArray load = (IrCommandLoadArray) c;
+				inRange = !load.checkBounds || inRange(ranges, load.arrayBase, load.index, i);
+				load.checkBounds = !inRange;
+			} else if (c instanceof IrCommandStoreArray) {
+				IrCommandStoreArray store = (IrCommandStoreArray) c;
+				inRange = !store.checkBounds || inRange(ranges, store.arrayBase, store.index, i);
+				store.checkBounds = !inRange;
+			} else {
+				continue;
+			}
+			int[] counts = perFunction.computeIfAbsent(function, k -> new int[2]);
+			counts[0]++;
+			if (inRange) counts[1]++;
+		}
+		if (!report()) return;
+		int total = 0, removed = 0;
+		for (Map.Entry<String, int[]> e : perFunction.entrySet()) {
+			int[] n = e.getValue();
+			System.err.printf("BOUNDS %s: %d of %d checks removed%n", e.getKey(), n[1], n[0]);
+			total += n[0];
+			removed += n[1];
+		}
+		System.err.printf("BOUNDS total: %d of %d checks removed%n", removed, total);
+	}
+
+	/** 0 <= index < length(base) just before command i; a null index is the constant 0. */
+	private static boolean inRange(RangeAnalysis ranges, Temp base, Temp index, int i)
+	{
+		IrCommand def = ranges.valueDef(base);
+		if (!(def instanceof IrCommandAllocateArray)) return false;
+		Temp length = ((IrCommandAllocateArray) def).sizeTemp;
+		if (length == null) return false;
+		if (index == null) return ranges.lowerBound(length, i) > 0;
+		return ranges.lowerBound(index, i) >= 0 && ranges.isLess(index, length, i);
+	}
+}
@@ -0,0 +1,292 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import temp.Temp;
+
+/**
+ * Sparse conditional constant propagation (Wegman-Zadeck) over the IR after Mem2Reg.
+ * Every temp is defined once except phi results, which get one IrCommandMove per
+ * predecessor; a temp's lattice value is the meet over its defs in executable blocks,
+ * which is what a phi over the executable edges would compute. Only edges a branch can
+ * actually take are followed, so constants that decide a branch also prune the code
+ * behind it.
+ *
+ * Folding follows the generated MIPS exactly: add/sub/mul/div saturate to
+ * [-32768, 32767] (clampToS16), division truncates and a zero divisor is left to the
+ * runtime check. Afterwards constant arithmetic becomes IRcommandConstInt, constant branches
+ * become a jump or disappear, unreachable blocks lose everything but their labels and
+ * constants nobody reads any more are dropped.
+ */
+public class ConstantPropagation
+{
+	/* lattice: TOP (no executable def yet) > CONST(value) > BOTTOM */
+	private static final byte TOP = 0;
+	private static final byte CONST = 1;
+	private static final byte BOTTOM = 2;
+
+	private static final int MIN_INT = -32768;
+	private static final int MAX_INT = 32767;
+
+	/** Returns the command list with constants folded and dead branches removed. */
+	public static List<IrCommand> run(List<IrCommand> commands)
+	{
+		if (commands.isEmpty())
+			return commands;
+		ConstantPropagation cp = new ConstantPropagation(commands);
+		cp.propagate();
+		return removeDeadConstants(cp.rewrite());
+	}
+
+	private final List<IrCommand> code;
+	private final CFG cfg;
+
+	private final byte[] state;        // temp serial -> lattice state
+	private final int[] value;         // temp serial -> constant when state == CONST
+	private final int[][] usesOf;      // temp serial -> indices of the commands reading it
+	private final boolean[] executable;
+
+	private final ArrayDeque<Integer> blockWork = new ArrayDeque<Integer>();
+	private final ArrayDeque<Integer> tempWork = new ArrayDeque<Integer>();
+	private final boolean[][] edgeSeen;  // per block and successor index: edge already followed
+
+	private ConstantPropagation(List<IrCommand> code)
+	{
+		this.code = code;
+		this.cfg = CFGBuilder.buildFromCommandList(code);
+		int maxSerial = 0;
+		for (IrCommand c : code) {
+			for (Temp t : c.getUse()) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+			for (Temp t : c.getDef()) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+		}
+		state = new byte[maxSerial + 1];
+		value = new int[maxSerial + 1];
+		int[] useCount = new int[maxSerial + 1];
+		for (IrCommand c : code)
+			for (Temp t : c.getUse()) if (t != null) useCount[t.getSerialNumber()]++;
+		usesOf = new int[maxSerial + 1][];
+		for (int s = 0; s <= maxSerial; s++) usesOf[s] = new int[useCount[s]];
+		Arrays.fill(useCount, 0);
+		for (int i = 0; i < code.size(); i++)
+			for (Temp t : code.get(i).getUse())
+				if (t != null) usesOf[t.getSerialNumber()][useCount[t.getSerialNumber()]++] = i;
+
+		int numBlocks = cfg.size();
+		executable = new boolean[numBlocks];
+		edgeSeen = new boolean[numBlocks][];
+		for (CFGNode b : cfg.getNodes()) edgeSeen[b.id] = new boolean[b.successors.size()];
+	}
+
+	/*****************/
+	/* Propagation   */
+	/*****************/
+
+	private void propagate()
+	{
+		for (CFGNode root : cfg.roots)
+			markExecutable(root.id);
+		while (!blockWork.isEmpty() || !tempWork.isEmpty()) {
+			while (!blockWork.isEmpty()) {
+				CFGNode b = cfg.getNodes().get(blockWork.poll());
+				for (int i = b.start; i < b.end; i++)
+					visit(i);
+				visitEdges(b);
+			}
+			while (!tempWork.isEmpty() && blockWork.isEmpty()) {
+				for (int i : usesOf[tempWork.poll()]) {
+					CFGNode b = cfg.getBlockOf(i);
+					if (!executable[b.id]) continue;
+					visit(i);
+					if (i == b.end - 1) visitEdges(b);
+				}
+			}
+		}
+	}
+
+	private void markExecutable(int b)
+	{
+		if (executable[b]) return;
+		executable[b] = true;
+		blockWork.add(b);
+	}
+
+	/** Follow the successor edges the block's last command can take. */
+	private void visitEdges(CFGNode b)
+	{
+		IrCommand last = b.getLastCommand();
+		for (int k = 0; k < b.successors.size(); k++) {
+			if (edgeSeen[b.id][k]) continue;
+			CFGNode s = b.successors.get(k);
+			if (last instanceof IrCommandJumpIfEqToZero) {
+				Temp cond = ((IrCommandJumpIfEqToZero) last).getCond();
+				byte st = stateOf(cond);
+				if (st == TOP) continue;
+				if (st == CONST) {
+					boolean toTarget = cfg.labels.get(last.getJumpLabel()) == s;
+					boolean toNext = s.id == b.id + 1;
+					boolean taken = value[cond.getSerialNumber()] == 0;
+					if (!((taken && toTarget) || (!taken && toNext))) continue;
+				}
+			}
+			edgeSeen[b.id][k] = true;
+			markExecutable(s.id);
+		}
+	}
+
+	private byte stateOf(Temp t)
+	{
+		return (t == null) ? BOTTOM : state[t.getSerialNumber()];
+	}
+
+	/** Evaluate command i and lower the lattice value of the temps it defines. */
+	private void visit(int i)
+	{
+		IrCommand c = code.get(i);
+		for (Temp d : c.getDef()) {
+			if (d == null) continue;
+			long[] result = evaluate(c);
+			if (result == null) continue;
+			lower(d.getSerialNumber(), (byte) result[0], (int) result[1]);
+		}
+	}
+
+	private void lower(int t, byte st, int v)
+	{
+		byte old = state[t];
+		if (old == BOTTOM || st == TOP) return;
+		byte next = st;
+		if (old == CONST && (st == BOTTOM || value[t] != v)) next = BOTTOM;
+		else if (old == CONST) return;
+		state[t] = next;
+		value[t] = v;
+		tempWork.add(t);
+	}
+
+	/** {state, value} of the command's result, or null for TOP. */
+	private long[] evaluate(IrCommand c)
+	{
+		if (c instanceof IRcommandConstInt)
+			return new long[] { CONST, ((IRcommandConstInt) c).getValue() };
+		if (c instanceof IrCommandMove) {
+			Temp src = ((IrCommandMove) c).getSrc();
+			byte st = stateOf(src);
+			if (st == TOP) return null;
+			return new long[] { st, (st == CONST) ? value[src.getSerialNumber()] : 0 };
+		}
+		Temp a, b;
+		if (c instanceof IrCommandBinopAddIntegers) { a = ((IrCommandBinopAddIntegers) c).t1; b = ((IrCommandBinopAddIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopSubIntegers) { a = ((IrCommandBinopSubIntegers) c).t1; b = ((IrCommandBinopSubIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopMulIntegers) { a = ((IrCommandBinopMulIntegers) c).t1; b = ((IrCommandBinopMulIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopDivIntegers) { a = ((IrCommandBinopDivIntegers) c).t1; b = ((IrCommandBinopDivIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopLtIntegers) { a = ((IrCommandBinopLtIntegers) c).t1; b = ((IrCommandBinopLtIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopGtIntegers) { a = ((IrCommandBinopGtIntegers) c).t1; b = ((IrCommandBinopGtIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopEqIntegers) { a = ((IrCommandBinopEqIntegers) c).t1; b = ((IrCommandBinopEqIntegers) c).t2; }
+		else return new long[] { BOTTOM, 0 };
+
+		byte sa = stateOf(a), sb = stateOf(b);
+		if (sa == BOTTOM || sb == BOTTOM) return new long[] { BOTTOM, 0 };
+		if (sa == TOP || sb == TOP) return null;
+		Integer folded = fold(c, value[a.getSerialNumber()], value[b.getSerialNumber()]);
+		return (folded != null) ? new long[] { CONST, folded } : new long[] { BOTTOM, 0 };
+	}
+
+	/** The value the MIPS sequence for c computes, or null if it would trap. */
+	static Integer fold(IrCommand c, int x, int y)
+	{
+		long r;
+		if (c instanceof IrCommandBinopAddIntegers) r = (long) x + y;
+		else if (c instanceof IrCommandBinopSubIntegers) r = (long) x - y;
+		else if (c instanceof IrCommandBinopMulIntegers) r = (int) ((long) x * y); // mul keeps the low word
+		else if (c instanceof IrCommandBinopDivIntegers) {
+			if (y == 0) return null;
+			r = (long) x / y;
+		}
+		else if (c instanceof IrCommandBinopLtIntegers) return (x < y) ? 1 : 0;
+		else if (c instanceof IrCommandBinopGtIntegers) return (x > y) ? 1 : 0;
+		else if (c instanceof IrCommandBinopEqIntegers) return (x == y) ? 1 : 0;
+		else return null;
+		// add/sub trap on 32-bit overflow before the clamp is reached
+		if (r < Integer.MIN_VALUE || r > Integer.MAX_VALUE) return null;
+		return (int) Math.max(MIN_INT, Math.min(MAX_INT, r));
+	}
+
+	/*****************/
+	/* Rewriting     */
+	/*****************/
+
+	private List<IrCommand> rewrite()
+	{
+		List<IrCommand> out = new ArrayList<IrCommand>(code.size());
+		for (CFGNode b : cfg.getNodes()) {
+			for (int i = b.start; i < b.end; i++) {
+				IrCommand c = code.get(i);
+				if (!executable[b.id]) {
+					// Labels stay so nothing dangles; GlobalInitEnd marks where main's code starts
+					if (c.getLabelName() != null || c instanceof IrCommandGlobalInitEnd) out.add(c);
+					continue;
+				}
+				if (c instanceof IrCommandJumpIfEqToZero) {
+					Temp cond = ((IrCommandJumpIfEqToZero) c).getCond();
+					if (stateOf(cond) == CONST) {
+						if (value[cond.getSerialNumber()] == 0) out.add(new IrCommandJumpLabel(c.getJumpLabel()));
+						continue;
+					}
+				}
+				if (isFoldable(c)) {
+					Temp d = c.getDef().iterator().next();
+					if (state[d.getSerialNumber()] == CONST) {
+						out.add(new IRcommandConstInt(d, value[d.getSerialNumber()]));
+						continue;
+					}
+				}
+				out.add(c);
+			}
+		}
+		return out;
+	}
+
+	/** Moves are left alone: the allocator usually coalesces them away, a li would cost every time. */
+	private static boolean isFoldable(IrCommand c)
+	{
+		return c instanceof IrCommandBinopAddIntegers || c instanceof IrCommandBinopSubIntegers
+			|| c instanceof IrCommandBinopMulIntegers || c instanceof IrCommandBinopDivIntegers
+			|| c instanceof IrCommandBinopLtIntegers || c instanceof IrCommandBinopGtIntegers
+			|| c instanceof IrCommandBinopEqIntegers;
+	}
+
+	/** Drop constants and copies nobody reads, and jumps to the label right after them. */
+	private static List<IrCommand> removeDeadConstants(List<IrCommand> commands)
+	{
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			Map<Integer, Integer> useCount = new HashMap<Integer, Integer>();
+			for (IrCommand c : commands)
+				for (Temp t : c.getUse())
+					if (t != null) useCount.merge(t.getSerialNumber(), 1, Integer::sum);
+			List<IrCommand> kept = new ArrayList<IrCommand>(commands.size());
+			for (int i = 0; i < commands.size(); i++) {
+				IrCommand c = commands.get(i);
+				if (c instanceof IRcommandConstInt || c instanceof IrCommandMove) {
+					Temp d = c.getDef().iterator().next();
+					if (!useCount.containsKey(d.getSerialNumber())) { changed = true; continue; }
+				}
+				if (c instanceof IrCommandJumpLabel && i + 1 < commands.size()
+					&& c.getJumpLabel().equals(commands.get(i + 1).getLabelName())) {
+					changed = true;
+					continue;
+				}
+				kept.add(c);
+			}
+			commands = kept;
+		}
+		return commands;
+	}
+}
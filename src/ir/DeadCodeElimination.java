@@ -0,0 +1,236 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import cfg.DominatorTree;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import types.VtableBuilder;
+
+/**
+ * Removes code whose result nobody can observe, as the last IR pass before register allocation.
+ *
+ * - Functions: only main, the functions the global initializers call and the methods in the
+ *   vtables of classes that are ever allocated are roots; everything the call graph does not
+ *   reach from them is dropped (typically functions the Inliner absorbed at every call site).
+ *   Vtable entries of dropped methods become 0, their class is never instantiated.
+ * - Unreachable blocks: commands no function entry reaches, e.g. after a return.
+ * - Dead temps: a command without side effects whose result is not live afterwards, found by
+ *   Liveness and repeated until nothing changes. Commands that can trap (a division still
+ *   checking for zero, an access still checking for null or bounds, NullCheck), calls,
+ *   prints and allocations always stay.
+ * - Dead stores: only globals stay in memory after Mem2Reg, so a store is dead when the global
+ *   is never loaded, or when a later store in the same block overwrites it with no load or
+ *   call in between.
+ * - Labels no jump targets, and jumps to the label right after them.
+ *
+ * With -DDCE_REPORT=1 the number of functions and commands removed is printed to stderr.
+ */
+public class DeadCodeElimination
+{
+	private static boolean report() { return "1".equals(System.getProperty("DCE_REPORT")); }
+
+	/** Returns the command list without the dead code. */
+	public static List<IrCommand> run(List<IrCommand> commands)
+	{
+		if (commands.isEmpty())
+			return commands;
+		int before = commands.size();
+		DeadCodeElimination dce = new DeadCodeElimination();
+		commands = dce.pruneFunctions(commands);
+		commands = removeUnreachable(commands);
+		commands = removeDeadStores(commands);
+		commands = removeDeadTemps(commands);
+		commands = removeUnusedLabels(commands);
+		if (report())
+			System.err.printf("DCE total: %d functions and %d commands removed%n", dce.functionsRemoved, before - commands.size());
+		return commands;
+	}
+
+	private int functionsRemoved;
+
+	/*****************/
+	/* Functions     */
+	/*****************/
+
+	private List<IrCommand> pruneFunctions(List<IrCommand> commands)
+	{
+		List<Integer> entries = Ir.findFunctionEntries(commands);
+		if (entries.isEmpty())
+			return commands;
+		Map<String, List<IrCommand>> functions = new HashMap<String, List<IrCommand>>();
+		for (int k = 0; k < entries.size(); k++) {
+			int end = (k + 1 < entries.size()) ? entries.get(k + 1) : commands.size();
+			functions.put(commands.get(entries.get(k)).getLabelName(), commands.subList(entries.get(k), end));
+		}
+		Set<String> live = new HashSet<String>();
+		List<String> work = new ArrayList<String>();
+		work.add("main");
+		reached(commands.subList(0, entries.get(0)), work);
+		while (!work.isEmpty()) {
+			String f = work.remove(work.size() - 1);
+			if (functions.containsKey(f) && live.add(f))
+				reached(functions.get(f), work);
+		}
+		if (live.size() == functions.size())
+			return commands;
+
+		List<IrCommand> out = new ArrayList<IrCommand>(commands.subList(0, entries.get(0)));
+		for (int k = 0; k < entries.size(); k++) {
+			List<IrCommand> region = functions.get(commands.get(entries.get(k)).getLabelName());
+			if (live.contains(region.get(0).getLabelName())) {
+				out.addAll(region);
+				continue;
+			}
+			functionsRemoved++;
+			// A variable still in memory is laid out by its Allocate, wherever that ended up
+			for (IrCommand c : region)
+				if (c instanceof IrCommandAllocate) out.add(c);
+		}
+		VtableBuilder.retainImplementations(live);
+		return out;
+	}
+
+	/** Add the functions code calls, and the methods of the classes it allocates, to work. */
+	private static void reached(List<IrCommand> code, List<String> work)
+	{
+		for (IrCommand c : code) {
+			if (c instanceof IrCommandCall && !((IrCommandCall) c).isVirtualCall()) {
+				work.add(((IrCommandCall) c).getFuncName());
+			} else if (c instanceof IrCommandAllocateClass && ((IrCommandAllocateClass) c).vtableLabel != null) {
+				String[] methods = VtableBuilder.getVtableEntries(((IrCommandAllocateClass) c).vtableLabel.substring("vtable_".length()));
+				for (int s = 0; methods != null && s < methods.length; s++)
+					if (methods[s] != null) work.add(methods[s]);
+			}
+		}
+	}
+
+	/*****************/
+	/* Blocks        */
+	/*****************/
+
+	private static List<IrCommand> removeUnreachable(List<IrCommand> commands)
+	{
+		CFG cfg = CFGBuilder.buildFromCommandList(commands);
+		DominatorTree dom = cfg.getDominatorTree();
+		List<IrCommand> out = new ArrayList<IrCommand>(commands.size());
+		for (CFGNode block : cfg.getNodes()) {
+			boolean reachable = dom.isReachable(block.id);
+			for (IrCommand c : block.getCommands())
+				if (reachable || mustKeep(c)) out.add(c);
+		}
+		return out;
+	}
+
+	/** Function ends carry the epilogue, and Allocates lay out the globals. */
+	private static boolean mustKeep(IrCommand c)
+	{
+		String label = c.getLabelName();
+		return (label != null && (label.matches("Label_\\d+_end") || !label.startsWith("Label_")))
+			|| c instanceof IrCommandJrRa || c instanceof IrCommandAllocate || c instanceof IrCommandGlobalInitEnd;
+	}
+
+	/*****************/
+	/* Stores        */
+	/*****************/
+
+	private static List<IrCommand> removeDeadStores(List<IrCommand> commands)
+	{
+		Set<String> loaded = new HashSet<String>();
+		for (IrCommand c : commands)
+			if (c instanceof IrCommandLoad) loaded.add(((IrCommandLoad) c).getVarName());
+		CFG cfg = CFGBuilder.buildFromCommandList(commands);
+		boolean[] dead = new boolean[commands.size()];
+		for (CFGNode block : cfg.getNodes()) {
+			// Backwards: the globals some later store of this block overwrites before anyone reads them
+			Set<String> overwritten = new HashSet<String>();
+			for (int i = block.end - 1; i >= block.start; i--) {
+				IrCommand c = commands.get(i);
+				if (c instanceof IrCommandStore) {
+					String var = ((IrCommandStore) c).getVarName();
+					dead[i] = !loaded.contains(var) || !overwritten.add(var);
+				} else if (c instanceof IrCommandLoad) {
+					overwritten.remove(((IrCommandLoad) c).getVarName());
+				} else if (c instanceof IrCommandCall) {
+					overwritten.clear();
+				}
+			}
+		}
+		return without(commands, dead);
+	}
+
+	/*****************/
+	/* Temps         */
+	/*****************/
+
+	private static List<IrCommand> removeDeadTemps(List<IrCommand> commands)
+	{
+		while (true) {
+			List<IrCommand> code = commands;
+			Liveness liveness = Liveness.analyze(code);
+			boolean[] dead = new boolean[code.size()];
+			boolean[] any = new boolean[1];
+			liveness.walkBackward((i, liveIn, liveOut) -> {
+				if (!isPure(code.get(i))) return;
+				for (int d : liveness.getDef(i))
+					if (Liveness.get(liveOut, d)) return;
+				dead[i] = any[0] = true;
+			});
+			if (!any[0])
+				return code;
+			commands = without(code, dead);
+		}
+	}
+
+	/** c only writes its defs: it cannot trap, print, allocate or write memory. */
+	static boolean isPure(IrCommand c)
+	{
+		if (c.getDef().isEmpty()) return false;
+		if (c instanceof IrCommandBinopDivIntegers) return !((IrCommandBinopDivIntegers) c).checkZero;
+		if (c instanceof IrCommandLoadField) return !((IrCommandLoadField) c).checkNull;
+		if (c instanceof IrCommandLoadArray)
+			return !((IrCommandLoadArray) c).checkNull && !((IrCommandLoadArray) c).checkBounds;
+		return c instanceof IRcommandConstInt || c instanceof IrCommandMove || c instanceof IrCommandLoad
+			|| c instanceof IrCommandLoadAddress || c instanceof IrCommandBinopAddIntegers
+			|| c instanceof IrCommandBinopSubIntegers || c instanceof IrCommandBinopMulIntegers
+			|| c instanceof IrCommandBinopLtIntegers || c instanceof IrCommandBinopGtIntegers
+			|| c instanceof IrCommandBinopEqIntegers || c instanceof IrCommandShiftLeftIntegers
+			|| c instanceof IrCommandShiftRightIntegers || c instanceof IrCommandElementAddress
+			|| c instanceof IrCommandAddImmediate;
+	}
+
+	/*****************/
+	/* Labels        */
+	/*****************/
+
+	private static List<IrCommand> removeUnusedLabels(List<IrCommand> commands)
+	{
+		Set<String> targets = new HashSet<String>();
+		for (IrCommand c : commands)
+			if (c.getJumpLabel() != null) targets.add(c.getJumpLabel());
+		boolean[] dead = new boolean[commands.size()];
+		for (int i = 0; i < commands.size(); i++) {
+			IrCommand c = commands.get(i);
+			String label = c.getLabelName();
+			if (c instanceof IrCommandLabel && !mustKeep(c) && !targets.contains(label))
+				dead[i] = true;
+			else if (c instanceof IrCommandJumpLabel && i + 1 < commands.size()
+				&& c.getJumpLabel().equals(commands.get(i + 1).getLabelName()))
+				dead[i] = true;
+		}
+		return without(commands, dead);
+	}
+
+	private static List<IrCommand> without(List<IrCommand> commands, boolean[] dead)
+	{
+		List<IrCommand> kept = new ArrayList<IrCommand>(commands.size());
+		for (int i = 0; i < commands.size(); i++)
+			if (!dead[i]) kept.add(commands.get(i));
+		return kept;
+	}
+}
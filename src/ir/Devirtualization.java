@@ -0,0 +1,41 @@
+package ir;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import types.VtableBuilder;
+
+/**
+ * Class hierarchy analysis: a virtual call whose slot has a single implementation among the
+ * receiver's static type and its subclasses can only ever reach that method, so it becomes a
+ * direct jal. That saves the two dependent loads of the vtable dispatch and lets the Inliner
+ * treat the call like any other.
+ *
+ * The receiver is still checked for null, by the call itself (IrCommandCall.hasReceiver), so a
+ * null receiver reports the same error as before. With -DDEVIRT_REPORT=1 the number of calls
+ * devirtualized is printed to stderr.
+ */
+public class Devirtualization
+{
+	private static boolean report() { return "1".equals(System.getProperty("DEVIRT_REPORT")); }
+
+	/** Turn every monomorphic virtual call in commands into a direct call, in place. */
+	public static void run(List<IrCommand> commands)
+	{
+		Set<String> functions = new HashSet<String>();
+		for (int i : Ir.findFunctionEntries(commands))
+			functions.add(commands.get(i).getLabelName());
+		int total = 0, devirtualized = 0;
+		for (IrCommand c : commands) {
+			if (!(c instanceof IrCommandCall) || !((IrCommandCall) c).isVirtualCall()) continue;
+			IrCommandCall call = (IrCommandCall) c;
+			total++;
+			Set<String> impls = VtableBuilder.getImplementations(call.getReceiverClass(), call.getMethodSlot());
+			if (impls.size() != 1 || !functions.contains(impls.iterator().next())) continue;
+			call.devirtualize(impls.iterator().next());
+			devirtualized++;
+		}
+		if (report())
+			System.err.printf("DEVIRT total: %d of %d virtual calls devirtualized%n", devirtualized, total);
+	}
+}
@@ -19,6 +19,9 @@ public class IRcommandConstInt extends IrCommand
 		this.value = value;
 	}
 
+	public Temp getDst() { return t; }
+	public int getValue() { return value; }
+
 	@Override
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (t != null) s.add(t); return s; }
 
@@ -0,0 +1,304 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import temp.Temp;
+import temp.TempFactory;
+import types.VtableBuilder;
+
+/**
+ * Inlines calls to small non-recursive functions, on the SSA-form IR Mem2Reg produces.
+ *
+ * The call graph has an edge for every direct call and, for a virtual call, an edge to every
+ * implementation its slot has in the receiver's static type and its subclasses. A function on a
+ * cycle is never inlined. Functions are expanded callees first, so a body is copied with its own
+ * calls already inlined. A call is inlined when the callee's body has at most SMALL_BODY
+ * commands, or at most SINGLE_SITE_BODY commands and this is its only call site, and the caller
+ * stays within CALLER_LIMIT commands.
+ *
+ * Virtual calls are not inlined; Devirtualization has already made the monomorphic ones direct.
+ * An inlined method call keeps its receiver check as an explicit null check.
+ *
+ * The copy gets fresh temps and labels. LoadParam k becomes a copy of argument k; each return
+ * becomes a copy into the call's result and a jump to the copied end label. The result thus has
+ * one def per return, like the phi results Mem2Reg creates. Only callees with every variable
+ * promoted are inlined (no Allocate or StoreParam left): their frame would not exist in the
+ * caller. Callees that declare string literals are skipped too, since those emit data.
+ */
+public class Inliner
+{
+	/** Callees of at most this many commands are inlined at every call site. */
+	private static final int SMALL_BODY = 20;
+	/** A callee called from a single site is inlined up to this many commands. */
+	private static final int SINGLE_SITE_BODY = 80;
+	/** Inlining into a function stops once it has this many commands. */
+	private static final int CALLER_LIMIT = 600;
+
+	/** Inline what the cost model allows and return the new command list. */
+	public static List<IrCommand> run(List<IrCommand> commands)
+	{
+		List<Integer> entries = Ir.findFunctionEntries(commands);
+		if (entries.isEmpty())
+			return commands;
+		Inliner inliner = new Inliner(commands, entries);
+		for (String f : inliner.calleesFirst())
+			inliner.functions.put(f, inliner.expand(f));
+		List<IrCommand> out = new ArrayList<IrCommand>(commands.subList(0, entries.get(0)));
+		for (List<IrCommand> body : inliner.functions.values())
+			out.addAll(body);
+		return out;
+	}
+
+	private final Map<String, List<IrCommand>> functions = new LinkedHashMap<String, List<IrCommand>>();
+	private final Map<String, Set<String>> callees = new HashMap<String, Set<String>>();
+	private final Map<String, Integer> callSites = new HashMap<String, Integer>();
+	private final Set<String> recursive = new HashSet<String>();
+
+	private Inliner(List<IrCommand> commands, List<Integer> entries)
+	{
+		for (int k = 0; k < entries.size(); k++) {
+			int end = (k + 1 < entries.size()) ? entries.get(k + 1) : commands.size();
+			functions.put(commands.get(entries.get(k)).getLabelName(),
+				new ArrayList<IrCommand>(commands.subList(entries.get(k), end)));
+		}
+		for (Map.Entry<String, List<IrCommand>> f : functions.entrySet()) {
+			Set<String> out = new HashSet<String>();
+			for (IrCommand c : f.getValue()) {
+				if (!(c instanceof IrCommandCall)) continue;
+				IrCommandCall call = (IrCommandCall) c;
+				if (call.isVirtualCall()) {
+					out.addAll(VtableBuilder.getImplementations(call.getReceiverClass(), call.getMethodSlot()));
+				} else {
+					out.add(call.getFuncName());
+					callSites.merge(call.getFuncName(), 1, Integer::sum);
+				}
+			}
+			callees.put(f.getKey(), out);
+		}
+		for (String f : functions.keySet())
+			if (reaches(f, f)) recursive.add(f);
+	}
+
+	private boolean reaches(String from, String to)
+	{
+		Set<String> seen = new HashSet<String>();
+		List<String> work = new ArrayList<String>(callees.getOrDefault(from, new HashSet<String>()));
+		while (!work.isEmpty()) {
+			String f = work.remove(work.size() - 1);
+			if (f.equals(to)) return true;
+			if (seen.add(f)) work.addAll(callees.getOrDefault(f, new HashSet<String>()));
+		}
+		return false;
+	}
+
+	/** Every function, each after the functions it calls (functions on a cycle in any order). */
+	private List<String> calleesFirst()
+	{
+		List<String> order = new ArrayList<String>();
+		Set<String> visited = new HashSet<String>();
+		for (String f : functions.keySet())
+			postorder(f, visited, order);
+		return order;
+	}
+
+	private void postorder(String f, Set<String> visited, List<String> order)
+	{
+		if (!functions.containsKey(f) || !visited.add(f)) return;
+		for (String g : callees.get(f))
+			postorder(g, visited, order);
+		order.add(f);
+	}
+
+	/*****************/
+	/* Expansion     */
+	/*****************/
+
+	private List<IrCommand> expand(String caller)
+	{
+		List<IrCommand> region = functions.get(caller);
+		List<IrCommand> out = new ArrayList<IrCommand>(region.size());
+		for (int i = 0; i < region.size(); i++) {
+			IrCommand c = region.get(i);
+			String callee = (c instanceof IrCommandCall && !((IrCommandCall) c).isVirtualCall()) ? ((IrCommandCall) c).getFuncName() : null;
+			List<IrCommand> body = (callee != null && !callee.equals(caller)) ? body(callee) : null;
+			if (body == null || !worthInlining(callee, body.size() - 1, out.size() + (region.size() - i) + body.size())) {
+				out.add(c);
+				continue;
+			}
+			IrCommandCall call = (IrCommandCall) c;
+			if (call.hasReceiver())
+				out.add(new IrCommandNullCheck(call.args.get(0)));
+			inline(body, call, out);
+		}
+		return out;
+	}
+
+	private boolean worthInlining(String callee, int size, int callerSize)
+	{
+		if (recursive.contains(callee) || callerSize > CALLER_LIMIT) return false;
+		return size <= SMALL_BODY || (size <= SINGLE_SITE_BODY && callSites.getOrDefault(callee, 0) == 1);
+	}
+
+	/**
+	 * The commands between the callee's label and its final JrRa, ending with its end label, or
+	 * null if the function cannot be copied into a caller.
+	 */
+	private List<IrCommand> body(String callee)
+	{
+		List<IrCommand> region = functions.get(callee);
+		if (region == null) return null;
+		int jr = -1;
+		for (int i = 1; i < region.size() && jr < 0; i++)
+			if (region.get(i) instanceof IrCommandJrRa) jr = i;
+		if (jr < 2 || !(region.get(jr - 1) instanceof IrCommandLabel)) return null;
+		for (int i = jr + 1; i < region.size(); i++)
+			if (!(region.get(i) instanceof IrCommandAllocate)) return null;   // the next function's params
+		List<IrCommand> body = region.subList(1, jr);
+		for (IrCommand c : body)
+			if (!copyable(c)) return null;
+		return body;
+	}
+
+	private static boolean copyable(IrCommand c)
+	{
+		return !(c instanceof IrCommandAllocate || c instanceof IrCommandStoreParam || c instanceof IrCommandAllocateString
+			|| c instanceof IrCommandJrRa || c instanceof IrCommandGlobalInitEnd || c instanceof IrCommandDebugPrintConstInt)
+			&& copy(c, new HashMap<Integer, Temp>(), new HashMap<String, String>(), null) != null;
+	}
+
+	private void inline(List<IrCommand> body, IrCommandCall call, List<IrCommand> out)
+	{
+		Map<Integer, Temp> temps = new HashMap<Integer, Temp>();
+		Map<String, String> labels = new HashMap<String, String>();
+		String end = body.get(body.size() - 1).getLabelName();
+		for (IrCommand c : body) {
+			String label = c.getLabelName();
+			if (label == null) continue;
+			String suffix = label.replaceFirst("^Label_\\d+_", "");
+			labels.put(label, IrCommand.getFreshLabel(label.equals(end) ? "inline_done" : suffix));
+		}
+		for (IrCommand c : body) {
+			if (c instanceof IrCommandReturn) {
+				IrCommandReturn ret = (IrCommandReturn) c;
+				if (call.dst != null && ret.t != null)
+					out.add(new IrCommandMove(call.dst, rename(ret.t, temps)));
+				out.add(new IrCommandJumpLabel(labels.get(ret.endLabel)));
+			} else {
+				out.add(copy(c, temps, labels, call.args));
+			}
+		}
+	}
+
+	private static Temp rename(Temp t, Map<Integer, Temp> temps)
+	{
+		if (t == null) return null;
+		return temps.computeIfAbsent(t.getSerialNumber(), k -> TempFactory.getInstance().getFreshTemp());
+	}
+
+	/** c with its temps and labels renamed and LoadParam k replaced by a copy of args[k]; null if c is not supported. */
+	private static IrCommand copy(IrCommand c, Map<Integer, Temp> temps, Map<String, String> labels, List<Temp> args)
+	{
+		if (c instanceof IrCommandLabel)
+			return new IrCommandLabel(labels.getOrDefault(c.getLabelName(), c.getLabelName()));
+		if (c instanceof IrCommandJumpLabel)
+			return new IrCommandJumpLabel(labels.getOrDefault(c.getJumpLabel(), c.getJumpLabel()));
+		if (c instanceof IrCommandJumpIfEqToZero) {
+			IrCommandJumpIfEqToZero j = (IrCommandJumpIfEqToZero) c;
+			return new IrCommandJumpIfEqToZero(rename(j.t, temps), labels.getOrDefault(j.labelName, j.labelName));
+		}
+		if (c instanceof IrCommandReturn)
+			return c;   // replaced by inline()
+		if (c instanceof IrCommandLoadParam) {
+			IrCommandLoadParam p = (IrCommandLoadParam) c;
+			return new IrCommandMove(rename(p.dst, temps), (args != null) ? args.get(p.paramIndex) : null);
+		}
+		if (c instanceof IRcommandConstInt)
+			return new IRcommandConstInt(rename(((IRcommandConstInt) c).t, temps), ((IRcommandConstInt) c).value);
+		if (c instanceof IrCommandMove)
+			return new IrCommandMove(rename(((IrCommandMove) c).dst, temps), rename(((IrCommandMove) c).src, temps));
+		if (c instanceof IrCommandBinopAddIntegers) {
+			IrCommandBinopAddIntegers b = (IrCommandBinopAddIntegers) c;
+			return new IrCommandBinopAddIntegers(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandBinopSubIntegers) {
+			IrCommandBinopSubIntegers b = (IrCommandBinopSubIntegers) c;
+			return new IrCommandBinopSubIntegers(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandBinopMulIntegers) {
+			IrCommandBinopMulIntegers b = (IrCommandBinopMulIntegers) c;
+			return new IrCommandBinopMulIntegers(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandBinopDivIntegers) {
+			IrCommandBinopDivIntegers b = (IrCommandBinopDivIntegers) c;
+			return new IrCommandBinopDivIntegers(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandBinopLtIntegers) {
+			IrCommandBinopLtIntegers b = (IrCommandBinopLtIntegers) c;
+			return new IrCommandBinopLtIntegers(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandBinopGtIntegers) {
+			IrCommandBinopGtIntegers b = (IrCommandBinopGtIntegers) c;
+			return new IrCommandBinopGtIntegers(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandBinopEqIntegers) {
+			IrCommandBinopEqIntegers b = (IrCommandBinopEqIntegers) c;
+			return new IrCommandBinopEqIntegers(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandEqStrings) {
+			IrCommandEqStrings b = (IrCommandEqStrings) c;
+			return new IrCommandEqStrings(rename(b.dst, temps), rename(b.t1, temps), rename(b.t2, temps));
+		}
+		if (c instanceof IrCommandConcatStrings) {
+			IrCommandConcatStrings b = (IrCommandConcatStrings) c;
+			List<Temp> parts = new ArrayList<Temp>();
+			for (Temp t : b.parts) parts.add(rename(t, temps));
+			return new IrCommandConcatStrings(rename(b.dst, temps), parts);
+		}
+		if (c instanceof IrCommandLoadField) {
+			IrCommandLoadField f = (IrCommandLoadField) c;
+			return new IrCommandLoadField(rename(f.dst, temps), rename(f.base, temps), f.offset);
+		}
+		if (c instanceof IrCommandStoreField) {
+			IrCommandStoreField f = (IrCommandStoreField) c;
+			return new IrCommandStoreField(rename(f.base, temps), f.offset, rename(f.src, temps));
+		}
+		if (c instanceof IrCommandLoadArray) {
+			IrCommandLoadArray a = (IrCommandLoadArray) c;
+			return new IrCommandLoadArray(rename(a.dst, temps), rename(a.arrayBase, temps), rename(a.index, temps));
+		}
+		if (c instanceof IrCommandStoreArray) {
+			IrCommandStoreArray a = (IrCommandStoreArray) c;
+			return new IrCommandStoreArray(rename(a.arrayBase, temps), rename(a.index, temps), rename(a.src, temps));
+		}
+		if (c instanceof IrCommandAllocateClass) {
+			IrCommandAllocateClass a = (IrCommandAllocateClass) c;
+			return new IrCommandAllocateClass(rename(a.dst, temps), a.numBytes, a.vtableLabel);
+		}
+		if (c instanceof IrCommandAllocateArray) {
+			IrCommandAllocateArray a = (IrCommandAllocateArray) c;
+			return new IrCommandAllocateArray(rename(a.dst, temps), rename(a.sizeTemp, temps));
+		}
+		if (c instanceof IrCommandLoad)
+			return new IrCommandLoad(rename(((IrCommandLoad) c).dst, temps), ((IrCommandLoad) c).varName);
+		if (c instanceof IrCommandStore)
+			return new IrCommandStore(((IrCommandStore) c).varName, rename(((IrCommandStore) c).src, temps));
+		if (c instanceof IrCommandLoadAddress)
+			return new IrCommandLoadAddress(rename(((IrCommandLoadAddress) c).dst, temps), ((IrCommandLoadAddress) c).label);
+		if (c instanceof IrCommandPrintInt)
+			return new IrCommandPrintInt(rename(((IrCommandPrintInt) c).t, temps));
+		if (c instanceof IrCommandPrintString)
+			return new IrCommandPrintString(rename(((IrCommandPrintString) c).t, temps));
+		if (c instanceof IrCommandCall) {
+			IrCommandCall call = (IrCommandCall) c;
+			List<Temp> callArgs = new ArrayList<Temp>();
+			for (Temp t : call.args) callArgs.add(rename(t, temps));
+			return new IrCommandCall(rename(call.dst, temps), call.funcName, callArgs, call.isVirtualCall, call.methodSlot, call.receiverClass);
+		}
+		return null;
+	}
+}
@@ -7,6 +7,7 @@ package ir;
 /* GENERAL IMPORTS */
 /*******************/
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /*******************/
@@ -15,8 +16,7 @@ import java.util.List;
 
 public class Ir
 {
-	private IrCommand head=null;
-	private IrCommandList tail=null;
+	private final IrCommandList commands = new IrCommandList();
 	/** Used by AstStmtReturn to jump to function end. */
 	private static String currentFunctionEndLabel = null;
 	public static void setCurrentFunctionEndLabel(String s) { currentFunctionEndLabel = s; }
@@ -27,38 +27,32 @@ public class Ir
 	/******************/
 	public void AddIrCommand(IrCommand cmd)
 	{
-		if ((head == null) && (tail == null))
-		{
-			this.head = cmd;
-		}
-		else if ((head != null) && (tail == null))
-		{
-			this.tail = new IrCommandList(cmd,null);
-		}
-		else
-		{
-			IrCommandList it = tail;
-			while ((it != null) && (it.tail != null))
-			{
-				it = it.tail;
-			}
-			it.tail = new IrCommandList(cmd,null);
-		}
+		commands.add(cmd);
 	}
 
-	/** Return linear list of IR commands for CFG and register allocation. */
+	/** Read-only view of the IR commands in emission order (no copy is made). */
 	public List<IrCommand> getCommandList() {
-		List<IrCommand> list = new ArrayList<>();
-		if (head != null) list.add(head);
-		for (IrCommandList it = tail; it != null; it = it.tail)
-			if (it.head != null) list.add(it.head);
-		return list;
+		return Collections.unmodifiableList(commands);
+	}
+
+	/**
+	 * Indices of function entry labels (every label not produced by getFreshLabel).
+	 * A function spans from its entry to the next entry; commands before the first
+	 * entry are the global-init prefix.
+	 */
+	public static List<Integer> findFunctionEntries(List<IrCommand> commands) {
+		List<Integer> entryIndices = new ArrayList<>();
+		for (int i = 0; i < commands.size(); i++) {
+			String ln = commands.get(i).getLabelName();
+			if (ln != null && !ln.startsWith("Label_"))
+				entryIndices.add(i);
+		}
+		return entryIndices;
 	}
 
 	/** Emit MIPS for all commands. */
 	public void mipsMe() {
-		if (head != null) head.mipsMe();
-		if (tail != null) tail.mipsMe();
+		commands.mipsMe();
 	}
 
 	/**************************************/
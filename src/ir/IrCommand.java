@@ -29,6 +29,12 @@ public abstract class IrCommand
 	public Set<Temp> getUse() { return new HashSet<>(); }
 	/** For liveness: temps written by this command. */
 	public Set<Temp> getDef() { return new HashSet<>(); }
+	/** For spilling: temps reloaded into scratch registers before mipsMe (calls fetch spilled args themselves). */
+	public Set<Temp> getRegisterUses() { return getUse(); }
+	/** For register allocation: precolored registers ($a0-$a3, $v0) overwritten by this command's code. */
+	public Set<String> getClobbers() { return new HashSet<>(); }
+	/** For coalescing: the clobbered register operand t may share (e.g. a call arg and its $a register), or null. */
+	public String getRegisterHint(Temp t) { return null; }
 	/** For CFG: label defined by this command (IrCommandLabel only). */
 	public String getLabelName() { return null; }
 	/** For CFG: jump target (IrCommandJumpLabel, IrCommandJumpIfEqToZero, IrCommandReturn). */
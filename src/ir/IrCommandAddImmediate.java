@@ -0,0 +1,32 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+import java.util.HashSet;
+import java.util.Set;
+import temp.*;
+import mips.*;
+
+/** dst := src + value on a pointer: a plain addi, no saturation. Steps StrengthReduction's element pointers. */
+public class IrCommandAddImmediate extends IrCommand
+{
+	Temp dst;
+	Temp src;
+	int value;
+
+	public IrCommandAddImmediate(Temp dst, Temp src, int value)
+	{
+		this.dst = dst;
+		this.src = src;
+		this.value = value;
+	}
+
+	@Override
+	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (src != null) s.add(src); return s; }
+	@Override
+	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+
+	@Override
+	public void mipsMe() { MipsGenerator.getInstance().addImmediate(dst, src, value); }
+}
@@ -17,6 +17,10 @@ public class IrCommandAllocateArray extends IrCommand
 	}
 	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (sizeTemp != null) s.add(sizeTemp); return s; }
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+	/** Under -DGC=1 the allocation is a call to gc_alloc. */
+	public Set<String> getClobbers() { return MipsGenerator.gcMode() ? Set.of("$a0", "$a1", "$v0", "$v1") : Set.of("$a0", "$v0"); }
+	/** sizeTemp is read after the syscall, so only the result may share $v0. */
+	public String getRegisterHint(Temp t) { return (t == dst) ? "$v0" : null; }
 
 	public void mipsMe() {
 		MipsGenerator.getInstance().allocateArray(dst, sizeTemp);
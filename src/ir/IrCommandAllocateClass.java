@@ -20,6 +20,9 @@ public class IrCommandAllocateClass extends IrCommand
 		this.vtableLabel = vtableLabel;
 	}
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+	/** Under -DGC=1 the allocation is a call to gc_alloc. */
+	public Set<String> getClobbers() { return MipsGenerator.gcMode() ? Set.of("$a0", "$a1", "$v0", "$v1") : Set.of("$a0", "$v0"); }
+	public String getRegisterHint(Temp t) { return (t == dst) ? "$v0" : null; }
 
 	public void mipsMe() {
 		MipsGenerator.getInstance().allocateClass(dst, numBytes, vtableLabel);
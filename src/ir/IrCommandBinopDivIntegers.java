@@ -13,6 +13,10 @@ public class IrCommandBinopDivIntegers extends IrCommand
 	public Temp t1;
 	public Temp t2;
 	public Temp dst;
+	/** Cleared by RangeAnalysis when the result provably fits in 16 bits. */
+	public boolean saturate = true;
+	/** Cleared by StrengthReduction when the divisor is provably non-zero. */
+	public boolean checkZero = true;
 
 	public IrCommandBinopDivIntegers(Temp dst, Temp t1, Temp t2)
 	{
@@ -27,5 +31,5 @@ public class IrCommandBinopDivIntegers extends IrCommand
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
 
 	@Override
-	public void mipsMe() { MipsGenerator.getInstance().div(dst, t1, t2); }
+	public void mipsMe() { MipsGenerator.getInstance().div(dst, t1, t2, saturate, checkZero); }
 }
\ No newline at end of file
@@ -13,6 +13,8 @@ public class IrCommandBinopMulIntegers extends IrCommand
 	public Temp t1;
 	public Temp t2;
 	public Temp dst;
+	/** Cleared by RangeAnalysis when the result provably fits in 16 bits. */
+	public boolean saturate = true;
 
 	public IrCommandBinopMulIntegers(Temp dst, Temp t1, Temp t2)
 	{
@@ -27,5 +29,5 @@ public class IrCommandBinopMulIntegers extends IrCommand
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
 
 	@Override
-	public void mipsMe() { MipsGenerator.getInstance().mul(dst, t1, t2); }
+	public void mipsMe() { MipsGenerator.getInstance().mul(dst, t1, t2, saturate); }
 }
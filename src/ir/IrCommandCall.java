@@ -8,71 +8,77 @@ import mips.*;
 
 public class IrCommandCall extends IrCommand
 {
+	/** Registers a call overwrites from the allocator's point of view ($t/$s are saved by callFunc). */
+	private static final Set<String> CLOBBERS = Set.of("$a0", "$a1", "$a2", "$a3", "$v0");
+
 	Temp dst;
 	String funcName;
+	/** Arguments in parameter order; for method calls args.get(0) is the receiver. */
 	List<Temp> args;
-	String receiverVarName;
-	boolean firstArgFromS2;
 	boolean isVirtualCall;
 	int methodSlot;
-	/** When true, args.get(0) (second param in source) was preserved in $s0; use $s0 for $a1. */
-	boolean arg0InS0;
-	/** When true, second param was pushed after MoveTempToS0; load $a1 from stack before frame. */
-	boolean arg0OnStack;
-	/** When true, 4+ args and second param (args.get(1)) was pushed; load $a2 from stack at frameBytes($sp). */
-	boolean arg1OnStack;
-	/** When true, 3-arg global call was evaluated LTR; first two args are on stack, third in args.get(2). */
-	boolean argsPushedLTR3;
+	/** Static type of the receiver of a method call, null for a function call. */
+	String receiverClass;
+	/** Cleared by NullCheckElimination when the receiver is known non-null. */
+	public boolean checkNull = true;
 
 	public IrCommandCall(Temp dst, String funcName, List<Temp> args) {
-		this(dst, funcName, args, null, false, false, -1, false, false, false, false);
-	}
-	public IrCommandCall(Temp dst, String funcName, List<Temp> args, String receiverVarName) {
-		this(dst, funcName, args, receiverVarName, false, false, -1, false, false, false, false);
-	}
-	public IrCommandCall(Temp dst, String funcName, List<Temp> args, String receiverVarName, boolean firstArgFromS2) {
-		this(dst, funcName, args, receiverVarName, firstArgFromS2, false, -1, false, false, false, false);
-	}
-	public IrCommandCall(Temp dst, String funcName, List<Temp> args, String receiverVarName, boolean firstArgFromS2, boolean isVirtualCall, int methodSlot) {
-		this(dst, funcName, args, receiverVarName, firstArgFromS2, isVirtualCall, methodSlot, false, false, false, false);
-	}
-	public IrCommandCall(Temp dst, String funcName, List<Temp> args, String receiverVarName, boolean firstArgFromS2, boolean isVirtualCall, int methodSlot, boolean arg0InS0) {
-		this(dst, funcName, args, receiverVarName, firstArgFromS2, isVirtualCall, methodSlot, arg0InS0, false, false, false);
+		this(dst, funcName, args, false, -1);
 	}
-	public IrCommandCall(Temp dst, String funcName, List<Temp> args, String receiverVarName, boolean firstArgFromS2, boolean isVirtualCall, int methodSlot, boolean arg0InS0, boolean arg0OnStack) {
-		this(dst, funcName, args, receiverVarName, firstArgFromS2, isVirtualCall, methodSlot, arg0InS0, arg0OnStack, false, false);
-	}
-
-	public String getFuncName() { return funcName; }
 
-	public IrCommandCall(Temp dst, String funcName, List<Temp> args, String receiverVarName, boolean firstArgFromS2, boolean isVirtualCall, int methodSlot, boolean arg0InS0, boolean arg0OnStack, boolean arg1OnStack, boolean argsPushedLTR3) {
+	public IrCommandCall(Temp dst, String funcName, List<Temp> args, boolean isVirtualCall, int methodSlot) {
 		this.dst = dst;
 		this.funcName = funcName;
 		this.args = args;
-		this.receiverVarName = receiverVarName;
-		this.firstArgFromS2 = firstArgFromS2;
 		this.isVirtualCall = isVirtualCall;
 		this.methodSlot = methodSlot;
-		this.arg0InS0 = arg0InS0;
-		this.arg0OnStack = arg0OnStack;
-		this.arg1OnStack = arg1OnStack;
-		this.argsPushedLTR3 = argsPushedLTR3;
 	}
+
+	public IrCommandCall(Temp dst, String funcName, List<Temp> args, boolean isVirtualCall, int methodSlot, String receiverClass) {
+		this(dst, funcName, args, isVirtualCall, methodSlot);
+		this.receiverClass = receiverClass;
+	}
+
+	public String getFuncName() { return funcName; }
+	public boolean isVirtualCall() { return isVirtualCall && methodSlot >= 0; }
+	public int getMethodSlot() { return methodSlot; }
+	/** A method call (virtual or devirtualized): args.get(0) must be checked for null. */
+	public boolean hasReceiver() { return receiverClass != null; }
+	public String getReceiverClass() { return receiverClass; }
+
+	/** Call impl directly instead of through the vtable; the receiver is still null-checked. */
+	public void devirtualize(String impl)
+	{
+		funcName = impl;
+		isVirtualCall = false;
+		methodSlot = -1;
+	}
+
 	public Set<Temp> getUse() {
 		Set<Temp> s = new HashSet<Temp>();
 		if (args != null) for (Temp t : args) if (t != null) s.add(t);
 		return s;
 	}
+	/** Spilled args are loaded straight into $a0-$a3 / the outgoing arg area by callFunc. */
+	public Set<Temp> getRegisterUses() { return new HashSet<Temp>(); }
 	public Set<Temp> getDef() {
 		Set<Temp> s = new HashSet<Temp>();
 		if (dst != null) s.add(dst);
 		return s;
 	}
+	public Set<String> getClobbers() { return CLOBBERS; }
+	/** The result may live in $v0 and the first four args in their own $a register. */
+	public String getRegisterHint(Temp t) {
+		if (t == null) return null;
+		if (t.equals(dst)) return "$v0";
+		int k = (args != null) ? args.indexOf(t) : -1;
+		return (k >= 0 && k < 4) ? "$a" + k : null;
+	}
 	public void mipsMe()
 	{
-		if (isVirtualCall && methodSlot >= 0)
-			MipsGenerator.getInstance().callFuncVirtual(methodSlot, args, dst, firstArgFromS2);
+		if (isVirtualCall())
+			MipsGenerator.getInstance().callFuncVirtual(methodSlot, args, dst, checkNull);
 		else
-			MipsGenerator.getInstance().callFunc(funcName, args, dst, receiverVarName, firstArgFromS2, arg0InS0, arg0OnStack, arg1OnStack, argsPushedLTR3);
+			MipsGenerator.getInstance().callFunc(funcName, args, dst, hasReceiver() && checkNull);
 	}
 }
@@ -1,28 +1,44 @@
 package ir;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import temp.*;
 import mips.*;
 
-/** Concatenate two strings; result pointer in dst. left and right are string pointers. */
+/**
+ * Concatenate strings; result pointer in dst. parts are string pointers, left to right: the AST
+ * emits two, StringConcatFusion merges a chain a + b + c into one command with all its parts.
+ */
 public class IrCommandConcatStrings extends IrCommand
 {
 	public Temp dst;
-	public Temp left;
-	public Temp right;
+	public List<Temp> parts;
 
 	public IrCommandConcatStrings(Temp dst, Temp left, Temp right) {
+		this(dst, new ArrayList<Temp>(Arrays.asList(left, right)));
+	}
+
+	public IrCommandConcatStrings(Temp dst, List<Temp> parts) {
 		this.dst = dst;
-		this.left = left;
-		this.right = right;
+		this.parts = parts;
 	}
 
 	@Override
-	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (left != null) s.add(left); if (right != null) s.add(right); return s; }
+	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); for (Temp t : parts) if (t != null) s.add(t); return s; }
+	/** Spilled parts are stored straight from their slot into the argument area by concatStrings. */
+	@Override
+	public Set<Temp> getRegisterUses() { return new HashSet<Temp>(); }
 	@Override
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
 
 	@Override
-	public void mipsMe() { MipsGenerator.getInstance().concatStrings(dst, left, right); }
+	public Set<String> getClobbers() { return Set.of("$a0", "$a1", "$a2", "$a3", "$v0"); }
+	@Override
+	public String getRegisterHint(Temp t) { return (t == dst) ? "$v0" : null; }
+
+	@Override
+	public void mipsMe() { MipsGenerator.getInstance().concatStrings(dst, parts); }
 }
@@ -0,0 +1,36 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+import java.util.HashSet;
+import java.util.Set;
+import temp.*;
+import mips.*;
+
+/**
+ * dst := arrayBase + 4 * index, the address of element index minus the 4-byte length word.
+ * StrengthReduction starts a loop's element pointer with it; no checks, the accesses it
+ * replaces were already proven in range and non-null.
+ */
+public class IrCommandElementAddress extends IrCommand
+{
+	Temp dst;
+	Temp arrayBase;
+	Temp index;
+
+	public IrCommandElementAddress(Temp dst, Temp arrayBase, Temp index)
+	{
+		this.dst = dst;
+		this.arrayBase = arrayBase;
+		this.index = index;
+	}
+
+	@Override
+	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); s.add(arrayBase); s.add(index); return s; }
+	@Override
+	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+
+	@Override
+	public void mipsMe() { MipsGenerator.getInstance().elementAddress(dst, arrayBase, index); }
+}
@@ -35,6 +35,15 @@ public class IrCommandEqStrings extends IrCommand
 		return s;
 	}
 
+	@Override
+	public Set<String> getClobbers() { return Set.of("$a0", "$a1", "$a2", "$a3", "$v0"); }
+	@Override
+	public String getRegisterHint(Temp t) {
+		if (t == dst) return "$v0";
+		if (t == t1) return "$a0";
+		return (t == t2) ? "$a1" : null;
+	}
+
 	@Override
 	public void mipsMe() {
 		MipsGenerator.getInstance().eqStrings(dst, t1, t2);
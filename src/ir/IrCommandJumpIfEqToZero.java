@@ -19,6 +19,9 @@ public class IrCommandJumpIfEqToZero extends IrCommand
 		this.labelName = labelName;
 	}
 
+	/** Tested temp; null means the value is in $v0. */
+	public Temp getCond() { return t; }
+
 	@Override
 	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (t != null) s.add(t); return s; }
 
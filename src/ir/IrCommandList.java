@@ -6,24 +6,59 @@ package ir;
 /*******************/
 /* GENERAL IMPORTS */
 /*******************/
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
 
 /*******************/
 /* PROJECT IMPORTS */
 /*******************/
 
-public class IrCommandList
+/**
+ * Growable array-backed buffer of IR commands.
+ * Appends are amortized O(1) and a command's index never changes once added,
+ * so passes can refer to instructions by position.
+ */
+public class IrCommandList extends AbstractList<IrCommand> implements RandomAccess
 {
-	public IrCommand head;
-	public IrCommandList tail;
+	private static final int INITIAL_CAPACITY = 256;
 
-	IrCommandList(IrCommand head, IrCommandList tail)
+	private IrCommand[] commands;
+	private int size;
+
+	IrCommandList()
+	{
+		this.commands = new IrCommand[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/** Append cmd at the tail (amortized O(1)). */
+	@Override
+	public boolean add(IrCommand cmd)
+	{
+		if (size == commands.length)
+			commands = Arrays.copyOf(commands, commands.length * 2);
+		commands[size++] = cmd;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public IrCommand get(int index)
+	{
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("IR index " + index + ", size " + size);
+		return commands[index];
+	}
+
+	@Override
+	public int size()
 	{
-		this.head = head;
-		this.tail = tail;
+		return size;
 	}
 
 	public void mipsMe() {
-		if (head != null) head.mipsMe();
-		if (tail != null) tail.mipsMe();
+		for (int i = 0; i < size; i++)
+			commands[i].mipsMe();
 	}
 }
@@ -22,6 +22,9 @@ public class IrCommandLoad extends IrCommand
 		this.varName = varName;
 	}
 
+	public Temp getDst() { return dst; }
+	public String getVarName() { return varName; }
+
 	@Override
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
 
@@ -11,6 +11,10 @@ public class IrCommandLoadArray extends IrCommand
 	Temp dst;
 	Temp arrayBase;
 	Temp index;
+	/** Cleared by BoundsCheckElimination when 0 <= index < length is proven. */
+	public boolean checkBounds = true;
+	/** Cleared by NullCheckElimination when the base is known non-null. */
+	public boolean checkNull = true;
 
 	public IrCommandLoadArray(Temp dst, Temp arrayBase, Temp index) {
 		this.dst = dst;
@@ -26,6 +30,6 @@ public class IrCommandLoadArray extends IrCommand
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); s.add(dst); return s; }
 
 	public void mipsMe() {
-		MipsGenerator.getInstance().loadArray(dst, arrayBase, index);
+		MipsGenerator.getInstance().loadArray(dst, arrayBase, index, checkNull, checkBounds);
 	}
 }
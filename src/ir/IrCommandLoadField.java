@@ -11,6 +11,8 @@ public class IrCommandLoadField extends IrCommand
 	Temp dst;
 	Temp base;
 	int offset;
+	/** Cleared by NullCheckElimination when the base is known non-null. */
+	public boolean checkNull = true;
 
 	public IrCommandLoadField(Temp dst, Temp base, int offset) {
 		this.dst = dst;
@@ -21,6 +23,6 @@ public class IrCommandLoadField extends IrCommand
 	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); s.add(dst); return s; }
 
 	public void mipsMe() {
-		MipsGenerator.getInstance().loadField(dst, base, offset);
+		MipsGenerator.getInstance().loadField(dst, base, offset, checkNull);
 	}
 }
@@ -0,0 +1,43 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+import java.util.HashSet;
+import java.util.Set;
+import temp.*;
+import mips.*;
+
+/** Copy incoming parameter paramIndex ($a0-$a3, or the caller's stack for 4+) into dst at function entry. */
+public class IrCommandLoadParam extends IrCommand
+{
+	Temp dst;
+	int paramIndex;
+	/** $a registers of later params, still holding values this command must not overwrite. */
+	Set<String> pending = new HashSet<>();
+
+	public IrCommandLoadParam(Temp dst, int paramIndex, int paramCount)
+	{
+		this.dst = dst;
+		this.paramIndex = paramIndex;
+		for (int k = paramIndex + 1; k < paramCount && k < 4; k++)
+			pending.add("$a" + k);
+	}
+
+	public Temp getDst() { return dst; }
+	public int getParamIndex() { return paramIndex; }
+
+	@Override
+	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+
+	@Override
+	public Set<String> getClobbers() { return pending; }
+
+	@Override
+	public String getRegisterHint(Temp t) {
+		return (t != null && t.equals(dst) && paramIndex < 4) ? "$a" + paramIndex : null;
+	}
+
+	@Override
+	public void mipsMe() { MipsGenerator.getInstance().loadParam(dst, paramIndex); }
+}
@@ -0,0 +1,34 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+import java.util.HashSet;
+import java.util.Set;
+import temp.*;
+import mips.*;
+
+/** Register copy dst := src. The allocator tries to coalesce the two so the move disappears. */
+public class IrCommandMove extends IrCommand
+{
+	Temp dst;
+	Temp src;
+
+	public IrCommandMove(Temp dst, Temp src)
+	{
+		this.dst = dst;
+		this.src = src;
+	}
+
+	public Temp getDst() { return dst; }
+	public Temp getSrc() { return src; }
+
+	@Override
+	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (src != null) s.add(src); return s; }
+
+	@Override
+	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+
+	@Override
+	public void mipsMe() { MipsGenerator.getInstance().move(dst, src); }
+}
@@ -0,0 +1,28 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+import java.util.HashSet;
+import java.util.Set;
+import temp.*;
+import mips.*;
+
+/** Exit with the invalid-pointer error if t is null; what remains of a virtual call once it is devirtualized. */
+public class IrCommandNullCheck extends IrCommand
+{
+	Temp t;
+	/** Cleared by NullCheckElimination when t is known non-null. */
+	public boolean checkNull = true;
+
+	public IrCommandNullCheck(Temp t)
+	{
+		this.t = t;
+	}
+
+	@Override
+	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (t != null) s.add(t); return s; }
+
+	@Override
+	public void mipsMe() { if (checkNull) MipsGenerator.getInstance().nullCheck(t); }
+}
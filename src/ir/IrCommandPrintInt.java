@@ -20,6 +20,12 @@ public class IrCommandPrintInt extends IrCommand
 	@Override
 	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (t != null) s.add(t); return s; }
 
+	@Override
+	public Set<String> getClobbers() { return Set.of("$a0", "$v0"); }
+
+	@Override
+	public String getRegisterHint(Temp t) { return "$a0"; }
+
 	@Override
 	public void mipsMe() { MipsGenerator.getInstance().printInt(t); }
 }
@@ -10,5 +10,7 @@ public class IrCommandPrintString extends IrCommand
 	Temp t;
 	public IrCommandPrintString(Temp t) { this.t = t; }
 	public Set<Temp> getUse() { Set<Temp> s = new HashSet<Temp>(); if (t != null) s.add(t); return s; }
+	public Set<String> getClobbers() { return Set.of("$a0", "$v0"); }
+	public String getRegisterHint(Temp t) { return "$a0"; }
 	public void mipsMe() { MipsGenerator.getInstance().printString(t); }
 }
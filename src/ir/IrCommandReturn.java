@@ -17,6 +17,8 @@ public class IrCommandReturn extends IrCommand
 	}
 	public Set<Temp> getUse() { Set<Temp> s = new HashSet<Temp>(); if (t != null) s.add(t); return s; }
 	public String getJumpLabel() { return endLabel; }
+	public Set<String> getClobbers() { return Set.of("$v0"); }
+	public String getRegisterHint(Temp t) { return "$v0"; }
 	public void mipsMe()
 	{
 		if (t != null) MipsGenerator.getInstance().moveReg("$v0", t);
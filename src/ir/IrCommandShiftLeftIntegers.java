@@ -0,0 +1,34 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+import java.util.HashSet;
+import java.util.Set;
+import temp.*;
+import mips.*;
+
+/** dst := src * 2^shift as a shift; StrengthReduction's form of a multiply by a power of two. */
+public class IrCommandShiftLeftIntegers extends IrCommand
+{
+	public Temp dst;
+	public Temp src;
+	public int shift;
+	/** Copied from the multiply it replaces: clamp to 16 bits unless RangeAnalysis proved it fits. */
+	public boolean saturate = true;
+
+	public IrCommandShiftLeftIntegers(Temp dst, Temp src, int shift)
+	{
+		this.dst = dst;
+		this.src = src;
+		this.shift = shift;
+	}
+
+	@Override
+	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (src != null) s.add(src); return s; }
+	@Override
+	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+
+	@Override
+	public void mipsMe() { MipsGenerator.getInstance().shiftLeft(dst, src, shift, saturate); }
+}
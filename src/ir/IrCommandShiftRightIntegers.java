@@ -0,0 +1,35 @@
+/***********/
+/* PACKAGE */
+/***********/
+package ir;
+
+import java.util.HashSet;
+import java.util.Set;
+import temp.*;
+import mips.*;
+
+/**
+ * dst := src / 2^shift as an arithmetic shift. Only valid for src >= 0: L division truncates
+ * toward zero and sra rounds down, so StrengthReduction uses it where RangeAnalysis proved that.
+ */
+public class IrCommandShiftRightIntegers extends IrCommand
+{
+	public Temp dst;
+	public Temp src;
+	public int shift;
+
+	public IrCommandShiftRightIntegers(Temp dst, Temp src, int shift)
+	{
+		this.dst = dst;
+		this.src = src;
+		this.shift = shift;
+	}
+
+	@Override
+	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (src != null) s.add(src); return s; }
+	@Override
+	public Set<Temp> getDef() { Set<Temp> s = new HashSet<>(); if (dst != null) s.add(dst); return s; }
+
+	@Override
+	public void mipsMe() { MipsGenerator.getInstance().shiftRight(dst, src, shift); }
+}
@@ -22,6 +22,9 @@ public class IrCommandStore extends IrCommand
 		this.varName = varName;
 	}
 
+	public String getVarName() { return varName; }
+	public Temp getSrc() { return src; }
+
 	@Override
 	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); if (src != null) s.add(src); return s; }
 
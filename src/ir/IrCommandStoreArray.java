@@ -10,6 +10,10 @@ public class IrCommandStoreArray extends IrCommand
 	Temp arrayBase;
 	Temp index;
 	Temp src;
+	/** Cleared by BoundsCheckElimination when 0 <= index < length is proven. */
+	public boolean checkBounds = true;
+	/** Cleared by NullCheckElimination when the base is known non-null. */
+	public boolean checkNull = true;
 
 	public IrCommandStoreArray(Temp arrayBase, Temp index, Temp src) {
 		this.arrayBase = arrayBase;
@@ -25,6 +29,6 @@ public class IrCommandStoreArray extends IrCommand
 	}
 
 	public void mipsMe() {
-		MipsGenerator.getInstance().storeArray(arrayBase, index, src);
+		MipsGenerator.getInstance().storeArray(arrayBase, index, src, checkNull, checkBounds);
 	}
 }
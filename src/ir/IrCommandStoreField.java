@@ -10,6 +10,8 @@ public class IrCommandStoreField extends IrCommand
 	Temp base;
 	int offset;
 	Temp src;
+	/** Cleared by NullCheckElimination when the base is known non-null. */
+	public boolean checkNull = true;
 
 	public IrCommandStoreField(Temp base, int offset, Temp src) {
 		this.base = base;
@@ -19,6 +21,6 @@ public class IrCommandStoreField extends IrCommand
 	public Set<Temp> getUse() { Set<Temp> s = new HashSet<>(); s.add(base); s.add(src); return s; }
 
 	public void mipsMe() {
-		MipsGenerator.getInstance().storeField(base, offset, src);
+		MipsGenerator.getInstance().storeField(base, offset, src, checkNull);
 	}
 }
@@ -0,0 +1,152 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import dfa.DataFlowSet;
+import dfa.GenKillAnalysis;
+import temp.Temp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Backward liveness of temps over a linear IR command list.
+ * Temps are renumbered densely (0..numTemps-1); the block-level fixed point is a
+ * gen/kill problem on the dfa framework (uses generate, defs kill). Per-instruction
+ * sets are recovered on demand by a backward walk over a block.
+ */
+public class Liveness extends GenKillAnalysis
+{
+	/** Receives the live-in/live-out sets of one instruction during {@link #walkBackward}. */
+	public interface InstructionVisitor
+	{
+		void visit(int index, long[] liveIn, long[] liveOut);
+	}
+
+	private final List<IrCommand> commands;
+
+	/* dense temp numbering */
+	private final int[] denseOf;     // serial -> dense index (-1 if absent)
+	private final int[] serialOf;    // dense index -> serial
+	private final int words;
+
+	/* per-instruction use/def as dense indices */
+	private final int[][] use;
+	private final int[][] def;
+
+	private Liveness(CFG cfg)
+	{
+		super(cfg, Direction.BACKWARD, Meet.UNION);
+		List<IrCommand> commands = cfg.getCommands();
+		this.commands = commands;
+		int n = commands.size();
+
+		int maxSerial = -1;
+		List<Set<Temp>> uses = new java.util.ArrayList<Set<Temp>>(n);
+		List<Set<Temp>> defs = new java.util.ArrayList<Set<Temp>>(n);
+		for (int i = 0; i < n; i++) {
+			IrCommand cmd = commands.get(i);
+			Set<Temp> u = cmd.getUse();
+			Set<Temp> d = cmd.getDef();
+			for (Temp t : u) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+			for (Temp t : d) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+			uses.add(u);
+			defs.add(d);
+		}
+		denseOf = new int[maxSerial + 1];
+		Arrays.fill(denseOf, -1);
+		int count = 0;
+		use = new int[n][];
+		def = new int[n][];
+		int[] scratch = new int[16];
+		for (int i = 0; i < n; i++) {
+			for (int pass = 0; pass < 2; pass++) {
+				Set<Temp> s = (pass == 0) ? uses.get(i) : defs.get(i);
+				if (scratch.length < s.size()) scratch = new int[s.size()];
+				int k = 0;
+				for (Temp t : s) {
+					if (t == null) continue;
+					int serial = t.getSerialNumber();
+					if (denseOf[serial] < 0) denseOf[serial] = count++;
+					scratch[k++] = denseOf[serial];
+				}
+				if (pass == 0) use[i] = Arrays.copyOf(scratch, k);
+				else def[i] = Arrays.copyOf(scratch, k);
+			}
+		}
+		serialOf = new int[count];
+		for (int s = 0; s <= maxSerial; s++)
+			if (denseOf[s] >= 0) serialOf[denseOf[s]] = s;
+		words = (count + 63) >>> 6;
+	}
+
+	/** Compute liveness for the given commands. */
+	public static Liveness analyze(List<IrCommand> commands)
+	{
+		return analyze(CFGBuilder.buildFromCommandList(commands));
+	}
+
+	/** Compute liveness over the blocks of an existing CFG. */
+	public static Liveness analyze(CFG cfg)
+	{
+		Liveness lv = new Liveness(cfg);
+		lv.solve();
+		return lv;
+	}
+
+	@Override
+	protected int domainSize() { return serialOf.length; }
+
+	@Override
+	protected int[] gen(int i) { return use[i]; }
+
+	@Override
+	protected int[] kill(int i) { return def[i]; }
+
+	/*****************/
+	/* Queries       */
+	/*****************/
+
+	/** Number of distinct temps (size of the dense index space). */
+	public int getNumTemps() { return serialOf.length; }
+
+	/** Temp serial number for a dense index. */
+	public int serialOf(int dense) { return serialOf[dense]; }
+
+	/** Dense index of a temp serial number, or -1 if the temp does not occur. */
+	public int denseOf(int serial) { return (serial >= 0 && serial < denseOf.length) ? denseOf[serial] : -1; }
+
+	/** Dense indices of temps read by instruction i. */
+	public int[] getUse(int i) { return use[i]; }
+
+	/** Dense indices of temps written by instruction i. */
+	public int[] getDef(int i) { return def[i]; }
+
+	/**
+	 * Visit every instruction from last to first with its live-in and live-out sets.
+	 * The arrays are reused between calls and must not be retained by the visitor.
+	 */
+	public void walkBackward(InstructionVisitor v)
+	{
+		long[] live = new long[words];
+		long[] out = new long[words];
+		List<CFGNode> blocks = cfg.getNodes();
+		for (int b = blocks.size() - 1; b >= 0; b--) {
+			CFGNode block = blocks.get(b);
+			DataFlowSet.copy(getOut(b), live);
+			for (int i = block.end - 1; i >= block.start; i--) {
+				DataFlowSet.copy(live, out);
+				for (int d : def[i]) DataFlowSet.clear(live, d);
+				for (int u : use[i]) DataFlowSet.set(live, u);
+				v.visit(i, live, out);
+			}
+		}
+	}
+
+	/*****************/
+	/* Bit helpers   */
+	/*****************/
+
+	public static boolean get(long[] bits, int i) { return DataFlowSet.get(bits, i); }
+}
@@ -0,0 +1,323 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import cfg.LoopNest;
+import dfa.DataFlowSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import temp.Temp;
+
+/**
+ * Loop-invariant code motion: moves computations whose value cannot change while a loop runs
+ * to the end of its preheader, the one block outside the loop that enters its header.
+ *
+ * A command is invariant when it defines a single-def temp and each operand is defined outside
+ * the loop or by another invariant command. Memory reads are invariant only if the loop cannot
+ * write what they read: a global load needs no store to that global, a field load no store to
+ * that offset and no array store (element pointers are fields too, see StrengthReduction), an
+ * array load no store to any field or element; and a loop with a call writes everything.
+ * Constants are only hoisted out of call-free loops, where the register they keep costs nothing
+ * around the calls.
+ *
+ * Hoisting runs the command even when the loop body would not, so only arithmetic is moved
+ * from anywhere in the loop. Field and array loads (which may trap, or rely on a null or bounds
+ * check made earlier in the body) and checked divisions are moved only from the header, and
+ * only if every command before it there is hoisted or has no effect: the header runs at least
+ * once whenever the preheader does, and an error is still the first thing the program observes.
+ *
+ * Loops are handled innermost first and the pass repeats, so a value can leave several loops.
+ * With -DLICM_REPORT=1 the number of commands hoisted is printed to stderr.
+ */
+public class LoopInvariantCodeMotion
+{
+	private static final int MAX_ROUNDS = 4;
+	/** Most temps a loop may keep live at once after hoisting, one under the allocator's 15 registers. */
+	private static final int MAX_PRESSURE = 14;
+
+	private static boolean report() { return "1".equals(System.getProperty("LICM_REPORT")); }
+
+	/** Returns the command list with loop-invariant commands hoisted into preheaders. */
+	public static List<IrCommand> run(List<IrCommand> commands)
+	{
+		if (commands.isEmpty())
+			return commands;
+		int hoisted = 0;
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion(commands);
+			commands = licm.hoist();
+			if (licm.moved == 0) break;
+			hoisted += licm.moved;
+		}
+		if (report())
+			System.err.printf("LICM total: %d commands hoisted%n", hoisted);
+		return commands;
+	}
+
+	private final List<IrCommand> code;
+	private final CFG cfg;
+	private final Map<Integer, Integer> defCount = new HashMap<Integer, Integer>();
+	private final Set<Integer> taken = new HashSet<Integer>();   // command indices already moved
+	private final int[] pressure;                                // per block: most temps live at once
+	private int moved;
+
+	private LoopInvariantCodeMotion(List<IrCommand> code)
+	{
+		this.code = code;
+		this.cfg = CFGBuilder.buildFromCommandList(code);
+		for (IrCommand c : code)
+			for (Temp t : c.getDef())
+				if (t != null) defCount.merge(t.getSerialNumber(), 1, Integer::sum);
+		pressure = new int[cfg.size()];
+		Liveness liveness = Liveness.analyze(cfg);
+		liveness.walkBackward((i, liveIn, liveOut) -> {
+			int b = cfg.getBlockOf(i).id;
+			pressure[b] = Math.max(pressure[b], Math.max(DataFlowSet.cardinality(liveIn), DataFlowSet.cardinality(liveOut)));
+		});
+	}
+
+	private List<IrCommand> hoist()
+	{
+		List<LoopNest.Loop> loops = new ArrayList<LoopNest.Loop>(cfg.getLoopNest().getLoops());
+		loops.sort((a, b) -> b.getDepth() - a.getDepth());
+		Map<Integer, List<IrCommand>> insertBefore = new HashMap<Integer, List<IrCommand>>();
+		for (LoopNest.Loop loop : loops) {
+			int at = preheaderEnd(loop);
+			if (at < 0) continue;
+			List<Integer> invariant = withinPressure(invariantCommands(loop), loop);
+			if (invariant.isEmpty()) continue;
+			invariant = shareConstants(invariant);
+			List<IrCommand> dest = insertBefore.computeIfAbsent(at, k -> new ArrayList<IrCommand>());
+			for (int i : invariant) {
+				dest.add(code.get(i));
+				taken.add(i);
+			}
+			moved += invariant.size();
+		}
+		if (moved == 0)
+			return code;
+		List<IrCommand> out = new ArrayList<IrCommand>(code.size());
+		for (int i = 0; i <= code.size(); i++) {
+			List<IrCommand> extra = insertBefore.get(i);
+			if (extra != null) out.addAll(extra);
+			if (i < code.size() && !taken.contains(i)) out.add(code.get(i));
+		}
+		return out;
+	}
+
+	/**
+	 * Index to insert hoisted commands at: the end of the header's only predecessor outside the
+	 * loop, before its jump. -1 if there are several, or it can also leave elsewhere.
+	 */
+	private int preheaderEnd(LoopNest.Loop loop)
+	{
+		CFGNode header = cfg.getNodes().get(loop.getHeader());
+		CFGNode preheader = null;
+		for (CFGNode pred : header.predecessors) {
+			if (loop.contains(pred.id)) continue;
+			if (preheader != null) return -1;
+			preheader = pred;
+		}
+		if (preheader == null || preheader.successors.size() != 1) return -1;
+		IrCommand last = preheader.getLastCommand();
+		return (last instanceof IrCommandJumpLabel) ? preheader.end - 1 : preheader.end;
+	}
+
+	/** Indices of the loop's invariant commands, in program order. */
+	private List<Integer> invariantCommands(LoopNest.Loop loop)
+	{
+		Writes writes = new Writes();
+		Set<Integer> definedInLoop = new HashSet<Integer>();
+		for (int b : loop.getBlocks()) {
+			CFGNode block = cfg.getNodes().get(b);
+			for (int i = block.start; i < block.end; i++) {
+				if (taken.contains(i)) continue;
+				writes.add(code.get(i));
+				for (Temp t : code.get(i).getDef())
+					if (t != null) definedInLoop.add(t.getSerialNumber());
+			}
+		}
+		CFGNode header = cfg.getNodes().get(loop.getHeader());
+		Set<Integer> chosen = new HashSet<Integer>();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			boolean headerPrefix = true;   // still in the header, before anything that stays and has an effect
+			for (int b : loop.getBlocks()) {
+				CFGNode block = cfg.getNodes().get(b);
+				for (int i = block.start; i < block.end; i++) {
+					if (taken.contains(i)) continue;
+					IrCommand c = code.get(i);
+					boolean inPrefix = headerPrefix && block == header;
+					if (!chosen.contains(i) && movable(c, inPrefix, writes) && operandsReady(c, definedInLoop)) {
+						chosen.add(i);
+						for (Temp t : c.getDef()) definedInLoop.remove(t.getSerialNumber());
+						changed = true;
+					}
+					if (block == header && !chosen.contains(i) && !isPure(c)) headerPrefix = false;
+				}
+			}
+		}
+		List<Integer> result = new ArrayList<Integer>(chosen);
+		result.sort(null);
+		return withoutIdleCopies(result);
+	}
+
+	/**
+	 * A copy left in the loop is usually coalesced away; hoisted it would keep a register of its
+	 * own across the loop. So copies only move when a hoisted command reads them.
+	 */
+	private List<Integer> withoutIdleCopies(List<Integer> chosen)
+	{
+		Map<Integer, Integer> copyDefs = new HashMap<Integer, Integer>();   // temp serial -> index of its Move
+		for (int i : chosen)
+			if (code.get(i) instanceof IrCommandMove)
+				copyDefs.put(((IrCommandMove) code.get(i)).dst.getSerialNumber(), i);
+		Set<Integer> needed = new HashSet<Integer>();
+		List<Integer> work = new ArrayList<Integer>();
+		for (int i : chosen)
+			if (!(code.get(i) instanceof IrCommandMove)) work.add(i);
+		while (!work.isEmpty()) {
+			int i = work.remove(work.size() - 1);
+			if (!needed.add(i)) continue;
+			for (Temp t : code.get(i).getUse()) {
+				Integer def = (t != null) ? copyDefs.get(t.getSerialNumber()) : null;
+				if (def != null) work.add(def);
+			}
+		}
+		List<Integer> result = new ArrayList<Integer>();
+		for (int i : chosen)
+			if (needed.contains(i)) result.add(i);
+		return result;
+	}
+
+	/**
+	 * Every hoisted value the loop still reads holds a register for the whole loop. If that would
+	 * push the loop past MAX_PRESSURE, the constants stay (they are one li each), and if that is
+	 * not enough nothing moves.
+	 */
+	private List<Integer> withinPressure(List<Integer> chosen, LoopNest.Loop loop)
+	{
+		int room = MAX_PRESSURE;
+		for (int b : loop.getBlocks())
+			room = Math.min(room, MAX_PRESSURE - pressure[b]);
+		Set<Integer> hoisted = new HashSet<Integer>(chosen);
+		Set<Integer> readByHoisted = new HashSet<Integer>();
+		for (int i : chosen)
+			for (Temp t : code.get(i).getUse())
+				if (t != null) readByHoisted.add(t.getSerialNumber());
+		Set<Integer> readInLoop = new HashSet<Integer>();
+		for (int b : loop.getBlocks()) {
+			CFGNode block = cfg.getNodes().get(b);
+			for (int i = block.start; i < block.end; i++)
+				if (!hoisted.contains(i) && !taken.contains(i))
+					for (Temp t : code.get(i).getUse())
+						if (t != null) readInLoop.add(t.getSerialNumber());
+		}
+		int values = 0;
+		Set<Integer> constants = new HashSet<Integer>();
+		for (int i : chosen) {
+			IrCommand c = code.get(i);
+			if (!readInLoop.contains(c.getDef().iterator().next().getSerialNumber())) continue;
+			if (c instanceof IRcommandConstInt) constants.add(((IRcommandConstInt) c).getValue());
+			else values++;
+		}
+		if (values + constants.size() <= room)
+			return chosen;
+		if (values > room)
+			return new ArrayList<Integer>();
+		List<Integer> result = new ArrayList<Integer>();
+		for (int i : chosen)
+			if (!(code.get(i) instanceof IRcommandConstInt) || readByHoisted.contains(code.get(i).getDef().iterator().next().getSerialNumber()))
+				result.add(i);
+		return result;
+	}
+
+	/**
+	 * One constant per value leaves the loop; the others with that value become copies of it in
+	 * place, which the allocator coalesces, instead of each holding a register across the loop.
+	 */
+	private List<Integer> shareConstants(List<Integer> chosen)
+	{
+		Set<Integer> readByHoisted = new HashSet<Integer>();
+		for (int i : chosen)
+			for (Temp t : code.get(i).getUse())
+				if (t != null) readByHoisted.add(t.getSerialNumber());
+		Map<Integer, Temp> hoistedValue = new HashMap<Integer, Temp>();
+		List<Integer> result = new ArrayList<Integer>();
+		for (int i : chosen) {
+			if (code.get(i) instanceof IRcommandConstInt) {
+				IRcommandConstInt c = (IRcommandConstInt) code.get(i);
+				Temp dst = c.getDef().iterator().next();
+				Temp first = hoistedValue.get(c.getValue());
+				if (first != null) {
+					code.set(i, new IrCommandMove(dst, first));
+					if (readByHoisted.contains(dst.getSerialNumber())) result.add(i);
+					continue;
+				}
+				hoistedValue.put(c.getValue(), dst);
+			}
+			result.add(i);
+		}
+		return result;
+	}
+
+	private boolean operandsReady(IrCommand c, Set<Integer> definedInLoop)
+	{
+		for (Temp t : c.getUse())
+			if (t != null && definedInLoop.contains(t.getSerialNumber())) return false;
+		return true;
+	}
+
+	/** c may leave the loop if its operands do; inHeaderPrefix allows commands that can trap. */
+	private boolean movable(IrCommand c, boolean inHeaderPrefix, Writes writes)
+	{
+		if (c.getDef().size() != 1) return false;
+		Temp d = c.getDef().iterator().next();
+		if (d == null || defCount.get(d.getSerialNumber()) != 1) return false;
+		if (c instanceof IRcommandConstInt) return !writes.call;
+		if (c instanceof IrCommandLoad) return !writes.call && !writes.globals.contains(((IrCommandLoad) c).getVarName());
+		// An unchecked access may rely on a check made inside the loop, so it is not speculated either
+		if (c instanceof IrCommandLoadField)
+			return inHeaderPrefix && !writes.call && !writes.array && !writes.fieldOffsets.contains(((IrCommandLoadField) c).offset);
+		if (c instanceof IrCommandLoadArray)
+			return inHeaderPrefix && !writes.call && !writes.array && writes.fieldOffsets.isEmpty();
+		if (c instanceof IrCommandBinopDivIntegers)
+			return !((IrCommandBinopDivIntegers) c).checkZero || inHeaderPrefix;
+		return isPure(c);
+	}
+
+	/** Computes its def from its operands alone: no memory, no trap, no output. */
+	private static boolean isPure(IrCommand c)
+	{
+		if (c instanceof IrCommandBinopDivIntegers) return !((IrCommandBinopDivIntegers) c).checkZero;
+		return c instanceof IRcommandConstInt || c instanceof IrCommandMove || c instanceof IrCommandLoadAddress
+			|| c instanceof IrCommandBinopAddIntegers || c instanceof IrCommandBinopSubIntegers
+			|| c instanceof IrCommandBinopMulIntegers || c instanceof IrCommandBinopLtIntegers
+			|| c instanceof IrCommandBinopGtIntegers || c instanceof IrCommandBinopEqIntegers
+			|| c instanceof IrCommandShiftLeftIntegers || c instanceof IrCommandShiftRightIntegers
+			|| c instanceof IrCommandElementAddress || c instanceof IrCommandAddImmediate;
+	}
+
+	/** The memory a loop may write. */
+	private static final class Writes
+	{
+		boolean call;
+		boolean array;
+		final Set<String> globals = new HashSet<String>();
+		final Set<Integer> fieldOffsets = new HashSet<Integer>();
+
+		void add(IrCommand c)
+		{
+			if (c instanceof IrCommandCall) call = true;
+			else if (c instanceof IrCommandStoreArray) array = true;
+			else if (c instanceof IrCommandStore) globals.add(((IrCommandStore) c).getVarName());
+			else if (c instanceof IrCommandStoreField) fieldOffsets.add(((IrCommandStoreField) c).offset);
+		}
+	}
+}
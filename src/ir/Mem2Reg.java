@@ -0,0 +1,413 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import cfg.DominatorTree;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import temp.Temp;
+import temp.TempFactory;
+
+/**
+ * SSA construction for L variables (mem2reg). L has no address-of, so every param and local is
+ * promoted; only globals stay in memory. Per function, phis are placed on the iterated
+ * dominance frontiers (from the CFG's dominator tree) of each variable's definitions, pruned
+ * by variable liveness, and uses are renamed along the dominator tree. Load/Store become IrCommandMove, StoreParam becomes IrCommandLoadParam.
+ * Out of SSA, every phi turns into copies at the end of its predecessors, which the register
+ * allocator coalesces. A local that may be read before it is written starts at 0, as its .data
+ * word used to.
+ */
+public class Mem2Reg
+{
+	/** Returns a new command list with the variables of every function promoted to temps. */
+	public static List<IrCommand> run(List<IrCommand> commands)
+	{
+		List<Integer> entries = Ir.findFunctionEntries(commands);
+		if (entries.isEmpty())
+			return commands;
+		// Params are allocated just before their function's label, i.e. at the end of the previous region
+		Set<String> paramNames = new HashSet<String>();
+		for (IrCommand c : commands)
+			if (c instanceof IrCommandStoreParam) paramNames.add(((IrCommandStoreParam) c).getVarName());
+
+		Set<String> promoted = new HashSet<String>();
+		List<IrCommand> result = new ArrayList<IrCommand>(commands.size());
+		result.addAll(commands.subList(0, entries.get(0)));
+		for (int k = 0; k < entries.size(); k++) {
+			int start = entries.get(k);
+			int end = (k + 1 < entries.size()) ? entries.get(k + 1) : commands.size();
+			result.addAll(new Mem2Reg(commands.subList(start, end), paramNames).promote(promoted));
+		}
+		result.removeIf(c -> c instanceof IrCommandAllocate && promoted.contains(((IrCommandAllocate) c).getVarName()));
+		return result;
+	}
+
+	private final List<IrCommand> code;
+	private final Set<String> paramNames;
+
+	/* basic blocks: block b covers code[blockStart[b], blockStart[b+1]) */
+	private int[] blockStart;
+	private int[][] succ;
+	private int[][] pred;
+
+	/* dominators over the blocks reachable from the function label */
+	private DominatorTree dom;
+	private int[] rpo;
+
+	/* promoted variables */
+	private final Map<String, Integer> varIndex = new HashMap<String, Integer>();
+	private final List<String> varNames = new ArrayList<String>();
+	private int paramCount = 0;
+
+	/* SSA state */
+	private List<List<Integer>> phiVars;        // per block: variables with a phi there
+	private List<Map<Integer, Temp>> phiTemps;  // per block: variable -> phi result
+	private List<Map<Integer, Temp[]>> phiArgs; // per block: variable -> operand per predecessor
+	private List<List<IrCommand>> renamed;      // per block: rewritten commands
+	private List<ArrayDeque<Temp>> stacks;      // per variable: reaching definitions
+	private BitSet zeroInit;                    // locals read before any write on some path
+
+	private Mem2Reg(List<IrCommand> code, Set<String> paramNames)
+	{
+		this.code = code;
+		this.paramNames = paramNames;
+	}
+
+	/** Rewrite this function; names of the promoted variables are added to promoted. */
+	private List<IrCommand> promote(Set<String> promoted)
+	{
+		for (IrCommand c : code) {
+			String v = null;
+			if (c instanceof IrCommandStoreParam) {
+				v = ((IrCommandStoreParam) c).getVarName();
+				paramCount++;
+			} else if (c instanceof IrCommandAllocate && !paramNames.contains(((IrCommandAllocate) c).getVarName())) {
+				v = ((IrCommandAllocate) c).getVarName();
+			}
+			if (v != null && !varIndex.containsKey(v)) {
+				varIndex.put(v, varNames.size());
+				varNames.add(v);
+			}
+		}
+		if (varNames.isEmpty())
+			return code;
+
+		buildBlocks();
+		placePhis();
+		int numBlocks = succ.length;
+		renamed = new ArrayList<List<IrCommand>>(numBlocks);
+		for (int b = 0; b < numBlocks; b++) renamed.add(null);
+		stacks = new ArrayList<ArrayDeque<Temp>>();
+		for (int v = 0; v < varNames.size(); v++) stacks.add(new ArrayDeque<Temp>());
+		rename(0);
+		for (int b = 0; b < numBlocks; b++)
+			if (renamed.get(b) == null) renamed.set(b, rewriteUnreachable(b));
+		promoted.addAll(varNames);
+		return destruct();
+	}
+
+	/*****************/
+	/* Basic blocks  */
+	/*****************/
+
+	/** Block boundaries and edges of the function's CFG as arrays, plus its dominator tree. */
+	private void buildBlocks()
+	{
+		CFG cfg = CFGBuilder.buildFromCommandList(code);
+		List<CFGNode> nodes = cfg.getNodes();
+		int numBlocks = nodes.size();
+		blockStart = new int[numBlocks + 1];
+		succ = new int[numBlocks][];
+		pred = new int[numBlocks][];
+		for (CFGNode node : nodes) {
+			blockStart[node.id] = node.start;
+			succ[node.id] = node.successors.stream().mapToInt(x -> x.id).toArray();
+			pred[node.id] = node.predecessors.stream().mapToInt(x -> x.id).toArray();
+		}
+		blockStart[numBlocks] = code.size();
+		dom = cfg.getDominatorTree();
+		rpo = dom.getReversePostorder();
+	}
+
+	/*****************/
+	/* Phi placement */
+	/*****************/
+
+	private int varOf(IrCommand c)
+	{
+		String v = null;
+		if (c instanceof IrCommandLoad) v = ((IrCommandLoad) c).getVarName();
+		else if (c instanceof IrCommandStore) v = ((IrCommandStore) c).getVarName();
+		else if (c instanceof IrCommandStoreParam) v = ((IrCommandStoreParam) c).getVarName();
+		Integer idx = (v != null) ? varIndex.get(v) : null;
+		return (idx != null) ? idx : -1;
+	}
+
+	/** Pruned SSA: a variable gets a phi on the iterated dominance frontier of its definitions where it is live. */
+	private void placePhis()
+	{
+		int numBlocks = succ.length;
+		int numVars = varNames.size();
+
+		// Variable liveness per block
+		BitSet[] use = new BitSet[numBlocks];
+		BitSet[] def = new BitSet[numBlocks];
+		for (int b = 0; b < numBlocks; b++) {
+			use[b] = new BitSet(numVars);
+			def[b] = new BitSet(numVars);
+			for (int i = blockStart[b]; i < blockStart[b + 1]; i++) {
+				IrCommand c = code.get(i);
+				int v = varOf(c);
+				if (v < 0) continue;
+				if (c instanceof IrCommandLoad) {
+					if (!def[b].get(v)) use[b].set(v);
+				} else {
+					def[b].set(v);
+				}
+			}
+		}
+		BitSet[] liveIn = new BitSet[numBlocks];
+		for (int b = 0; b < numBlocks; b++) liveIn[b] = (BitSet) use[b].clone();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = rpo.length - 1; i >= 0; i--) {
+				int b = rpo[i];
+				BitSet in = new BitSet(numVars);
+				for (int s : succ[b]) in.or(liveIn[s]);
+				in.andNot(def[b]);
+				in.or(use[b]);
+				if (!in.equals(liveIn[b])) { liveIn[b] = in; changed = true; }
+			}
+		}
+		zeroInit = (BitSet) liveIn[0].clone();
+
+		// Dominance frontiers
+		int[][] df = new int[numBlocks][];
+		for (int b = 0; b < numBlocks; b++) df[b] = dom.getFrontier(b);
+
+		phiVars = new ArrayList<List<Integer>>();
+		phiTemps = new ArrayList<Map<Integer, Temp>>();
+		phiArgs = new ArrayList<Map<Integer, Temp[]>>();
+		for (int b = 0; b < numBlocks; b++) {
+			phiVars.add(new ArrayList<Integer>());
+			phiTemps.add(new HashMap<Integer, Temp>());
+			phiArgs.add(new HashMap<Integer, Temp[]>());
+		}
+		for (int v = 0; v < numVars; v++) {
+			ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+			boolean[] queued = new boolean[numBlocks];
+			boolean[] hasPhi = new boolean[numBlocks];
+			for (int b : rpo) {
+				if (def[b].get(v) || (b == 0 && zeroInit.get(v))) { work.add(b); queued[b] = true; }
+			}
+			while (!work.isEmpty()) {
+				int b = work.poll();
+				for (int w : df[b]) {
+					if (hasPhi[w] || !liveIn[w].get(v)) continue;
+					hasPhi[w] = true;
+					phiVars.get(w).add(v);
+					if (!queued[w]) { queued[w] = true; work.add(w); }
+				}
+			}
+		}
+	}
+
+	/*****************/
+	/* Renaming      */
+	/*****************/
+
+	private Temp current(int v, List<IrCommand> out)
+	{
+		ArrayDeque<Temp> s = stacks.get(v);
+		if (!s.isEmpty()) return s.peek();
+		// Not reachable for well-formed input (zeroInit covers reads before writes); keep it defined anyway
+		Temp t = TempFactory.getInstance().getFreshTemp();
+		out.add(new IRcommandConstInt(t, 0));
+		return t;
+	}
+
+	private void rename(int b)
+	{
+		List<IrCommand> out = new ArrayList<IrCommand>();
+		List<Integer> pushed = new ArrayList<Integer>();
+		for (int v : phiVars.get(b)) {
+			Temp t = TempFactory.getInstance().getFreshTemp();
+			phiTemps.get(b).put(v, t);
+			stacks.get(v).push(t);
+			pushed.add(v);
+		}
+		boolean zeroed = (b != 0);
+		for (int i = blockStart[b]; i < blockStart[b + 1]; i++) {
+			IrCommand c = code.get(i);
+			// Locals read before written start at 0; define them once the params have arrived
+			if (!zeroed && !(c instanceof IrCommandStoreParam) && c.getLabelName() == null) {
+				emitZeroInit(out, pushed);
+				zeroed = true;
+			}
+			int v = varOf(c);
+			if (c instanceof IrCommandAllocate && varIndex.containsKey(((IrCommandAllocate) c).getVarName()))
+				continue;
+			if (v < 0) {
+				out.add(c);
+			} else if (c instanceof IrCommandLoad) {
+				out.add(new IrCommandMove(((IrCommandLoad) c).getDst(), current(v, out)));
+			} else {
+				Temp t = TempFactory.getInstance().getFreshTemp();
+				if (c instanceof IrCommandStore)
+					out.add(new IrCommandMove(t, ((IrCommandStore) c).getSrc()));
+				else
+					out.add(new IrCommandLoadParam(t, ((IrCommandStoreParam) c).getParamIndex(), paramCount));
+				stacks.get(v).push(t);
+				pushed.add(v);
+			}
+		}
+		if (!zeroed) emitZeroInit(out, pushed);
+		renamed.set(b, out);
+
+		for (int s : succ[b]) {
+			int k = indexOf(pred[s], b);
+			for (int v : phiVars.get(s)) {
+				Temp[] args = phiArgs.get(s).computeIfAbsent(v, x -> new Temp[pred[s].length]);
+				args[k] = current(v, out);
+			}
+		}
+		for (int child : dom.getChildren(b))
+			rename(child);
+		for (int v : pushed)
+			stacks.get(v).pop();
+	}
+
+	private void emitZeroInit(List<IrCommand> out, List<Integer> pushed)
+	{
+		for (int v = zeroInit.nextSetBit(0); v >= 0; v = zeroInit.nextSetBit(v + 1)) {
+			Temp t = TempFactory.getInstance().getFreshTemp();
+			out.add(new IRcommandConstInt(t, 0));
+			stacks.get(v).push(t);
+			pushed.add(v);
+		}
+	}
+
+	/** Unreachable code is kept (labels may still be named by jumps) but no longer touches variables. */
+	private List<IrCommand> rewriteUnreachable(int b)
+	{
+		List<IrCommand> out = new ArrayList<IrCommand>();
+		for (int i = blockStart[b]; i < blockStart[b + 1]; i++) {
+			IrCommand c = code.get(i);
+			if (c instanceof IrCommandAllocate && varIndex.containsKey(((IrCommandAllocate) c).getVarName()))
+				continue;
+			int v = varOf(c);
+			if (v < 0) out.add(c);
+			else if (c instanceof IrCommandLoad) out.add(new IRcommandConstInt(((IrCommandLoad) c).getDst(), 0));
+		}
+		return out;
+	}
+
+	private static int indexOf(int[] a, int x)
+	{
+		for (int i = 0; i < a.length; i++) if (a[i] == x) return i;
+		return -1;
+	}
+
+	/*****************/
+	/* Out of SSA    */
+	/*****************/
+
+	private static boolean endsBlock(IrCommand c)
+	{
+		return c instanceof IrCommandJumpLabel || c instanceof IrCommandJumpIfEqToZero || c instanceof IrCommandReturn;
+	}
+
+	/** The copies that implement the phis of block s along the edge from b. */
+	private List<IrCommand> phiCopies(int b, int s)
+	{
+		List<Temp> dsts = new ArrayList<Temp>();
+		List<Temp> srcs = new ArrayList<Temp>();
+		int k = indexOf(pred[s], b);
+		for (int v : phiVars.get(s)) {
+			Temp src = phiArgs.get(s).get(v)[k];
+			Temp dst = phiTemps.get(s).get(v);
+			if (src != null && !src.equals(dst)) { dsts.add(dst); srcs.add(src); }
+		}
+		List<IrCommand> copies = new ArrayList<IrCommand>();
+		boolean overlap = false;
+		for (Temp d : dsts) if (srcs.contains(d)) overlap = true;
+		if (!overlap) {
+			for (int i = 0; i < dsts.size(); i++) copies.add(new IrCommandMove(dsts.get(i), srcs.get(i)));
+			return copies;
+		}
+		// The phis read their operands in parallel: read every source before any phi result is written
+		List<Temp> staged = new ArrayList<Temp>();
+		for (int i = 0; i < srcs.size(); i++) {
+			Temp t = TempFactory.getInstance().getFreshTemp();
+			staged.add(t);
+			copies.add(new IrCommandMove(t, srcs.get(i)));
+		}
+		for (int i = 0; i < dsts.size(); i++) copies.add(new IrCommandMove(dsts.get(i), staged.get(i)));
+		return copies;
+	}
+
+	/**
+	 * Lay the blocks out in their original order with the phi copies at the end of each predecessor.
+	 * On a conditional branch, copies for the fall-through successor go after the branch. Copies for
+	 * the taken successor go before it, which is safe because that phi's results are dead on the
+	 * fall-through path unless the target dominates the branch (a loop back edge); such edges get
+	 * their own block just before the target.
+	 */
+	private List<IrCommand> destruct()
+	{
+		int numBlocks = succ.length;
+		List<List<IrCommand>> splitBlocks = new ArrayList<List<IrCommand>>();
+		for (int b = 0; b < numBlocks; b++) splitBlocks.add(new ArrayList<IrCommand>());
+
+		for (int b = 0; b < numBlocks; b++) {
+			if (!dom.isReachable(b)) continue;
+			List<IrCommand> out = renamed.get(b);
+			IrCommand last = out.isEmpty() ? null : out.get(out.size() - 1);
+			boolean conditional = last instanceof IrCommandJumpIfEqToZero && succ[b].length == 2;
+			// Copies on the taken (or only) edge go before the block's jump, if it has one
+			int insertAt = (last != null && endsBlock(last)) ? out.size() - 1 : out.size();
+			List<IrCommand> fallThroughCopies = new ArrayList<IrCommand>();
+			for (int s : succ[b]) {
+				if (phiVars.get(s).isEmpty()) continue;
+				List<IrCommand> copies = phiCopies(b, s);
+				if (copies.isEmpty()) continue;
+				if (conditional && s == b + 1) {
+					fallThroughCopies.addAll(copies);
+				} else if (conditional && dom.dominates(s, b)) {
+					IrCommandJumpIfEqToZero branch = (IrCommandJumpIfEqToZero) last;
+					String edgeLabel = IrCommand.getFreshLabel("phi_edge");
+					out.set(insertAt, new IrCommandJumpIfEqToZero(branch.t, edgeLabel));
+					List<IrCommand> split = splitBlocks.get(s);
+					if (!split.isEmpty()) split.add(new IrCommandJumpLabel(code.get(blockStart[s]).getLabelName()));
+					split.add(new IrCommandLabel(edgeLabel));
+					split.addAll(copies);
+				} else {
+					out.addAll(insertAt, copies);
+					insertAt += copies.size();
+				}
+			}
+			out.addAll(fallThroughCopies);
+		}
+
+		List<IrCommand> result = new ArrayList<IrCommand>(code.size());
+		for (int b = 0; b < numBlocks; b++) {
+			List<IrCommand> split = splitBlocks.get(b);
+			if (!split.isEmpty()) {
+				IrCommand prev = result.isEmpty() ? null : result.get(result.size() - 1);
+				if (!(prev instanceof IrCommandJumpLabel || prev instanceof IrCommandReturn))
+					result.add(new IrCommandJumpLabel(code.get(blockStart[b]).getLabelName()));
+				result.addAll(split);
+			}
+			result.addAll(renamed.get(b));
+		}
+		return result;
+	}
+}
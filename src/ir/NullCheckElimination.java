@@ -0,0 +1,177 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import dfa.DataFlowAnalysis;
+import dfa.DataFlowSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import temp.Temp;
+
+/**
+ * Forward "must be non-null" analysis over the IR, used to drop redundant null checks.
+ *
+ * Facts are temps (by the value they copy, see valueOf) followed by variables. A value is
+ * non-null after a new class or array allocation, and after any field access, array access,
+ * method call or explicit null check through it: had it been null, the program would have
+ * stopped there. Copies and stores/loads of variables carry the fact along; a call clears every
+ * variable fact, since the callee may assign a global. Meet is intersection, so a check is
+ * dropped only if the base is non-null on every path reaching it.
+ *
+ * With -DNULL_REPORT=1 the number of checks removed in the whole program is printed to stderr.
+ */
+public class NullCheckElimination extends DataFlowAnalysis
+{
+	private static boolean report() { return "1".equals(System.getProperty("NULL_REPORT")); }
+
+	/** Analyze the commands and clear checkNull on every dereference of a known non-null value. */
+	public static void run(List<IrCommand> commands)
+	{
+		if (commands.isEmpty())
+			return;
+		NullCheckElimination nce = new NullCheckElimination(CFGBuilder.buildFromCommandList(commands));
+		nce.solve();
+		nce.markChecked();
+	}
+
+	private final List<IrCommand> code;
+	private final int[] valueOf;                  // temp serial -> serial of the value it copies
+	private final Map<String, Integer> variableIndex = new HashMap<String, Integer>();
+	private final int numTemps;
+
+	private NullCheckElimination(CFG cfg)
+	{
+		super(cfg, Direction.FORWARD, Meet.INTERSECTION);
+		this.code = cfg.getCommands();
+		int maxSerial = -1;
+		for (IrCommand c : code) {
+			for (Temp t : c.getUse()) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+			for (Temp t : c.getDef()) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+			String var = (c instanceof IrCommandLoad) ? ((IrCommandLoad) c).getVarName()
+				: (c instanceof IrCommandStore) ? ((IrCommandStore) c).getVarName() : null;
+			if (var != null && !variableIndex.containsKey(var))
+				variableIndex.put(var, variableIndex.size());
+		}
+		numTemps = maxSerial + 1;
+		valueOf = copyRoots();
+	}
+
+	/**
+	 * A temp whose only def is a Move stands for the value it copies (transitively), so a check
+	 * through one copy of a promoted variable covers the other copies. As in RangeAnalysis, a phi
+	 * result is only reassigned at the end of its predecessors, after every copy taken from it.
+	 */
+	private int[] copyRoots()
+	{
+		int[] defs = new int[numTemps];
+		int[] source = new int[numTemps];
+		for (int t = 0; t < numTemps; t++) source[t] = t;
+		for (IrCommand c : code) {
+			for (Temp t : c.getDef()) {
+				if (t == null) continue;
+				defs[t.getSerialNumber()]++;
+				if (c instanceof IrCommandMove && ((IrCommandMove) c).getSrc() != null)
+					source[t.getSerialNumber()] = ((IrCommandMove) c).getSrc().getSerialNumber();
+			}
+		}
+		int[] root = new int[numTemps];
+		for (int t = 0; t < numTemps; t++) {
+			int r = t;
+			for (int steps = 0; steps < 64 && defs[r] == 1 && source[r] != r; steps++) r = source[r];
+			root[t] = r;
+		}
+		return root;
+	}
+
+	private int fact(Temp t) { return valueOf[t.getSerialNumber()]; }
+
+	@Override
+	protected int domainSize()
+	{
+		return numTemps + variableIndex.size();
+	}
+
+	@Override
+	protected void transfer(CFGNode block, long[] input, long[] result)
+	{
+		DataFlowSet.copy(input, result);
+		for (IrCommand c : block.getCommands())
+			apply(c, result);
+	}
+
+	private void apply(IrCommand c, long[] state)
+	{
+		Temp base = dereferenced(c);
+		if (base != null)
+			DataFlowSet.set(state, fact(base));
+		if (c instanceof IrCommandStore) {
+			IrCommandStore store = (IrCommandStore) c;
+			int var = numTemps + variableIndex.get(store.getVarName());
+			assign(state, var, store.getSrc() != null && DataFlowSet.get(state, fact(store.getSrc())));
+		} else if (c instanceof IrCommandCall) {
+			for (int var : variableIndex.values())
+				DataFlowSet.clear(state, numTemps + var);
+		}
+		for (Temp t : c.getDef()) {
+			if (t == null || fact(t) != t.getSerialNumber()) continue;   // a copy shares its source's fact
+			boolean nonNull;
+			if (c instanceof IrCommandAllocateClass || c instanceof IrCommandAllocateArray)
+				nonNull = true;
+			else if (c instanceof IrCommandMove)
+				nonNull = ((IrCommandMove) c).getSrc() != null && DataFlowSet.get(state, fact(((IrCommandMove) c).getSrc()));
+			else if (c instanceof IrCommandLoad)
+				nonNull = DataFlowSet.get(state, numTemps + variableIndex.get(((IrCommandLoad) c).getVarName()));
+			else
+				nonNull = false;
+			assign(state, t.getSerialNumber(), nonNull);
+		}
+	}
+
+	/** The pointer c null-checks before using it, or null if c does not dereference anything. */
+	private static Temp dereferenced(IrCommand c)
+	{
+		if (c instanceof IrCommandLoadField) return ((IrCommandLoadField) c).base;
+		if (c instanceof IrCommandStoreField) return ((IrCommandStoreField) c).base;
+		if (c instanceof IrCommandLoadArray) return ((IrCommandLoadArray) c).arrayBase;
+		if (c instanceof IrCommandStoreArray) return ((IrCommandStoreArray) c).arrayBase;
+		if (c instanceof IrCommandCall && ((IrCommandCall) c).hasReceiver()) return ((IrCommandCall) c).args.get(0);
+		if (c instanceof IrCommandNullCheck) return ((IrCommandNullCheck) c).t;
+		return null;
+	}
+
+	private static void assign(long[] state, int fact, boolean value)
+	{
+		if (value)
+			DataFlowSet.set(state, fact);
+		else
+			DataFlowSet.clear(state, fact);
+	}
+
+	private void markChecked()
+	{
+		int total = 0, removed = 0;
+		long[] state = DataFlowSet.empty(domainSize());
+		for (CFGNode block : cfg.getNodes()) {
+			DataFlowSet.copy(getIn(block.id), state);
+			for (IrCommand c : block.getCommands()) {
+				Temp base = dereferenced(c);
+				if (base != null) {
+					boolean check = !DataFlowSet.get(state, fact(base));
+					if (c instanceof IrCommandLoadField) ((IrCommandLoadField) c).checkNull = check;
+					else if (c instanceof IrCommandStoreField) ((IrCommandStoreField) c).checkNull = check;
+					else if (c instanceof IrCommandLoadArray) ((IrCommandLoadArray) c).checkNull = check;
+					else if (c instanceof IrCommandStoreArray) ((IrCommandStoreArray) c).checkNull = check;
+					else if (c instanceof IrCommandNullCheck) ((IrCommandNullCheck) c).checkNull = check;
+					else ((IrCommandCall) c).checkNull = check;
+					total++;
+					if (!check) removed++;
+				}
+				apply(c, state);
+			}
+		}
+		if (report())
+			System.err.printf("NULL total: %d of %d checks removed%n", removed, total);
+	}
+}
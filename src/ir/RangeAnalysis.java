@@ -0,0 +1,434 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import cfg.DominatorTree;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import temp.Temp;
+
+/**
+ * Interval analysis of integer temps, run after ConstantPropagation.
+ *
+ * Every L integer is in [-32768, 32767]: literals are, and every add/sub/mul/div result
+ * is saturated into that range. A temp's interval is the union over its defs (phi results
+ * have one copy per predecessor), found by a worklist with widening to the 16-bit bounds
+ * after a few growths and then narrowed again by re-evaluation. Operands are refined by the
+ * comparisons of dominating branches: inside while (i < n) the body sees i <= hi(n) - 1,
+ * which is what bounds most loop counters.
+ *
+ * An add/sub/mul/div whose unsaturated result interval already fits in 16 bits gets
+ * saturate = false, so codegen drops its clampToS16. With -DRANGE_REPORT=1 the number of
+ * clamps removed per function is printed to stderr.
+ */
+public class RangeAnalysis
+{
+	static final int MIN_INT = -32768;
+	static final int MAX_INT = 32767;
+
+	/** Growths a temp's interval may make before it is widened to the 16-bit bounds. */
+	private static final int WIDEN_AFTER = 3;
+	private static final int NARROW_PASSES = 3;
+
+	private static boolean report() { return "1".equals(System.getProperty("RANGE_REPORT")); }
+
+	/** Analyze the commands and clear the saturate flag of arithmetic that cannot overflow. */
+	public static RangeAnalysis run(List<IrCommand> commands)
+	{
+		RangeAnalysis ra = new RangeAnalysis(commands);
+		if (commands.isEmpty())
+			return ra;
+		ra.solve();
+		ra.markUnsaturated();
+		return ra;
+	}
+
+	/** A fact "a < b", "a > b" or "a == b" known to hold in every block dominated by a branch edge. */
+	private static final class Condition
+	{
+		final IrCommand compare;
+		final boolean holds;
+		final Condition outer;
+
+		Condition(IrCommand compare, boolean holds, Condition outer)
+		{
+			this.compare = compare;
+			this.holds = holds;
+			this.outer = outer;
+		}
+	}
+
+	private final List<IrCommand> code;
+	private CFG cfg;
+	private Condition[] conditions;    // per block: innermost dominating branch fact (linked outwards)
+	private final Map<Integer, List<Integer>> guardedBy = new HashMap<Integer, List<Integer>>();   // compare operand serial -> blocks its conditions cover
+	private static final List<Integer> NO_BLOCKS = new ArrayList<Integer>();
+
+	/* intervals per temp serial; lo > hi means no def seen yet */
+	private int[] lo;
+	private int[] hi;
+	private int[] growths;
+	private int[][] defsOf;
+	private int[][] usesOf;
+	private int[] copyRoot;            // temp serial -> the temp it is a single-def copy of (transitively)
+
+	private RangeAnalysis(List<IrCommand> code)
+	{
+		this.code = code;
+	}
+
+	/*****************/
+	/* Queries       */
+	/*****************/
+
+	/** Lower bound of t just before command i (refined by the branches dominating it). */
+	public int lowerBound(Temp t, int i) { return refined(t, cfg.getBlockOf(i).id)[0]; }
+
+	/** Upper bound of t just before command i (refined by the branches dominating it). */
+	public int upperBound(Temp t, int i) { return refined(t, cfg.getBlockOf(i).id)[1]; }
+
+	/**
+	 * True if a < b just before command i: by their intervals, or because a branch dominating
+	 * i tested a copy of a against a copy of b (the while (i < n) of a loop over n elements).
+	 */
+	public boolean isLess(Temp a, Temp b, int i)
+	{
+		if (upperBound(a, i) < lowerBound(b, i)) return true;
+		int ra = copyRoot[a.getSerialNumber()];
+		int rb = copyRoot[b.getSerialNumber()];
+		for (Condition f = conditions[cfg.getBlockOf(i).id]; f != null; f = f.outer) {
+			if (!f.holds || f.compare instanceof IrCommandBinopEqIntegers) continue;
+			Temp[] ops = operands(f.compare);
+			if (ops[0] == null || ops[1] == null) continue;
+			Temp smaller = (f.compare instanceof IrCommandBinopLtIntegers) ? ops[0] : ops[1];
+			Temp larger = (smaller == ops[0]) ? ops[1] : ops[0];
+			if (copyRoot[smaller.getSerialNumber()] == ra && copyRoot[larger.getSerialNumber()] == rb) return true;
+		}
+		return false;
+	}
+
+	/** Serial of the value t copies: t's own serial unless its only def is a Move. */
+	int valueOf(Temp t) { return copyRoot[t.getSerialNumber()]; }
+
+	/** Indices of the commands defining the temp with this serial. */
+	int[] definitions(int serial) { return defsOf[serial]; }
+
+	/** The command defining the value t copies, or null if that value has several defs (a phi result). */
+	public IrCommand valueDef(Temp t)
+	{
+		int[] defs = defsOf[copyRoot[t.getSerialNumber()]];
+		return (defs.length == 1) ? code.get(defs[0]) : null;
+	}
+
+	/*****************/
+	/* Setup         */
+	/*****************/
+
+	private void buildConditions()
+	{
+		int n = cfg.size();
+		conditions = new Condition[n];
+		DominatorTree dom = cfg.getDominatorTree();
+		Map<Integer, IrCommand> compareOf = new HashMap<Integer, IrCommand>();
+		for (IrCommand c : code) {
+			if (c instanceof IrCommandBinopLtIntegers || c instanceof IrCommandBinopGtIntegers || c instanceof IrCommandBinopEqIntegers) {
+				int d = c.getDef().iterator().next().getSerialNumber();
+				if (defsOf[d].length == 1) compareOf.put(d, c);
+			}
+		}
+		for (int b : dom.getReversePostorder()) {
+			int idom = dom.getIdom(b);
+			Condition inherited = (idom >= 0) ? conditions[idom] : null;
+			CFGNode node = cfg.getNodes().get(b);
+			// An edge out of a conditional branch into a block with no other way in
+			if (node.predecessors.size() == 1 && idom >= 0) {
+				CFGNode p = node.predecessors.get(0);
+				IrCommand last = p.getLastCommand();
+				Temp cond = (last instanceof IrCommandJumpIfEqToZero) ? ((IrCommandJumpIfEqToZero) last).getCond() : null;
+				IrCommand compare = (cond != null) ? compareOf.get(cond.getSerialNumber()) : null;
+				boolean toTarget = cfg.labels.get(last.getJumpLabel()) == node;
+				boolean toNext = node.id == p.id + 1;
+				if (compare != null && toTarget != toNext)
+					inherited = new Condition(compare, toNext, inherited);
+			}
+			conditions[b] = inherited;
+			for (Condition f = inherited; f != null; f = f.outer)
+				for (Temp t : operands(f.compare))
+					if (t != null) guardedBy.computeIfAbsent(t.getSerialNumber(), k -> new ArrayList<Integer>()).add(b);
+		}
+	}
+
+	/*****************/
+	/* Fixed point   */
+	/*****************/
+
+	private void solve()
+	{
+		cfg = CFGBuilder.buildFromCommandList(code);
+		int maxSerial = 0;
+		for (IrCommand c : code) {
+			for (Temp t : c.getUse()) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+			for (Temp t : c.getDef()) if (t != null) maxSerial = Math.max(maxSerial, t.getSerialNumber());
+		}
+		lo = new int[maxSerial + 1];
+		hi = new int[maxSerial + 1];
+		growths = new int[maxSerial + 1];
+		Arrays.fill(lo, MAX_INT);
+		Arrays.fill(hi, MIN_INT);
+		defsOf = index(maxSerial, true);
+		usesOf = index(maxSerial, false);
+		copyRoot = new int[maxSerial + 1];
+		for (int t = 0; t <= maxSerial; t++) copyRoot[t] = root(t);
+		buildConditions();
+
+		DominatorTree dom = cfg.getDominatorTree();
+		ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+		boolean[] queued = new boolean[code.size()];
+		for (int b : dom.getReversePostorder()) {
+			CFGNode node = cfg.getNodes().get(b);
+			for (int i = node.start; i < node.end; i++)
+				if (!code.get(i).getDef().isEmpty()) { work.add(i); queued[i] = true; }
+		}
+		while (!work.isEmpty()) {
+			int i = work.poll();
+			queued[i] = false;
+			java.util.Set<Temp> defs = code.get(i).getDef();
+			Temp d = defs.isEmpty() ? null : defs.iterator().next();
+			if (d == null) continue;
+			int[] r = evaluate(i);
+			if (r == null) continue;
+			int t = d.getSerialNumber();
+			int newLo = Math.min(lo[t], r[0]);
+			int newHi = Math.max(hi[t], r[1]);
+			if (newLo == lo[t] && newHi == hi[t]) continue;
+			if (lo[t] <= hi[t] && ++growths[t] > WIDEN_AFTER) {
+				if (newLo < lo[t]) newLo = MIN_INT;
+				if (newHi > hi[t]) newHi = MAX_INT;
+			}
+			lo[t] = newLo;
+			hi[t] = newHi;
+			for (int u : usesOf[t])
+				if (!queued[u] && dom.isReachable(cfg.getBlockOf(u).id)) { work.add(u); queued[u] = true; }
+			// Blocks under a branch on t read t's interval through their refined operands too
+			for (int b : guardedBy.getOrDefault(t, NO_BLOCKS)) {
+				CFGNode node = cfg.getNodes().get(b);
+				for (int u = node.start; u < node.end; u++)
+					if (!queued[u] && !code.get(u).getDef().isEmpty()) { work.add(u); queued[u] = true; }
+			}
+		}
+
+		// Narrowing: recompute every interval from its defs; each pass can only shrink them
+		for (int pass = 0; pass < NARROW_PASSES; pass++) {
+			boolean changed = false;
+			for (int b : dom.getReversePostorder()) {
+				CFGNode node = cfg.getNodes().get(b);
+				for (int i = node.start; i < node.end; i++) {
+					for (Temp d : code.get(i).getDef()) {
+						if (d == null) continue;
+						int t = d.getSerialNumber();
+						int newLo = MAX_INT, newHi = MIN_INT;
+						for (int j : defsOf[t]) {
+							if (!dom.isReachable(cfg.getBlockOf(j).id)) continue;
+							int[] r = evaluate(j);
+							if (r == null) continue;
+							newLo = Math.min(newLo, r[0]);
+							newHi = Math.max(newHi, r[1]);
+						}
+						newLo = Math.max(newLo, lo[t]);
+						newHi = Math.min(newHi, hi[t]);
+						if (newLo <= newHi && (newLo != lo[t] || newHi != hi[t])) {
+							lo[t] = newLo;
+							hi[t] = newHi;
+							changed = true;
+						}
+					}
+				}
+			}
+			if (!changed) break;
+		}
+	}
+
+	/**
+	 * Loads of a promoted variable became copies of its SSA value, so the operands of a branch's
+	 * compare and the operands of the arithmetic it guards are usually different copies of the same
+	 * temp. A phi result is only reassigned at the end of its predecessors, so every copy taken
+	 * under the branch still holds the compared value.
+	 */
+	private int root(int t)
+	{
+		for (int steps = 0; steps < 64 && defsOf[t].length == 1; steps++) {
+			IrCommand def = code.get(defsOf[t][0]);
+			if (!(def instanceof IrCommandMove) || ((IrCommandMove) def).getSrc() == null) break;
+			t = ((IrCommandMove) def).getSrc().getSerialNumber();
+		}
+		return t;
+	}
+
+	private int[][] index(int maxSerial, boolean defs)
+	{
+		int[] count = new int[maxSerial + 1];
+		for (IrCommand c : code)
+			for (Temp t : defs ? c.getDef() : c.getUse()) if (t != null) count[t.getSerialNumber()]++;
+		int[][] result = new int[maxSerial + 1][];
+		for (int s = 0; s <= maxSerial; s++) result[s] = new int[count[s]];
+		Arrays.fill(count, 0);
+		for (int i = 0; i < code.size(); i++)
+			for (Temp t : defs ? code.get(i).getDef() : code.get(i).getUse())
+				if (t != null) result[t.getSerialNumber()][count[t.getSerialNumber()]++] = i;
+		return result;
+	}
+
+	/*****************/
+	/* Transfer      */
+	/*****************/
+
+	/** Interval of the value command i writes (after saturation), or null while an operand is unknown. */
+	private int[] evaluate(int i)
+	{
+		IrCommand c = code.get(i);
+		if (c instanceof IRcommandConstInt) {
+			int v = ((IRcommandConstInt) c).getValue();
+			return new int[] { v, v };
+		}
+		if (c instanceof IrCommandBinopLtIntegers || c instanceof IrCommandBinopGtIntegers
+			|| c instanceof IrCommandBinopEqIntegers || c instanceof IrCommandEqStrings)
+			return new int[] { 0, 1 };
+		int block = cfg.getBlockOf(i).id;
+		if (c instanceof IrCommandMove)
+			return known(refined(((IrCommandMove) c).getSrc(), block));
+		long[] r = unsaturated(c, block);
+		if (r == UNKNOWN) return null;
+		if (r == null) return new int[] { MIN_INT, MAX_INT };
+		return new int[] { (int) Math.max(MIN_INT, Math.min(MAX_INT, r[0])), (int) Math.max(MIN_INT, Math.min(MAX_INT, r[1])) };
+	}
+
+	private static final long[] UNKNOWN = new long[0];
+
+	/** Exact interval of an arithmetic result before saturation; null if c is not arithmetic. */
+	private long[] unsaturated(IrCommand c, int block)
+	{
+		Temp a, b;
+		if (c instanceof IrCommandBinopAddIntegers) { a = ((IrCommandBinopAddIntegers) c).t1; b = ((IrCommandBinopAddIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopSubIntegers) { a = ((IrCommandBinopSubIntegers) c).t1; b = ((IrCommandBinopSubIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopMulIntegers) { a = ((IrCommandBinopMulIntegers) c).t1; b = ((IrCommandBinopMulIntegers) c).t2; }
+		else if (c instanceof IrCommandBinopDivIntegers) { a = ((IrCommandBinopDivIntegers) c).t1; b = ((IrCommandBinopDivIntegers) c).t2; }
+		else return null;
+		int[] x = refined(a, block);
+		int[] y = refined(b, block);
+		if (x[0] > x[1] || y[0] > y[1]) return UNKNOWN;
+		long xl = x[0], xh = x[1], yl = y[0], yh = y[1];
+		if (c instanceof IrCommandBinopAddIntegers) return new long[] { xl + yl, xh + yh };
+		if (c instanceof IrCommandBinopSubIntegers) return new long[] { xl - yh, xh - yl };
+		if (c instanceof IrCommandBinopMulIntegers) {
+			long p1 = xl * yl, p2 = xl * yh, p3 = xh * yl, p4 = xh * yh;
+			return new long[] { Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4)) };
+		}
+		// Division truncates toward zero, so |q| <= |x|; a zero divisor never produces a result
+		if (yl > 0 || yh < 0) {
+			long q1 = xl / yl, q2 = xl / yh, q3 = xh / yl, q4 = xh / yh;
+			return new long[] { Math.min(Math.min(q1, q2), Math.min(q3, q4)), Math.max(Math.max(q1, q2), Math.max(q3, q4)) };
+		}
+		long m = Math.max(Math.abs(xl), Math.abs(xh));
+		return new long[] { -m, m };
+	}
+
+	private static int[] known(int[] r)
+	{
+		return (r[0] > r[1]) ? null : r;
+	}
+
+	/** Interval of t in block b: its global interval cut down by the branch facts dominating b. */
+	private int[] refined(Temp t, int block)
+	{
+		if (t == null) return new int[] { MIN_INT, MAX_INT };
+		int s = t.getSerialNumber();
+		int[] r = (s < lo.length) ? new int[] { lo[s], hi[s] } : new int[] { MIN_INT, MAX_INT };
+		if (r[0] > r[1]) return r;
+		for (Condition f = conditions[block]; f != null; f = f.outer) {
+			Temp[] ops = operands(f.compare);
+			boolean left = ops[0] != null && copyRoot[s] == copyRoot[ops[0].getSerialNumber()];
+			boolean right = ops[1] != null && copyRoot[s] == copyRoot[ops[1].getSerialNumber()];
+			if (left == right) continue;
+			Temp other = left ? ops[1] : ops[0];
+			int os = other.getSerialNumber();
+			if (lo[os] > hi[os]) continue;
+			// Normalize to "t REL other"
+			boolean less = f.compare instanceof IrCommandBinopLtIntegers;
+			boolean greater = f.compare instanceof IrCommandBinopGtIntegers;
+			if (!left) { boolean tmp = less; less = greater; greater = tmp; }
+			if (f.compare instanceof IrCommandBinopEqIntegers) {
+				if (f.holds) { r[0] = Math.max(r[0], lo[os]); r[1] = Math.min(r[1], hi[os]); }
+			} else if (less == f.holds) {
+				// t < other, or (negated greater) t <= other
+				r[1] = Math.min(r[1], hi[os] - (f.holds ? 1 : 0));
+			} else {
+				// t > other, or (negated less) t >= other
+				r[0] = Math.max(r[0], lo[os] + (f.holds ? 1 : 0));
+			}
+		}
+		return r;
+	}
+
+	private static Temp[] operands(IrCommand c)
+	{
+		if (c instanceof IrCommandBinopLtIntegers) return new Temp[] { ((IrCommandBinopLtIntegers) c).t1, ((IrCommandBinopLtIntegers) c).t2 };
+		if (c instanceof IrCommandBinopGtIntegers) return new Temp[] { ((IrCommandBinopGtIntegers) c).t1, ((IrCommandBinopGtIntegers) c).t2 };
+		return new Temp[] { ((IrCommandBinopEqIntegers) c).t1, ((IrCommandBinopEqIntegers) c).t2 };
+	}
+
+	/*****************/
+	/* Clamps        */
+	/*****************/
+
+	private void markUnsaturated()
+	{
+		Map<String, int[]> perFunction = new TreeMap<String, int[]>();
+		List<Integer> entries = Ir.findFunctionEntries(code);
+		String function = "(global init)";
+		int nextEntry = 0;
+		DominatorTree dom = cfg.getDominatorTree();
+		for (int i = 0; i < code.size(); i++) {
+			if (nextEntry < entries.size() && entries.get(nextEntry) == i) {
+				function = code.get(i).getLabelName();
+				nextEntry++;
+			}
+			IrCommand c = code.get(i);
+			int block = cfg.getBlockOf(i).id;
+			long[] r = dom.isReachable(block) ? unsaturated(c, block) : null;
+			if (r == null && !isArithmetic(c)) continue;
+			int[] counts = perFunction.computeIfAbsent(function, k -> new int[2]);
+			counts[0]++;
+			if (r == null || r == UNKNOWN || r[0] < MIN_INT || r[1] > MAX_INT) continue;
+			counts[1]++;
+			if (c instanceof IrCommandBinopAddIntegers) ((IrCommandBinopAddIntegers) c).saturate = false;
+			else if (c instanceof IrCommandBinopSubIntegers) ((IrCommandBinopSubIntegers) c).saturate = false;
+			else if (c instanceof IrCommandBinopMulIntegers) ((IrCommandBinopMulIntegers) c).saturate = false;
+			else ((IrCommandBinopDivIntegers) c).saturate = false;
+		}
+		if (!report()) return;
+		int total = 0, removed = 0;
+		for (Map.Entry<String, int[]> e : perFunction.entrySet()) {
+			int[] n = e.getValue();
+			System.err.printf("RANGE %s: %d of %d clamps removed (%d fewer instructions per pass)%n",
+				e.getKey(), n[1], n[0], n[1] * CLAMP_INSTRUCTIONS);
+			total += n[0];
+			removed += n[1];
+		}
+		System.err.printf("RANGE total: %d of %d clamps removed%n", removed, total);
+	}
+
+	/** Instructions clampToS16 executes when the value is already in range. */
+	private static final int CLAMP_INSTRUCTIONS = 3;
+
+	private static boolean isArithmetic(IrCommand c)
+	{
+		return c instanceof IrCommandBinopAddIntegers || c instanceof IrCommandBinopSubIntegers
+			|| c instanceof IrCommandBinopMulIntegers || c instanceof IrCommandBinopDivIntegers;
+	}
+}
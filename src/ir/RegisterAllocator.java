@@ -1,157 +1,374 @@
 package ir;
 
-import temp.Temp;
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import cfg.LoopNest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Stack;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import temp.Temp;
 
 /**
- * Simplification-based register allocation for IR.
- * Allocates temporaries to $t0-$t9 and $s1-$s2 (12 registers). Returns null if allocation fails.
- * $s0 is reserved for codegen (MoveTempToS0 / arg preservation). $s1,$s2 are saved/restored on calls.
+ * Chaitin-Briggs register allocation for IR with optimistic coloring and conservative coalescing.
+ * Allocates temporaries to $t0-$t9 (caller-saved) and $s1-$s4, $fp (callee-saved); temps live across a
+ * call prefer the callee-saved ones, which the call does not have to save. Temps that cannot be colored
+ * are spilled: they get a memory slot and MipsGenerator reloads them into scratch registers around each use.
+ * Call args, call results, incoming params and print operands may instead be coalesced into the
+ * precolored $a0-$a3/$v0 they are moved to or from, which removes the move.
+ * $s0 is reserved for codegen (array addressing scratch); $gp holds the heap bump pointer.
  */
 public class RegisterAllocator
 {
-	private static final int K = 12;
-	private static final String[] REGS = { "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8", "$t9", "$s1", "$s2" };
+	private static final int K = 15;
+	private static final String[] REGS = { "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8", "$t9", "$s1", "$s2", "$s3", "$s4", "$fp" };
+	/** REGS[FIRST_CALLEE_SAVED..K-1] are MipsGenerator.CALLEE_SAVED_REGS, preserved by the callee. */
+	private static final int FIRST_CALLEE_SAVED = 10;
 
 	/**
+	 * Allocate each function (and the global-init prefix) independently; temps never cross
+	 * function boundaries, so the per-function graphs are disjoint and are colored in parallel.
 	 * @param commands linear list of IR commands
-	 * @return map from temp serial number to register name ("$t0".."$t9"), or null if allocation fails
+	 * @param spilled receives the serial numbers of temps that were spilled to memory
+	 * @param liveAcrossCalls receives, for every IrCommandCall, the serials of temps live across it
+	 * @return map from temp serial number to register name ("$t0".."$s4", "$fp", "$a0".."$a3", "$v0"); spilled temps are absent
 	 */
-	public static Map<Integer, String> allocate(List<IrCommand> commands)
+	public static Map<Integer, String> allocate(List<IrCommand> commands, Set<Integer> spilled,
+			Map<IrCommand, Set<Integer>> liveAcrossCalls)
 	{
 		if (commands == null || commands.isEmpty())
 			return new HashMap<Integer, String>();
 
-		int n = commands.size();
-		// Map label name -> first instruction index with that label
-		Map<String, Integer> labelToIndex = new HashMap<String, Integer>();
-		for (int i = 0; i < n; i++) {
-			String L = commands.get(i).getLabelName();
-			if (L != null)
-				labelToIndex.put(L, i);
+		List<Integer> entries = Ir.findFunctionEntries(commands);
+		List<List<IrCommand>> functions = new ArrayList<List<IrCommand>>();
+		int start = 0;
+		for (int entry : entries) {
+			if (entry > start) functions.add(commands.subList(start, entry));
+			start = entry;
 		}
+		functions.add(commands.subList(start, commands.size()));
 
-		// Successors: out[i] = set of instruction indices that can follow i
-		List<Set<Integer>> successors = new ArrayList<Set<Integer>>(n);
-		for (int i = 0; i < n; i++)
-			successors.add(new HashSet<Integer>());
-		for (int i = 0; i < n; i++) {
-			IrCommand cmd = commands.get(i);
-			String jumpLabel = cmd.getJumpLabel();
-			boolean isUnconditionalJump = (cmd instanceof IrCommandJumpLabel);
-			if (isUnconditionalJump) {
-				if (jumpLabel != null) {
-					Integer j = labelToIndex.get(jumpLabel);
-					if (j != null) successors.get(i).add(j);
-				}
-			} else {
-				if (i + 1 < n) successors.get(i).add(i + 1);
-				if (jumpLabel != null) {
-					Integer j = labelToIndex.get(jumpLabel);
-					if (j != null) successors.get(i).add(j);
-				}
+		Map<IrCommand, Set<Integer>> live = new ConcurrentHashMap<IrCommand, Set<Integer>>();
+		List<Map<Integer, String>> results = functions.parallelStream()
+			.map(f -> allocateFunction(f, live))
+			.collect(Collectors.toList());
+		liveAcrossCalls.putAll(live);
+
+		Map<Integer, String> allocation = new HashMap<Integer, String>();
+		for (Map<Integer, String> r : results) {
+			for (Map.Entry<Integer, String> e : r.entrySet()) {
+				if (e.getValue() == null) spilled.add(e.getKey());
+				else allocation.put(e.getKey(), e.getValue());
 			}
 		}
+		return allocation;
+	}
 
-		// Use/def per instruction (by temp serial number)
-		List<Set<Integer>> use = new ArrayList<Set<Integer>>(n);
-		List<Set<Integer>> def = new ArrayList<Set<Integer>>(n);
-		Set<Integer> allTemps = new HashSet<Integer>();
-		for (int i = 0; i < n; i++) {
-			IrCommand cmd = commands.get(i);
-			Set<Integer> useI = new HashSet<Integer>();
-			Set<Integer> defI = new HashSet<Integer>();
-			for (Temp t : cmd.getUse()) { if (t != null) { useI.add(t.getSerialNumber()); allTemps.add(t.getSerialNumber()); } }
-			for (Temp t : cmd.getDef()) { if (t != null) { defI.add(t.getSerialNumber()); allTemps.add(t.getSerialNumber()); } }
-			use.add(useI);
-			def.add(defI);
-		}
+	/** Allocate one function's commands against its own interference graph; spilled temps map to null. */
+	private static Map<Integer, String> allocateFunction(List<IrCommand> commands, Map<IrCommand, Set<Integer>> liveAcrossCalls)
+	{
+		CFG cfg = CFGBuilder.buildFromCommandList(commands);
+		final Liveness liveness = Liveness.analyze(cfg);
+		int numTemps = liveness.getNumTemps();
+		final double[] weight = loopWeights(cfg);
 
-		// Backward liveness: in[i] = use[i] ∪ (out[i] \ def[i]), out[i] = ∪ in[j] for j in successors(i)
-		List<Set<Integer>> in = new ArrayList<Set<Integer>>(n);
-		List<Set<Integer>> out = new ArrayList<Set<Integer>>(n);
-		for (int i = 0; i < n; i++) {
-			in.add(new HashSet<Integer>());
-			out.add(new HashSet<Integer>());
+		// Interference: two temps interfere if one is live at the definition of the other
+		// For each instruction i: for d in def[i], for t in out[i], t != d => edge (d,t).
+		// Every command's MIPS reads its operands before writing its result, so an operand that
+		// dies at i may share a register with the def (add $t0,$t0,$t1).
+		// A copy d := s does not make d and s interfere, so the two can be coalesced.
+		// Precolored registers ($a0-$a3, $v0) are not in the pool: a temp conflicts with the ones
+		// a command clobbers while the temp is live, unless it is the operand hinted to that register.
+		final Map<Integer, Set<Integer>> neighbors = new HashMap<Integer, Set<Integer>>();
+		final Map<Integer, Set<String>> regConflicts = new HashMap<Integer, Set<String>>();
+		for (int t = 0; t < numTemps; t++) {
+			neighbors.put(liveness.serialOf(t), new HashSet<Integer>());
+			regConflicts.put(liveness.serialOf(t), new HashSet<String>());
 		}
-		boolean changed = true;
-		while (changed) {
-			changed = false;
-			for (int i = n - 1; i >= 0; i--) {
-				Set<Integer> outI = out.get(i);
-				for (Integer j : successors.get(i))
-					outI.addAll(in.get(j));
-				Set<Integer> inI = new HashSet<Integer>(use.get(i));
-				for (Integer t : out.get(i))
-					if (!def.get(i).contains(t)) inI.add(t);
-				if (!in.get(i).equals(inI)) {
-					in.set(i, inI);
-					changed = true;
+		final List<Move> moves = new ArrayList<Move>();
+		final List<IrCommand> calls = new ArrayList<IrCommand>();
+		liveness.walkBackward((i, liveIn, liveOut) -> {
+			IrCommand cmd = commands.get(i);
+			int[] defI = liveness.getDef(i);
+			if (cmd instanceof IrCommandCall) {
+				// Only these need saving around the jal; the result is defined by the call itself
+				Set<Integer> across = new HashSet<Integer>();
+				for (int w = 0; w < liveOut.length; w++) {
+					long bits = liveOut[w];
+					while (bits != 0) {
+						int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+						bits &= bits - 1;
+						across.add(liveness.serialOf(t));
+					}
 				}
-				out.set(i, outI);
+				for (int d : defI) across.remove(liveness.serialOf(d));
+				liveAcrossCalls.put(cmd, across);
+				calls.add(cmd);
 			}
-		}
-
-		// Interference: two temps interfere if one is live at the definition of the other
-		// For each instruction i: for d in def[i], for t in in[i], t != d => edge (d,t)
-		Map<Integer, Set<Integer>> neighbors = new HashMap<Integer, Set<Integer>>();
-		for (Integer t : allTemps)
-			neighbors.put(t, new HashSet<Integer>());
-		for (int i = 0; i < n; i++) {
-			Set<Integer> inI = in.get(i);
-			for (Integer d : def.get(i))
-				for (Integer t : inI)
-					if (!d.equals(t)) {
-						neighbors.get(d).add(t);
-						neighbors.get(t).add(d);
+			Integer copySrc = null;
+			if (cmd instanceof IrCommandMove && ((IrCommandMove) cmd).getSrc() != null && ((IrCommandMove) cmd).getDst() != null) {
+				IrCommandMove m = (IrCommandMove) cmd;
+				copySrc = m.getSrc().getSerialNumber();
+				moves.add(new Move(m.getDst().getSerialNumber(), copySrc, null, weight[i]));
+			}
+			if (defI.length > 0) {
+				for (int w = 0; w < liveOut.length; w++) {
+					long bits = liveOut[w];
+					while (bits != 0) {
+						int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+						bits &= bits - 1;
+						Integer ts = liveness.serialOf(t);
+						if (ts.equals(copySrc)) continue;
+						for (int d : defI) {
+							if (d == t) continue;
+							Integer ds = liveness.serialOf(d);
+							neighbors.get(ds).add(ts);
+							neighbors.get(ts).add(ds);
+						}
 					}
+				}
+			}
+			Set<String> clobbers = cmd.getClobbers();
+			Set<Integer> defSerials = new HashSet<Integer>();
+			for (int d : defI) defSerials.add(liveness.serialOf(d));
+			Map<Integer, String> hints = new HashMap<Integer, String>();
+			Set<Temp> operands = cmd.getUse();
+			operands.addAll(cmd.getDef());
+			for (Temp t : operands) {
+				if (t == null) continue;
+				String hint = cmd.getRegisterHint(t);
+				if (hint == null) continue;
+				int dense = liveness.denseOf(t.getSerialNumber());
+				// A use may share its register only if it dies here; the command overwrites it otherwise
+				if (defSerials.contains(t.getSerialNumber()) || !Liveness.get(liveOut, dense)) {
+					hints.put(t.getSerialNumber(), hint);
+					moves.add(new Move(t.getSerialNumber(), null, hint, weight[i]));
+				}
+			}
+			if (clobbers.isEmpty()) return;
+			Set<Integer> affected = new HashSet<Integer>(defSerials);
+			for (int u : liveness.getUse(i)) affected.add(liveness.serialOf(u));
+			for (int w = 0; w < liveOut.length; w++) {
+				long bits = liveOut[w];
+				while (bits != 0) {
+					int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					affected.add(liveness.serialOf(t));
+				}
+			}
+			for (Integer t : affected) {
+				String hint = hints.get(t);
+				for (String r : clobbers)
+					if (!r.equals(hint)) regConflicts.get(t).add(r);
+			}
+		});
+
+		// Spill cost: uses and defs weighted by 10^loopDepth
+		final Map<Integer, Double> spillCost = spillCosts(liveness, weight);
+
+		// Coalescing, hottest moves first. Merging into a precolored register takes the temp out of the
+		// K-color graph altogether, so George's test reduces to "no conflict with the register or with a
+		// temp already in it". Temp-temp copies use Briggs' test (fewer than K significant neighbors)
+		// or George's (every neighbor of one already interferes with the other or is insignificant).
+		Collections.sort(moves, (a, b) -> Double.compare(b.weight, a.weight));
+		final Map<Integer, Integer> alias = new HashMap<Integer, Integer>();
+		final Map<Integer, String> precolored = new HashMap<Integer, String>();
+		for (Move m : moves) {
+			int a = find(alias, m.a);
+			if (m.reg != null) {
+				if (!precolored.containsKey(a) && canJoinRegister(a, m.reg, neighbors, regConflicts, precolored))
+					precolored.put(a, m.reg);
+				continue;
+			}
+			int b = find(alias, m.b);
+			if (a == b || neighbors.get(a).contains(b)) continue;
+			String ra = precolored.get(a);
+			String rb = precolored.get(b);
+			if (ra != null && rb != null) continue;
+			if (ra != null || rb != null) {
+				String r = (ra != null) ? ra : rb;
+				if (!canJoinRegister(ra != null ? b : a, r, neighbors, regConflicts, precolored)) continue;
+			} else if (!briggs(a, b, neighbors, precolored) && !george(a, b, neighbors, precolored) && !george(b, a, neighbors, precolored)) {
+				continue;
+			}
+			// Merge b into a
+			alias.put(b, a);
+			for (Integer n : neighbors.remove(b)) {
+				neighbors.get(n).remove(b);
+				neighbors.get(n).add(a);
+				neighbors.get(a).add(n);
+			}
+			regConflicts.get(a).addAll(regConflicts.remove(b));
+			if (rb != null) precolored.put(a, rb);
+			precolored.remove(b);
+			spillCost.put(a, spillCost.get(a) + spillCost.remove(b));
 		}
 
-		// Simplification: repeatedly remove a node with degree < K and push onto stack; if none, fail
+		// Simplification: repeatedly remove a node with degree < K and push onto stack. If none is left,
+		// push the cheapest spill candidate (cost / degree) optimistically; it may still find a color.
+		// Temps coalesced into a precolored register are not part of this graph.
 		Stack<Integer> stack = new Stack<Integer>();
 		Map<Integer, Set<Integer>> workGraph = new HashMap<Integer, Set<Integer>>();
-		for (Map.Entry<Integer, Set<Integer>> e : neighbors.entrySet())
-			workGraph.put(e.getKey(), new HashSet<Integer>(e.getValue()));
+		for (Map.Entry<Integer, Set<Integer>> e : neighbors.entrySet()) {
+			if (precolored.containsKey(e.getKey())) continue;
+			Set<Integer> adj = new HashSet<Integer>();
+			for (Integer n : e.getValue())
+				if (!precolored.containsKey(n)) adj.add(n);
+			workGraph.put(e.getKey(), adj);
+		}
 
 		while (!workGraph.isEmpty()) {
 			Integer low = null;
 			for (Map.Entry<Integer, Set<Integer>> e : workGraph.entrySet()) {
 				if (e.getValue().size() < K) { low = e.getKey(); break; }
 			}
-			if (low == null)
-				return null; // allocation failed
+			if (low == null) {
+				double best = Double.MAX_VALUE;
+				for (Map.Entry<Integer, Set<Integer>> e : workGraph.entrySet()) {
+					double p = spillCost.get(e.getKey()) / e.getValue().size();
+					if (low == null || p < best || (p == best && e.getKey() < low)) { best = p; low = e.getKey(); }
+				}
+			}
 			stack.push(low);
 			Set<Integer> adj = workGraph.remove(low);
 			for (Integer a : adj)
 				workGraph.get(a).remove(low);
 		}
 
-		// Color: pop and assign smallest color not used by (already colored) neighbors
-		// Use original neighbors for "already colored" check
+		// Select: pop and assign a color not used by (already colored) neighbors, callee-saved first
+		// for nodes live across a call and caller-saved first otherwise.
+		// A node with no free color becomes an actual spill.
+		Set<Integer> acrossCall = new HashSet<Integer>();
+		for (IrCommand call : calls)
+			for (int serial : liveAcrossCalls.get(call)) acrossCall.add(find(alias, serial));
 		Map<Integer, Integer> color = new HashMap<Integer, Integer>();
+		Set<Integer> spilledNodes = new HashSet<Integer>();
 		while (!stack.isEmpty()) {
 			Integer node = stack.pop();
 			Set<Integer> used = new HashSet<Integer>();
 			for (Integer a : neighbors.get(node))
 				if (color.containsKey(a))
 					used.add(color.get(a));
-			int c = 0;
-			while (used.contains(c)) c++;
-			if (c >= K)
-				return null;
+			int first = acrossCall.contains(node) ? FIRST_CALLEE_SAVED : 0;
+			int c = -1;
+			for (int k = 0; k < K && c < 0; k++)
+				if (!used.contains((first + k) % K)) c = (first + k) % K;
+			if (c < 0) {
+				spilledNodes.add(node);
+				continue;
+			}
 			color.put(node, c);
 		}
 
-		// Map serial -> register name
+		// Map serial -> register name (null = spilled); coalesced temps take their representative's register
 		Map<Integer, String> allocation = new HashMap<Integer, String>();
-		for (Map.Entry<Integer, Integer> e : color.entrySet())
-			allocation.put(e.getKey(), REGS[e.getValue()]);
+		for (int t = 0; t < numTemps; t++) {
+			int serial = liveness.serialOf(t);
+			int rep = find(alias, serial);
+			if (precolored.containsKey(rep)) allocation.put(serial, precolored.get(rep));
+			else if (spilledNodes.contains(rep)) allocation.put(serial, null);
+			else allocation.put(serial, REGS[color.get(rep)]);
+		}
 		return allocation;
 	}
+
+	/** A move-related pair: temp a with temp b, or with precolored register reg. */
+	private static final class Move
+	{
+		final int a;
+		final Integer b;
+		final String reg;
+		final double weight;
+
+		Move(int a, Integer b, String reg, double weight)
+		{
+			this.a = a;
+			this.b = b;
+			this.reg = reg;
+			this.weight = weight;
+		}
+	}
+
+	private static int find(Map<Integer, Integer> alias, int t)
+	{
+		Integer a;
+		while ((a = alias.get(t)) != null) t = a;
+		return t;
+	}
+
+	/** George's test against a precolored register: t conflicts neither with reg nor with a neighbor already in reg. */
+	private static boolean canJoinRegister(int t, String reg, Map<Integer, Set<Integer>> neighbors,
+			Map<Integer, Set<String>> regConflicts, Map<Integer, String> precolored)
+	{
+		if (regConflicts.get(t).contains(reg)) return false;
+		for (Integer n : neighbors.get(t))
+			if (reg.equals(precolored.get(n))) return false;
+		return true;
+	}
+
+	/** Briggs' test: the merged node has fewer than K neighbors of significant degree (>= K). */
+	private static boolean briggs(int a, int b, Map<Integer, Set<Integer>> neighbors, Map<Integer, String> precolored)
+	{
+		Set<Integer> adj = new HashSet<Integer>(neighbors.get(a));
+		adj.addAll(neighbors.get(b));
+		int significant = 0;
+		for (Integer n : adj) {
+			if (precolored.containsKey(n)) continue;
+			int degree = 0;
+			for (Integer m : neighbors.get(n))
+				if (!precolored.containsKey(m)) degree++;
+			// a and b become one neighbor of n
+			if (neighbors.get(n).contains(a) && neighbors.get(n).contains(b)) degree--;
+			if (degree >= K) significant++;
+		}
+		return significant < K;
+	}
+
+	/** George's test: every neighbor of a already interferes with b or has insignificant degree (< K). */
+	private static boolean george(int a, int b, Map<Integer, Set<Integer>> neighbors, Map<Integer, String> precolored)
+	{
+		Set<Integer> adjB = neighbors.get(b);
+		for (Integer n : neighbors.get(a)) {
+			if (precolored.containsKey(n) || adjB.contains(n)) continue;
+			int degree = 0;
+			for (Integer m : neighbors.get(n))
+				if (!precolored.containsKey(m)) degree++;
+			if (degree >= K) return false;
+		}
+		return true;
+	}
+
+	/** Execution weight of every instruction: 10^d, where d is the loop depth of its block. */
+	private static double[] loopWeights(CFG cfg)
+	{
+		LoopNest loops = cfg.getLoopNest();
+		double[] weight = new double[cfg.getCommands().size()];
+		for (CFGNode block : cfg.getNodes()) {
+			double w = Math.pow(10, Math.min(loops.getLoopDepth(block.id), 8));
+			for (int i = block.start; i < block.end; i++)
+				weight[i] = w;
+		}
+		return weight;
+	}
+
+	/** Spill cost of every temp: the summed weight of the instructions that use or define it. */
+	private static Map<Integer, Double> spillCosts(Liveness liveness, double[] weight)
+	{
+		double[] cost = new double[liveness.getNumTemps()];
+		for (int i = 0; i < weight.length; i++) {
+			for (int t : liveness.getUse(i)) cost[t] += weight[i];
+			for (int t : liveness.getDef(i)) cost[t] += weight[i];
+		}
+		Map<Integer, Double> costs = new HashMap<Integer, Double>();
+		for (int t = 0; t < cost.length; t++)
+			costs.put(liveness.serialOf(t), cost[t]);
+		return costs;
+	}
 }
@@ -0,0 +1,260 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import cfg.DominatorTree;
+import cfg.LoopNest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import temp.Temp;
+import temp.TempFactory;
+
+/**
+ * Replaces multiplies, divides and loop array addressing with cheaper forms, using the
+ * intervals of RangeAnalysis (a temp whose interval is one value is a constant).
+ *
+ * Arithmetic, rewritten in place:
+ * - x * 0, x * 1 and x / 1 become a constant or a copy;
+ * - x * 2^k becomes a shift left, still clamped to 16 bits unless RangeAnalysis cleared it;
+ * - x / 2^k becomes an arithmetic shift right when x >= 0 (sra rounds down, L truncates
+ *   toward zero, so the two only agree for non-negative x);
+ * - a division whose divisor interval excludes 0 drops its division-by-zero check.
+ *
+ * Loop addressing: in a call-free loop whose header has a phi value i stepped by a constant
+ * on every back edge, the unchecked accesses a[i] with a fixed outside the loop go through one
+ * element pointer p = a + 4*i. It is set where the loop is entered, advanced by 4*step next to
+ * i's update, and each access becomes a plain lw/sw at 4(p) instead of sll/add/lw.
+ */
+public class StrengthReduction
+{
+	/** Rewrite commands and return the new list; ranges must describe exactly these commands. */
+	public static List<IrCommand> run(List<IrCommand> commands, RangeAnalysis ranges)
+	{
+		if (commands.isEmpty())
+			return commands;
+		StrengthReduction sr = new StrengthReduction(commands, ranges);
+		sr.reduceArithmetic();
+		return sr.reduceLoopAddressing();
+	}
+
+	private final List<IrCommand> code;
+	private final RangeAnalysis ranges;
+	private final Map<Integer, Temp> tempOf = new HashMap<Integer, Temp>();
+
+	private StrengthReduction(List<IrCommand> code, RangeAnalysis ranges)
+	{
+		this.code = code;
+		this.ranges = ranges;
+		for (IrCommand c : code)
+			for (Temp t : c.getDef())
+				if (t != null) tempOf.put(t.getSerialNumber(), t);
+	}
+
+	/*****************/
+	/* Arithmetic    */
+	/*****************/
+
+	private void reduceArithmetic()
+	{
+		for (int i = 0; i < code.size(); i++) {
+			IrCommand c = code.get(i);
+			IrCommand r = null;
+			if (c instanceof IrCommandBinopMulIntegers) {
+				IrCommandBinopMulIntegers mul = (IrCommandBinopMulIntegers) c;
+				Integer k = constant(mul.t2, i);
+				Temp x = mul.t1;
+				if (k == null) { k = constant(mul.t1, i); x = mul.t2; }
+				if (k == null || x == null) continue;
+				if (k == 0) r = new IRcommandConstInt(mul.dst, 0);
+				else if (k == 1) r = new IrCommandMove(mul.dst, x);
+				else if (log2(k) > 0) {
+					IrCommandShiftLeftIntegers sll = new IrCommandShiftLeftIntegers(mul.dst, x, log2(k));
+					sll.saturate = mul.saturate;
+					r = sll;
+				}
+			} else if (c instanceof IrCommandBinopDivIntegers) {
+				IrCommandBinopDivIntegers div = (IrCommandBinopDivIntegers) c;
+				if (div.t1 == null || div.t2 == null) continue;
+				int lo = ranges.lowerBound(div.t2, i), hi = ranges.upperBound(div.t2, i);
+				if (lo > hi) continue;
+				div.checkZero = lo <= 0 && hi >= 0;
+				if (lo != hi) continue;
+				if (lo == 1) r = new IrCommandMove(div.dst, div.t1);
+				else if (log2(lo) > 0 && ranges.lowerBound(div.t1, i) >= 0)
+					r = new IrCommandShiftRightIntegers(div.dst, div.t1, log2(lo));
+			}
+			if (r != null) code.set(i, r);
+		}
+	}
+
+	/** The value of t just before command i, if its interval there is a single value. */
+	private Integer constant(Temp t, int i)
+	{
+		if (t == null) return null;
+		int lo = ranges.lowerBound(t, i);
+		return (lo == ranges.upperBound(t, i)) ? Integer.valueOf(lo) : null;
+	}
+
+	/** k if value == 2^k for some k >= 1, else -1. */
+	private static int log2(int value)
+	{
+		return (value > 1 && (value & (value - 1)) == 0) ? Integer.numberOfTrailingZeros(value) : -1;
+	}
+
+	/*****************/
+	/* Loops         */
+	/*****************/
+
+	private List<IrCommand> reduceLoopAddressing()
+	{
+		CFG cfg = CFGBuilder.buildFromCommandList(code);
+		DominatorTree dom = cfg.getDominatorTree();
+		Map<Integer, List<IrCommand>> insertBefore = new HashMap<Integer, List<IrCommand>>();
+		for (LoopNest.Loop loop : cfg.getLoopNest().getLoops()) {
+			if (containsCall(cfg, loop)) continue;
+			// Unchecked accesses in the loop, grouped by (index value, array value)
+			Map<Long, List<Integer>> accesses = new LinkedHashMap<Long, List<Integer>>();
+			for (int b : loop.getBlocks()) {
+				CFGNode block = cfg.getNodes().get(b);
+				for (int i = block.start; i < block.end; i++) {
+					Temp[] bi = uncheckedAccess(code.get(i));
+					if (bi == null || !copiedInLoop(bi[1], cfg, loop)) continue;
+					long key = ((long) ranges.valueOf(bi[1]) << 32) | ranges.valueOf(bi[0]);
+					accesses.computeIfAbsent(key, k -> new ArrayList<Integer>()).add(i);
+				}
+			}
+			for (Map.Entry<Long, List<Integer>> e : accesses.entrySet()) {
+				int index = (int) (e.getKey() >>> 32);
+				int array = (int) (long) e.getKey();
+				Temp pointer = TempFactory.getInstance().getFreshTemp();
+				Map<Integer, IrCommand> updates = pointerUpdates(cfg, dom, loop, index, array, pointer);
+				if (updates == null) continue;
+				for (Map.Entry<Integer, IrCommand> u : updates.entrySet())
+					insertBefore.computeIfAbsent(u.getKey(), k -> new ArrayList<IrCommand>()).add(u.getValue());
+				for (int i : e.getValue()) {
+					IrCommand c = code.get(i);
+					if (c instanceof IrCommandLoadArray) {
+						IrCommandLoadField lw = new IrCommandLoadField(((IrCommandLoadArray) c).dst, pointer, 4);
+						lw.checkNull = false;
+						code.set(i, lw);
+					} else {
+						IrCommandStoreField sw = new IrCommandStoreField(pointer, 4, ((IrCommandStoreArray) c).src);
+						sw.checkNull = false;
+						code.set(i, sw);
+					}
+				}
+			}
+		}
+		if (insertBefore.isEmpty())
+			return code;
+		List<IrCommand> out = new ArrayList<IrCommand>(code.size() + insertBefore.size() * 2);
+		for (int i = 0; i <= code.size(); i++) {
+			List<IrCommand> extra = insertBefore.get(i);
+			if (extra != null) out.addAll(extra);
+			if (i < code.size()) out.add(code.get(i));
+		}
+		return out;
+	}
+
+	/** The pointer would have to be saved and restored around every call, costing more than it saves. */
+	private boolean containsCall(CFG cfg, LoopNest.Loop loop)
+	{
+		for (int b : loop.getBlocks())
+			for (IrCommand c : cfg.getNodes().get(b).getCommands())
+				if (c instanceof IrCommandCall) return true;
+		return false;
+	}
+
+	/** {base, index} of an array access left without null and bounds checks, else null. */
+	private static Temp[] uncheckedAccess(IrCommand c)
+	{
+		if (c instanceof IrCommandLoadArray) {
+			IrCommandLoadArray load = (IrCommandLoadArray) c;
+			if (!load.checkNull && !load.checkBounds && load.index != null) return new Temp[] { load.arrayBase, load.index };
+		} else if (c instanceof IrCommandStoreArray) {
+			IrCommandStoreArray store = (IrCommandStoreArray) c;
+			if (!store.checkNull && !store.checkBounds && store.index != null) return new Temp[] { store.arrayBase, store.index };
+		}
+		return null;
+	}
+
+	/** Every copy between t and the value it stands for was made inside the loop, so t is current. */
+	private boolean copiedInLoop(Temp t, CFG cfg, LoopNest.Loop loop)
+	{
+		int root = ranges.valueOf(t);
+		for (int s = t.getSerialNumber(); s != root; ) {
+			int[] defs = ranges.definitions(s);
+			if (defs.length != 1 || !loop.contains(cfg.getBlockOf(defs[0]).id)) return false;
+			s = ((IrCommandMove) code.get(defs[0])).getSrc().getSerialNumber();
+		}
+		return true;
+	}
+
+	/**
+	 * The pointer's initialization on each loop entry edge and its step on each back edge, keyed
+	 * by the command index to insert before; null if index is not a phi of the loop header
+	 * stepped by a constant, or the array value is not available where the loop is entered.
+	 */
+	private Map<Integer, IrCommand> pointerUpdates(CFG cfg, DominatorTree dom, LoopNest.Loop loop,
+		int index, int array, Temp pointer)
+	{
+		CFGNode header = cfg.getNodes().get(loop.getHeader());
+		int[] defs = ranges.definitions(index);
+		int[] arrayDefs = ranges.definitions(array);
+		if (defs.length != header.predecessors.size() || arrayDefs.length != 1) return null;
+		int arrayBlock = cfg.getBlockOf(arrayDefs[0]).id;
+		Map<Integer, IrCommand> updates = new HashMap<Integer, IrCommand>();
+		for (CFGNode pred : header.predecessors) {
+			// Phi copies sit at the very end of the predecessor, before its jump
+			IrCommand last = pred.getLastCommand();
+			if (last instanceof IrCommandJumpIfEqToZero || last instanceof IrCommandReturn || last instanceof IrCommandJrRa) return null;
+			int at = (last instanceof IrCommandJumpLabel) ? pred.end - 1 : pred.end;
+			IrCommandMove copy = phiCopy(defs, pred);
+			if (copy == null || copy.getSrc() == null) return null;
+			if (loop.contains(pred.id)) {
+				Integer step = step(copy.getSrc(), index);
+				if (step == null || Math.abs(4 * step) > RangeAnalysis.MAX_INT) return null;   // addi immediate
+				updates.put(at, new IrCommandAddImmediate(pointer, pointer, 4 * step));
+			} else {
+				if (!dom.dominates(arrayBlock, pred.id)) return null;
+				updates.put(at, new IrCommandElementAddress(pointer, tempOf.get(array), tempOf.get(index)));
+			}
+		}
+		return updates;
+	}
+
+	/** The one def of the phi value (a Move) placed in pred, or null. */
+	private IrCommandMove phiCopy(int[] defs, CFGNode pred)
+	{
+		IrCommandMove found = null;
+		for (int d : defs) {
+			if (d < pred.start || d >= pred.end) continue;
+			if (found != null || !(code.get(d) instanceof IrCommandMove)) return null;
+			found = (IrCommandMove) code.get(d);
+		}
+		return found;
+	}
+
+	/** c if value is index + c or index - (-c) for a constant c without saturation, else null. */
+	private Integer step(Temp value, int index)
+	{
+		int[] defs = ranges.definitions(ranges.valueOf(value));
+		if (defs.length != 1) return null;
+		int i = defs[0];
+		IrCommand c = code.get(i);
+		if (c instanceof IrCommandBinopAddIntegers && !((IrCommandBinopAddIntegers) c).saturate) {
+			IrCommandBinopAddIntegers add = (IrCommandBinopAddIntegers) c;
+			if (add.t1 != null && ranges.valueOf(add.t1) == index) return constant(add.t2, i);
+			if (add.t2 != null && ranges.valueOf(add.t2) == index) return constant(add.t1, i);
+		} else if (c instanceof IrCommandBinopSubIntegers && !((IrCommandBinopSubIntegers) c).saturate) {
+			IrCommandBinopSubIntegers sub = (IrCommandBinopSubIntegers) c;
+			Integer k = (sub.t1 != null && ranges.valueOf(sub.t1) == index) ? constant(sub.t2, i) : null;
+			return (k == null) ? null : Integer.valueOf(-k);
+		}
+		return null;
+	}
+}
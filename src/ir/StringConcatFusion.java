@@ -0,0 +1,97 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import temp.Temp;
+
+/**
+ * Merges left-nested string concatenations into one n-ary IrCommandConcatStrings, so
+ * s := s + a + b allocates and copies the result once instead of building s + a first.
+ *
+ * concat(t, c) absorbs t = concat(a, b) (possibly through copies) when t is used only there, both
+ * are in the same block and only pure commands run in between: the intermediate string could
+ * not have been observed, and a null part still exits with the same message. Only the first part
+ * is absorbed; a + (b + c) checks b and c before a, which the merged command would not.
+ *
+ * With -DCONCAT_REPORT=1 the number of concatenations merged away is printed to stderr.
+ */
+public class StringConcatFusion
+{
+	private static boolean report() { return "1".equals(System.getProperty("CONCAT_REPORT")); }
+
+	/** Returns the command list with every fusable chain merged. */
+	public static List<IrCommand> run(List<IrCommand> commands)
+	{
+		if (commands.isEmpty())
+			return commands;
+		Map<Integer, Integer> uses = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> defAt = new HashMap<Integer, Integer>();
+		for (int i = 0; i < commands.size(); i++) {
+			IrCommand c = commands.get(i);
+			for (Temp t : c.getUse())
+				if (t != null) uses.merge(t.getSerialNumber(), 1, Integer::sum);
+			for (Temp t : c.getDef())
+				if (t != null) defAt.put(t.getSerialNumber(), defAt.containsKey(t.getSerialNumber()) ? -1 : i);
+		}
+		CFG cfg = CFGBuilder.buildFromCommandList(commands);
+		boolean[] dead = new boolean[commands.size()];
+		int merged = 0;
+		for (int i = 0; i < commands.size(); i++) {
+			if (!(commands.get(i) instanceof IrCommandConcatStrings))
+				continue;
+			IrCommandConcatStrings outer = (IrCommandConcatStrings) commands.get(i);
+			// Follow the first part back through single-use copies to the concat computing it
+			List<Integer> absorbed = new ArrayList<Integer>();
+			Temp t = outer.parts.get(0);
+			IrCommandConcatStrings inner = null;
+			while (t != null && uses.getOrDefault(t.getSerialNumber(), 0) == 1 && defAt.getOrDefault(t.getSerialNumber(), -1) >= 0) {
+				int d = defAt.get(t.getSerialNumber());
+				absorbed.add(d);
+				IrCommand def = commands.get(d);
+				if (def instanceof IrCommandConcatStrings) {
+					inner = (IrCommandConcatStrings) def;
+					break;
+				}
+				t = (def instanceof IrCommandMove) ? ((IrCommandMove) def).getSrc() : null;
+			}
+			if (inner == null || !quietBetween(commands, cfg, absorbed, inner, i))
+				continue;
+			List<Temp> parts = new ArrayList<Temp>(inner.parts);
+			parts.addAll(outer.parts.subList(1, outer.parts.size()));
+			outer.parts = parts;
+			for (int d : absorbed) dead[d] = true;
+			merged++;
+		}
+		if (report())
+			System.err.printf("CONCAT total: %d concatenations merged%n", merged);
+		if (merged == 0)
+			return commands;
+		List<IrCommand> kept = new ArrayList<IrCommand>(commands.size());
+		for (int i = 0; i < commands.size(); i++)
+			if (!dead[i]) kept.add(commands.get(i));
+		return kept;
+	}
+
+	/** Between the absorbed commands and i, in one block, nothing observable runs and no part of inner changes. */
+	private static boolean quietBetween(List<IrCommand> commands, CFG cfg, List<Integer> absorbed, IrCommandConcatStrings inner, int i)
+	{
+		int first = absorbed.get(absorbed.size() - 1);
+		if (first > i || cfg.getBlockOf(first) != cfg.getBlockOf(i))
+			return false;
+		for (int k = first + 1; k < i; k++) {
+			IrCommand c = commands.get(k);
+			if (absorbed.contains(k) || c instanceof IrCommandAllocateString)   // literal data, no code
+				continue;
+			if (!DeadCodeElimination.isPure(c))
+				return false;
+			for (Temp t : c.getDef())
+				for (Temp part : inner.parts)
+					if (part != null && t != null && part.getSerialNumber() == t.getSerialNumber()) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,282 @@
+package ir;
+
+import cfg.CFG;
+import cfg.CFGBuilder;
+import cfg.CFGNode;
+import cfg.DominatorTree;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import temp.Temp;
+
+/**
+ * Dominator-based value numbering over the IR after ConstantPropagation: a command computing
+ * what a dominating command already computed becomes a copy of that result, so a repeated
+ * a[i] or o.f pays for its null check, bounds check and load once.
+ *
+ * A value number is the constant or string literal a temp holds, or else the temp it copies
+ * (through single-def Moves, as in RangeAnalysis); an expression is keyed by its kind and its operands' value
+ * numbers, commutative operands sorted. Arithmetic, compares and string equality over
+ * single-def values are available in every block their command dominates. Loads, and
+ * expressions over a phi result, are only kept along an extended basic block (each block's
+ * only predecessor is the one before), and are forgotten when a phi copy reassigns an operand:
+ * - a store to a global, field offset or array kills the loads of that global, offset or of
+ *   any element, and makes the stored value what the next load of that location reads;
+ * - a call kills every load.
+ * A string compared with itself, or two literals, folds to a constant.
+ *
+ * An array access also records that its index is in bounds for that array. Arrays never change
+ * length, so a later access with the same array and index values, anywhere the first one
+ * dominates, needs no bounds check (a[i] := a[i] + 1 checks once). With -DVN_REPORT=1 the
+ * number of commands replaced and bounds checks dropped is printed to stderr.
+ */
+public class ValueNumbering
+{
+	private static boolean report() { return "1".equals(System.getProperty("VN_REPORT")); }
+
+	/** Replace redundant commands in place and clear bounds checks a dominating access made. */
+	public static void run(List<IrCommand> commands)
+	{
+		if (commands.isEmpty())
+			return;
+		ValueNumbering vn = new ValueNumbering(commands);
+		for (CFGNode root : vn.cfg.roots)
+			vn.visit(root.id, new Tables(), new Tables());
+		if (report())
+			System.err.printf("VN total: %d commands replaced, %d bounds checks dropped%n", vn.replaced, vn.boundsDropped);
+	}
+
+	/** Available expressions (key -> temp holding the value) and array accesses known in bounds. */
+	private static final class Tables
+	{
+		final Map<String, Temp> values = new HashMap<String, Temp>();
+		final Set<String> inBounds = new HashSet<String>();
+
+		Tables copy()
+		{
+			Tables t = new Tables();
+			t.values.putAll(values);
+			t.inBounds.addAll(inBounds);
+			return t;
+		}
+	}
+
+	private final List<IrCommand> code;
+	private final CFG cfg;
+	private final DominatorTree dom;
+	private final Map<Integer, Integer> defCount = new HashMap<Integer, Integer>();
+	private final Map<Integer, Integer> copySource = new HashMap<Integer, Integer>();
+	private final Map<Integer, String> constants = new HashMap<Integer, String>();   // "#5", or "&str_3" for a literal
+	private int replaced;
+	private int boundsDropped;
+
+	private ValueNumbering(List<IrCommand> code)
+	{
+		this.code = code;
+		this.cfg = CFGBuilder.buildFromCommandList(code);
+		this.dom = cfg.getDominatorTree();
+		for (IrCommand c : code) {
+			for (Temp t : c.getDef()) {
+				if (t == null) continue;
+				defCount.merge(t.getSerialNumber(), 1, Integer::sum);
+				if (c instanceof IrCommandMove && ((IrCommandMove) c).getSrc() != null)
+					copySource.put(t.getSerialNumber(), ((IrCommandMove) c).getSrc().getSerialNumber());
+				else if (c instanceof IRcommandConstInt)
+					constants.put(t.getSerialNumber(), "#" + ((IRcommandConstInt) c).getValue());
+				else if (c instanceof IrCommandLoadAddress)
+					constants.put(t.getSerialNumber(), "&" + ((IrCommandLoadAddress) c).label);
+			}
+		}
+	}
+
+	/** The temp t copies, transitively through single-def Moves. */
+	private int rootOf(Temp t)
+	{
+		int s = t.getSerialNumber();
+		for (int steps = 0; steps < 64 && defCount.getOrDefault(s, 0) == 1 && copySource.containsKey(s); steps++)
+			s = copySource.get(s);
+		return s;
+	}
+
+	/** Value number of t: its constant or string literal (a null operand is 0), or else the temp it copies. */
+	private String valueOf(Temp t)
+	{
+		if (t == null) return "#0";
+		int root = rootOf(t);
+		if (constants.containsKey(root) && defCount.get(root) == 1) return constants.get(root);
+		return String.valueOf(root);
+	}
+
+	/** A phi result (or a temp never defined here) may hold different values along the dominator tree. */
+	private boolean isStable(Temp t)
+	{
+		return t == null || defCount.getOrDefault(rootOf(t), 0) == 1;
+	}
+
+	/**
+	 * Number block b with the expressions of its dominators (global) and of its extended basic
+	 * block (local), then its children in the dominator tree.
+	 */
+	private void visit(int b, Tables global, Tables local)
+	{
+		CFGNode block = cfg.getNodes().get(b);
+		for (int i = block.start; i < block.end; i++)
+			number(i, global, local);
+		for (int child : dom.getChildren(b)) {
+			CFGNode node = cfg.getNodes().get(child);
+			boolean extends_ = node.predecessors.size() == 1 && node.predecessors.get(0) == block;
+			visit(child, global.copy(), extends_ ? local.copy() : new Tables());
+		}
+	}
+
+	private void number(int i, Tables global, Tables local)
+	{
+		IrCommand c = code.get(i);
+		for (Temp t : c.getDef())
+			if (t != null && defCount.getOrDefault(t.getSerialNumber(), 0) > 1) reassigned(t.getSerialNumber(), local);
+		if (c instanceof IrCommandCall) {
+			local.values.keySet().removeIf(ValueNumbering::isLoad);
+			return;
+		}
+		if (c instanceof IrCommandStore) {
+			IrCommandStore store = (IrCommandStore) c;
+			String key = "load " + store.getVarName();
+			local.values.remove(key);
+			if (store.getSrc() != null && isStable(store.getSrc())) local.values.put(key, store.getSrc());
+			return;
+		}
+		if (c instanceof IrCommandStoreField) {
+			IrCommandStoreField store = (IrCommandStoreField) c;
+			String suffix = " @" + store.offset;
+			local.values.keySet().removeIf(k -> k.startsWith("field ") && k.endsWith(suffix));
+			if (store.src != null && isStable(store.src) && isStable(store.base))
+				local.values.put("field " + valueOf(store.base) + suffix, store.src);
+			return;
+		}
+		if (c instanceof IrCommandStoreArray) {
+			IrCommandStoreArray store = (IrCommandStoreArray) c;
+			if (boundsKnown(store.arrayBase, store.index, global, local) && store.checkBounds) {
+				store.checkBounds = false;
+				boundsDropped++;
+			}
+			inBounds(store.arrayBase, store.index, global, local);
+			local.values.keySet().removeIf(k -> k.startsWith("element "));
+			if (store.src != null && isStable(store.src) && isStable(store.arrayBase) && isStable(store.index))
+				local.values.put(elementKey(store.arrayBase, store.index), store.src);
+			return;
+		}
+
+		String key = key(c);
+		if (key == null)
+			return;
+		Temp dst = c.getDef().iterator().next();
+		if (c instanceof IrCommandEqStrings && foldEqStrings(i, (IrCommandEqStrings) c))
+			return;
+		boolean stable = isLoad(key) ? false : stableOperands(c);
+		Tables scope = stable ? global : local;
+		Temp available = scope.values.get(key);
+		if (available != null) {
+			code.set(i, new IrCommandMove(dst, available));
+			replaced++;
+			return;
+		}
+		if (c instanceof IrCommandLoadArray) {
+			IrCommandLoadArray load = (IrCommandLoadArray) c;
+			if (boundsKnown(load.arrayBase, load.index, global, local) && load.checkBounds) {
+				load.checkBounds = false;
+				boundsDropped++;
+			}
+			inBounds(load.arrayBase, load.index, global, local);
+		}
+		if (defCount.getOrDefault(dst.getSerialNumber(), 0) == 1)
+			scope.values.put(key, dst);
+	}
+
+	/** A phi copy at the end of a block changes the phi result: forget what was known about it. */
+	private static void reassigned(int serial, Tables local)
+	{
+		String operand = String.valueOf(serial);
+		local.values.keySet().removeIf(k -> Arrays.asList(k.split("[ \\[\\]@]+")).contains(operand));
+		local.inBounds.removeIf(k -> Arrays.asList(k.split("[ \\[\\]@]+")).contains(operand));
+	}
+
+	/**
+	 * A string equals itself, and literals are interned (AstExpString), so two different literal
+	 * labels hold different text: either way the comparison is decided here.
+	 */
+	private boolean foldEqStrings(int i, IrCommandEqStrings eq)
+	{
+		String a = valueOf(eq.t1), b = valueOf(eq.t2);
+		boolean same = a.equals(b);
+		if (!same && !(a.startsWith("&") && b.startsWith("&")))
+			return false;
+		code.set(i, new IRcommandConstInt(eq.dst, same ? 1 : 0));
+		replaced++;
+		return true;
+	}
+
+	/** After an access to base[index] the pair is known in bounds (or the program stopped). */
+	private void inBounds(Temp base, Temp index, Tables global, Tables local)
+	{
+		String key = valueOf(base) + "[" + valueOf(index) + "]";
+		if (isStable(base) && isStable(index)) global.inBounds.add(key);
+		else local.inBounds.add(key);
+	}
+
+	private boolean boundsKnown(Temp base, Temp index, Tables global, Tables local)
+	{
+		String key = valueOf(base) + "[" + valueOf(index) + "]";
+		return global.inBounds.contains(key) || local.inBounds.contains(key);
+	}
+
+	private boolean stableOperands(IrCommand c)
+	{
+		for (Temp t : c.getUse())
+			if (!isStable(t)) return false;
+		return true;
+	}
+
+	private static boolean isLoad(String key)
+	{
+		return key.startsWith("load ") || key.startsWith("field ") || key.startsWith("element ");
+	}
+
+	private String elementKey(Temp base, Temp index)
+	{
+		return "element " + valueOf(base) + "[" + valueOf(index) + "]";
+	}
+
+	/** The expression c computes, or null if c is not numbered (effects, allocations, copies). */
+	private String key(IrCommand c)
+	{
+		if (c instanceof IrCommandLoad) return "load " + ((IrCommandLoad) c).getVarName();
+		if (c instanceof IrCommandLoadField) {
+			IrCommandLoadField load = (IrCommandLoadField) c;
+			return "field " + valueOf(load.base) + " @" + load.offset;
+		}
+		if (c instanceof IrCommandLoadArray) return elementKey(((IrCommandLoadArray) c).arrayBase, ((IrCommandLoadArray) c).index);
+		if (c instanceof IrCommandBinopAddIntegers) return commutative("+", ((IrCommandBinopAddIntegers) c).t1, ((IrCommandBinopAddIntegers) c).t2);
+		if (c instanceof IrCommandBinopMulIntegers) return commutative("*", ((IrCommandBinopMulIntegers) c).t1, ((IrCommandBinopMulIntegers) c).t2);
+		if (c instanceof IrCommandBinopEqIntegers) return commutative("=", ((IrCommandBinopEqIntegers) c).t1, ((IrCommandBinopEqIntegers) c).t2);
+		if (c instanceof IrCommandEqStrings) return commutative("s=", ((IrCommandEqStrings) c).t1, ((IrCommandEqStrings) c).t2);
+		if (c instanceof IrCommandBinopSubIntegers) return ordered("-", ((IrCommandBinopSubIntegers) c).t1, ((IrCommandBinopSubIntegers) c).t2);
+		if (c instanceof IrCommandBinopDivIntegers) return ordered("/", ((IrCommandBinopDivIntegers) c).t1, ((IrCommandBinopDivIntegers) c).t2);
+		if (c instanceof IrCommandBinopLtIntegers) return ordered("<", ((IrCommandBinopLtIntegers) c).t1, ((IrCommandBinopLtIntegers) c).t2);
+		if (c instanceof IrCommandBinopGtIntegers) return ordered("<", ((IrCommandBinopGtIntegers) c).t2, ((IrCommandBinopGtIntegers) c).t1);
+		return null;
+	}
+
+	private String ordered(String op, Temp a, Temp b)
+	{
+		return valueOf(a) + " " + op + " " + valueOf(b);
+	}
+
+	private String commutative(String op, Temp a, Temp b)
+	{
+		String x = valueOf(a), y = valueOf(b);
+		return (x.compareTo(y) <= 0) ? x + " " + op + " " + y : y + " " + op + " " + x;
+	}
+}
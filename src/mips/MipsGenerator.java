@@ -26,8 +26,6 @@ public class MipsGenerator
 	private static final boolean DEBUG_LOAD_ARRAY_SITE = false;
 	/** When true, emit MIPS comments for load/store/storeParam/call and print $a0 before each jal. Set false for submission. */
 	private static final boolean DEBUG_TRACE_CALLS = false;
-	/** When true, print index and value before storeArrayWithBaseInS2 (debug test 5). Set false for submission. */
-	private static final boolean DEBUG_STORE_ARRAY = false;
 	/** When true, emit trace chars (M=main, E=main returned, R=func entry, L=while start, C=before concat, W=while end, B=loop-back j, X=jr $ra). Set false for submission. */
 	private static final boolean DEBUG_MIPS_TRACE = false;
 	/** When true (e.g. -DDEBUG_RECURSION=1): emit R on function entry, print $v0 before jr $ra, then X. For TEST_27 deep recursion. */
@@ -43,6 +41,15 @@ public class MipsGenerator
 		private static final boolean DEBUG_PARAMS = false;
 		/** When set (e.g. -DDEBUG_CALL_ARGS=1): emit MIPS to print all args right before jal so you see actual values passed. */
 		private static boolean debugCallArgs() { return System.getProperty("DEBUG_CALL_ARGS") != null; }
+	/**
+	 * With -DGC=1 the heap is garbage collected (see emitGcRuntime): it starts at -DGC_HEAP bytes
+	 * (default 64 KB) and grows up to -DGC_MAX_HEAP bytes (default 4 MB) only when a collection
+	 * does not free enough.
+	 */
+	public static boolean gcMode() { return "1".equals(System.getProperty("GC")); }
+	private static int gcHeapBytes(String property, int defaultBytes) {
+		return (Integer.getInteger(property, defaultBytes) + 7) & ~7;
+	}
 	/** When set (e.g. -DDEBUG_FUNC_ARGS=hanoi): at entry to listed functions, print $a0 $a1 $a2 $a3 as integers (for TEST_168, TEST_53, etc.). */
 	private static boolean debugFuncArgs(String funcName) {
 		String list = System.getProperty("DEBUG_FUNC_ARGS");
@@ -121,47 +128,44 @@ public class MipsGenerator
 		fileWriter.print("\tlw $a0,0($sp)\n\tlw $a1,4($sp)\n\tlw $a2,8($sp)\n\tlw $a3,12($sp)\n\tlw $v0,16($sp)\n\tlw $ra,20($sp)\n\taddi $sp,$sp,24\n");
 	}
 
-	/** Emit string_concat helper (once). $a0=s1, $a1=s2 -> $v0=new string. Null ptr -> ptr_error. */
+	/**
+	 * Emit string_concat helper (once). $a0 = number of parts, the part pointers at 0($sp), 4($sp), ...
+	 * -> $v0 = new string. A null part exits with the message of the operand it was (first part $a0,
+	 * later ones $a1). Every string keeps its byte length in the word before its first char, so the
+	 * result is sized from the headers and allocated once; each part is copied a word at a time
+	 * (lw, then swr/swl since the destination may be unaligned), and its last bytes and NUL one at a
+	 * time; the next part overwrites that NUL. Only touches $a0-$a3,$v0,$v1,$s0 and the heap registers.
+	 */
 	private void emitStringConcatHelper() {
 		if (concatHelperEmitted) return;
 		concatHelperEmitted = true;
 		fileWriter.print("string_concat:\n");
-		fileWriter.print("\tbne $a0,$zero,concat_ck1\n\tla $a0,dbg_concat_a0\n\tli $v0,4\n\tsyscall\n\tli $v0,10\n\tsyscall\n");
-		fileWriter.print("concat_ck1:\n\tbne $a1,$zero,concat_ok\n\tla $a0,dbg_concat_a1\n\tli $v0,4\n\tsyscall\n\tli $v0,10\n\tsyscall\n");
-		fileWriter.print("concat_ok:\n");
-		fileWriter.print("\taddi $sp,$sp,-36\n");
-		fileWriter.print("\tsw $ra,0($sp)\n\tsw $s0,4($sp)\n\tsw $s1,8($sp)\n\tsw $a0,12($sp)\n\tsw $a1,16($sp)\n");
-		fileWriter.print("\tsw $t0,20($sp)\n\tsw $t1,24($sp)\n\tsw $t4,28($sp)\n\tsw $t5,32($sp)\n");
-		// len1: $s0 = strlen($a0), max 65535 to avoid infinite loop on bad ptr
-		fileWriter.print("\tmove $t0,$a0\n\tli $s0,0\n");
-		fileWriter.print("string_concat_len1:\n\tlb $t1,0($t0)\n\tbeq $t1,$zero,string_concat_len1_done\n");
-		fileWriter.print("\taddi $t0,$t0,1\n\taddi $s0,$s0,1\n\tli $t1,65536\n\tbge $s0,$t1,string_concat_len1_done\n");
-		fileWriter.print("\tj string_concat_len1\n");
-		fileWriter.print("string_concat_len1_done:\n");
-		// len2: $s1 = strlen($a1), max 65535
-		fileWriter.print("\tlw $t0,16($sp)\n\tli $s1,0\n");
-		fileWriter.print("string_concat_len2:\n\tlb $t1,0($t0)\n\tbeq $t1,$zero,string_concat_len2_done\n");
-		fileWriter.print("\taddi $t0,$t0,1\n\taddi $s1,$s1,1\n\tli $t1,65536\n\tbge $s1,$t1,string_concat_len2_done\n");
-		fileWriter.print("\tj string_concat_len2\n");
-		fileWriter.print("string_concat_len2_done:\n");
-		// allocate len1+len2+1
-		fileWriter.print("\tadd $a0,$s0,$s1\n\taddi $a0,$a0,1\n\tli $v0,9\n\tsyscall\n");
-		fileWriter.print("\tmove $t5,$v0\n\tmove $t4,$v0\n");
-		// copy s1
-		fileWriter.print("\tlw $t0,12($sp)\n");
-		fileWriter.print("string_concat_cp1:\n\tlb $t1,0($t0)\n\tbeq $t1,$zero,string_concat_cp1_done\n");
-		fileWriter.print("\tsb $t1,0($t4)\n\taddi $t0,$t0,1\n\taddi $t4,$t4,1\n\tj string_concat_cp1\n");
-		fileWriter.print("string_concat_cp1_done:\n");
-		// copy s2
-		fileWriter.print("\tlw $t0,16($sp)\n");
-		fileWriter.print("string_concat_cp2:\n\tlb $t1,0($t0)\n\tbeq $t1,$zero,string_concat_cp2_done\n");
-		fileWriter.print("\tsb $t1,0($t4)\n\taddi $t0,$t0,1\n\taddi $t4,$t4,1\n\tj string_concat_cp2\n");
-		fileWriter.print("string_concat_cp2_done:\n");
-		fileWriter.print("\tsb $zero,0($t4)\n");
-		fileWriter.print("\tmove $v0,$t5\n");
-		fileWriter.print("\tlw $ra,0($sp)\n\tlw $s0,4($sp)\n\tlw $s1,8($sp)\n\tlw $a0,12($sp)\n\tlw $a1,16($sp)\n");
-		fileWriter.print("\tlw $t0,20($sp)\n\tlw $t1,24($sp)\n\tlw $t4,28($sp)\n\tlw $t5,32($sp)\n");
-		fileWriter.print("\taddi $sp,$sp,36\n");
+		// With the collector, gc_alloc is called with jal: keep $ra under the parts
+		if (gcMode()) fileWriter.print("\taddi $sp,$sp,-4\n\tsw $ra,0($sp)\n");
+		String partsBase = gcMode() ? "\taddi %s,$sp,4\n" : "\tmove %s,$sp\n";
+		// $s0 walks the parts up to $a2, summing their lengths into $a3
+		fileWriter.format(partsBase, "$s0");
+		fileWriter.print("\tsll $a0,$a0,2\n\tadd $a2,$s0,$a0\n\tli $a3,0\n");
+		fileWriter.print("concat_len:\n\tlw $a1,0($s0)\n\tbne $a1,$zero,concat_len_ok\n");
+		fileWriter.format(partsBase, "$a1");
+		fileWriter.print("\tla $a0,dbg_concat_a0\n\tbeq $s0,$a1,concat_null\n\tla $a0,dbg_concat_a1\n");
+		fileWriter.print("concat_null:\n\tli $v0,4\n\tsyscall\n\tli $v0,10\n\tsyscall\n");
+		fileWriter.print("concat_len_ok:\n\tlw $a1,-4($a1)\n\tadd $a3,$a3,$a1\n\taddi $s0,$s0,4\n\tbne $s0,$a2,concat_len\n");
+		// Length word + chars + NUL, rounded up to a word so the heap stays aligned
+		fileWriter.print("\taddi $v1,$a3,8\n\tli $a0,-4\n\tand $v1,$v1,$a0\n");
+		if (gcMode())
+			fileWriter.format("\tmove $a0,$v1\n\tli $a1,%d\n\tjal gc_alloc\n", GC_NO_SCAN);
+		else
+			emitHeapAllocate("$v1", "concat");
+		fileWriter.print("\tsw $a3,0($v0)\n\taddi $v0,$v0,4\n\tmove $a3,$v0\n");
+		fileWriter.format(partsBase, "$s0");
+		fileWriter.print("concat_part:\n\tlw $a0,0($s0)\n\tlw $a1,-4($a0)\n\tli $v1,-4\n\tand $a1,$a1,$v1\n\tadd $a1,$a1,$a0\n");
+		fileWriter.print("concat_words:\n\tbeq $a0,$a1,concat_bytes\n\tlw $v1,0($a0)\n\tswr $v1,0($a3)\n\tswl $v1,3($a3)\n");
+		fileWriter.print("\taddi $a0,$a0,4\n\taddi $a3,$a3,4\n\tj concat_words\n");
+		fileWriter.print("concat_bytes:\n\tlb $v1,0($a0)\n\tsb $v1,0($a3)\n\tbeq $v1,$zero,concat_next\n");
+		fileWriter.print("\taddi $a0,$a0,1\n\taddi $a3,$a3,1\n\tj concat_bytes\n");
+		fileWriter.print("concat_next:\n\taddi $s0,$s0,4\n\tbne $s0,$a2,concat_part\n");
+		if (gcMode()) fileWriter.print("\tlw $ra,0($sp)\n\taddi $sp,$sp,4\n");
 		fileWriter.print("\tjr $ra\n");
 	}
 
@@ -174,6 +178,10 @@ public class MipsGenerator
 
 	private String reg(Temp t) {
 		if (t == null) return "$zero";
+		String scratch = spillScratch.get(t.getSerialNumber());
+		if (scratch != null) return scratch;
+		if (spilledTemps.contains(t.getSerialNumber()))
+			throw new IllegalStateException("spilled Temp_" + t.getSerialNumber() + " used without reload");
 		if (tempToReg != null) {
 			String r = tempToReg.get(t.getSerialNumber());
 			if (r != null) return r;
@@ -200,15 +208,17 @@ public class MipsGenerator
 
 	/** Functions that make calls: save $ra at entry, restore before jr $ra. */
 	private Set<String> functionSavesRa = new HashSet<>();
-	/** Per-function param count so prologue only stores $a0-$a3 for param slots, not locals. */
-	private Map<String, Integer> functionParamCount = new HashMap<>();
-	/** Set stack layout for locals (so recursion works). Call after setRegisterAllocation. */
-	public void setFunctionLayouts(Set<String> localVars, Map<String, Map<String, Integer>> varOffsets, Map<String, Integer> frameSizes, Map<String, Integer> paramCount, Set<String> savesRa) {
+	/** Bytes the call sequence being emitted has pushed below the current frame (frame slots move up by this much). */
+	private int spDepth = 0;
+	/** Per-function: callee-saved registers it writes, saved at entry and restored before jr $ra (slot = offset of the register name). */
+	private Map<String, List<String>> functionCalleeSaves = new HashMap<>();
+	/** Set the $sp-relative frame layout of every function. Call after setRegisterAllocation. */
+	public void setFunctionLayouts(Set<String> localVars, Map<String, Map<String, Integer>> varOffsets, Map<String, Integer> frameSizes, Set<String> savesRa, Map<String, List<String>> calleeSaves) {
 		this.localVarNames = (localVars != null) ? new HashSet<>(localVars) : new HashSet<>();
 		this.functionVarOffsets = (varOffsets != null) ? new HashMap<>(varOffsets) : new HashMap<>();
 		this.functionFrameSizes = (frameSizes != null) ? new HashMap<>(frameSizes) : new HashMap<>();
-		this.functionParamCount = (paramCount != null) ? new HashMap<>(paramCount) : new HashMap<>();
 		this.functionSavesRa = (savesRa != null) ? new HashSet<>(savesRa) : new HashSet<>();
+		this.functionCalleeSaves = (calleeSaves != null) ? new HashMap<>(calleeSaves) : new HashMap<>();
 	}
 
 	/** Set output writer and write .data section + code entry. Must be called before mipsMe(). */
@@ -229,11 +239,18 @@ public class MipsGenerator
 		fileWriter.print("string_ptr_loadArray: .asciiz \"Invalid Ptr (loadArray)\\n\"\n");
 		fileWriter.print("string_ptr_storeField: .asciiz \"Invalid Ptr (storeField)\\n\"\n");
 		fileWriter.print("string_ptr_storeArray: .asciiz \"Invalid Ptr (storeArray)\\n\"\n");
-		fileWriter.print("string_ptr_storeFieldS1: .asciiz \"Invalid Ptr (storeFieldBaseS1)\\n\"\n");
-		fileWriter.print("string_ptr_s2: .asciiz \"Invalid Ptr (baseInS2)\\n\"\n");
 		fileWriter.print("dbg_concat_a0: .asciiz \"DBG: concat $a0 null\\n\"\n");
 		fileWriter.print("dbg_concat_a1: .asciiz \"DBG: concat $a1 null\\n\"\n");
 		fileWriter.print("dbg_print_a0: .asciiz \"DBG: PrintString $a0 null\\n\"\n");
+		if (gcMode())
+			fileWriter.print("string_out_of_memory: .asciiz \"Out Of Memory\"\n");
+		// End of the chunk (or, with the collector, the free run) $gp bumps through
+		fileWriter.print("\t.align 2\nheap_limit: .word 0\n");
+		if (gcMode()) {
+			// Collector state first, so the root scan of the data segment (from gc_data_start) skips it
+			fileWriter.print("gc_stack_base: .word 0\ngc_bitmap: .word 0\ngc_heap_start: .word 0\n");
+			fileWriter.print("gc_heap_end: .word 0\ngc_free_list: .word 0\ngc_data_start:\n");
+		}
 		/* Vtables emitted at end of file in .text so .word func_* gets full 32-bit address (SPIM) */
 		fileWriter.print(".text\n");
 		fileWriter.print("__compiler_entry:\n\tj main\n");
@@ -241,15 +258,13 @@ public class MipsGenerator
 
 	/** Emit vtable .data for each class (for dynamic dispatch). Must emit one word per slot so slot N is at offset N*4. */
 	private void emitVtables() {
-		int numSlots = types.VtableBuilder.getNumSlots();
-		if (DEBUG_VTABLE) System.err.println("[DEBUG_VTABLE] numSlots=" + numSlots);
 		for (String className : types.VtableBuilder.getClassNames()) {
 			String[] entries = types.VtableBuilder.getVtableEntries(className);
 			if (entries == null) continue;
 			fileWriter.format("vtable_%s:\n", className);
-			if (DEBUG_VTABLE) System.err.println("[DEBUG_VTABLE] vtable_" + className);
-			for (int slot = 0; slot < numSlots; slot++) {
-				String label = (entries.length > slot) ? entries[slot] : null;
+			if (DEBUG_VTABLE) System.err.println("[DEBUG_VTABLE] vtable_" + className + " numSlots=" + entries.length);
+			for (int slot = 0; slot < entries.length; slot++) {
+				String label = entries[slot];
 				String mipsLabel = label != null ? toMipsFuncLabel(label) : null;
 				if (label != null) {
 					if (DEBUG_VTABLE) {
@@ -264,9 +279,11 @@ public class MipsGenerator
 		}
 	}
 
-	/** Emit "main:" label so SPIM entry runs global init first; then jump to main_actual. */
+	/** Emit "main:" label so SPIM entry runs global init first; then jump to main_actual. Starts with an empty heap chunk. */
 	public void emitProgramEntry() {
 		fileWriter.print("main:\n");
+		fileWriter.print("\tmove $gp,$zero\n");
+		if (gcMode()) emitGcInit();
 		emitTraceChar('M');
 	}
 
@@ -284,32 +301,35 @@ public class MipsGenerator
 		fileWriter.print("ptr_error_loadArray_common:\n\tj ptr_error\n");
 		fileWriter.print("ptr_error_storeField:\n\tj ptr_error\n");
 		fileWriter.print("ptr_error_storeArray:\n\tj ptr_error\n");
-		fileWriter.print("ptr_error_storeFieldS1:\n\tj ptr_error\n");
-		fileWriter.print("ptr_error_s2:\n\tj ptr_error\n");
 		fileWriter.print("bounds_error:\n");
 		fileWriter.print("\tla $a0,string_access_violation\n");
 		fileWriter.print("\tli $v0,4\n\tsyscall\n");
 		fileWriter.print("\tli $v0,10\n\tsyscall\n");
 		emitStringConcatHelper();
 		emitStringEqualsHelper();
+		if (gcMode()) emitGcRuntime();
 	}
 
-	/** string_equals: $a0=s1, $a1=s2 -> $v0=1 if equal else 0. Null-safe. */
+	/**
+	 * string_equals: $a0=s1, $a1=s2, not the same pointer (eqStrings checks that first) -> $v0=1 if
+	 * equal else 0. Null-safe. Strings of different lengths differ without reading a char; equal
+	 * lengths compare a word at a time (every string starts word-aligned), then the last bytes.
+	 * Only touches $a0-$a3,$v0,$v1.
+	 */
 	private void emitStringEqualsHelper() {
 		if (stringEqualsHelperEmitted) return;
 		stringEqualsHelperEmitted = true;
 		fileWriter.print("string_equals:\n");
-		fileWriter.print("\tbne $a0,$zero,str_eq_ck2\n");
-		fileWriter.print("\tbne $a1,$zero,str_eq_false\n");
-		fileWriter.print("\tli $v0,1\n\tjr $ra\n");
-		fileWriter.print("str_eq_ck2:\n\tbne $a1,$zero,str_eq_loop\n");
-		fileWriter.print("str_eq_false:\n\tli $v0,0\n\tjr $ra\n");
-		fileWriter.print("str_eq_loop:\n");
-		fileWriter.print("\tlb $t0,0($a0)\n\tlb $t1,0($a1)\n");
-		fileWriter.print("\tbne $t0,$t1,str_eq_false\n");
-		fileWriter.print("\tbeq $t0,$zero,str_eq_true\n");
-		fileWriter.print("\taddi $a0,$a0,1\n\taddi $a1,$a1,1\n\tj str_eq_loop\n");
+		fileWriter.print("\tbeq $a0,$zero,str_eq_false\n\tbeq $a1,$zero,str_eq_false\n");
+		fileWriter.print("\tlw $v0,-4($a0)\n\tlw $v1,-4($a1)\n\tbne $v0,$v1,str_eq_false\n");
+		// $a2 = end of s1's whole words, $a3 = end of s1
+		fileWriter.print("\tli $v1,-4\n\tand $a2,$v0,$v1\n\tadd $a2,$a2,$a0\n\tandi $a3,$v0,3\n\tadd $a3,$a3,$a2\n");
+		fileWriter.print("str_eq_words:\n\tbeq $a0,$a2,str_eq_bytes\n\tlw $v0,0($a0)\n\tlw $v1,0($a1)\n\tbne $v0,$v1,str_eq_false\n");
+		fileWriter.print("\taddi $a0,$a0,4\n\taddi $a1,$a1,4\n\tj str_eq_words\n");
+		fileWriter.print("str_eq_bytes:\n\tbeq $a0,$a3,str_eq_true\n\tlb $v0,0($a0)\n\tlb $v1,0($a1)\n\tbne $v0,$v1,str_eq_false\n");
+		fileWriter.print("\taddi $a0,$a0,1\n\taddi $a1,$a1,1\n\tj str_eq_bytes\n");
 		fileWriter.print("str_eq_true:\n\tli $v0,1\n\tjr $ra\n");
+		fileWriter.print("str_eq_false:\n\tli $v0,0\n\tjr $ra\n");
 	}
 
 	/** Set register allocation (temp serial -> "$t0".."$t9"). Must be called before mipsMe(). */
@@ -317,6 +337,82 @@ public class MipsGenerator
 		this.tempToReg = allocation;
 	}
 
+	/** Scratch registers for spilled operands of one command; never handed out by the allocator. */
+	private static final String[] SPILL_SCRATCH = { "$s5", "$s6", "$s7" };
+	/** Temps spilled by the register allocator (serial numbers). */
+	private Set<Integer> spilledTemps = new HashSet<>();
+	/** Spilled temp serial -> scratch register it occupies during the current command. */
+	private Map<Integer, String> spillScratch = new HashMap<>();
+
+	/** Name of the memory slot of a spilled temp: a frame slot in functions, a .data word in global init. */
+	public static String spillSlotName(int serial) {
+		return "spill@" + serial;
+	}
+	/** Set temps that live in memory slots instead of registers. Must be called before mipsMe(). */
+	public void setSpilledTemps(Set<Integer> spilled) {
+		this.spilledTemps = (spilled != null) ? new HashSet<>(spilled) : new HashSet<>();
+	}
+	/** Address operand of a spill slot ("off($sp)" or a .data label). */
+	private String spillSlot(Temp t) {
+		String name = spillSlotName(t.getSerialNumber());
+		if (currentFunction != null && localVarNames.contains(name)) {
+			Map<String, Integer> offsets = functionVarOffsets.get(currentFunction);
+			if (offsets != null && offsets.containsKey(name))
+				return frameSlot(offsets.get(name));
+		}
+		String label = varLabel(name);
+		ensureDataEmitted(label);
+		return label;
+	}
+	private boolean isSpilled(Temp t) {
+		return t != null && spilledTemps.contains(t.getSerialNumber());
+	}
+	/** Before a command: reload spilled uses into scratch registers and reserve scratch registers for spilled defs. */
+	public void reloadSpilled(Set<Temp> uses, Set<Temp> defs) {
+		spillScratch.clear();
+		if (spilledTemps.isEmpty()) return;
+		int next = 0;
+		for (Temp t : sortedBySerial(uses)) {
+			if (!isSpilled(t)) continue;
+			String r = SPILL_SCRATCH[next++];
+			spillScratch.put(t.getSerialNumber(), r);
+			fileWriter.format("\tlw %s,%s\n", r, spillSlot(t));
+		}
+		for (Temp t : sortedBySerial(defs)) {
+			if (!isSpilled(t) || spillScratch.containsKey(t.getSerialNumber())) continue;
+			spillScratch.put(t.getSerialNumber(), SPILL_SCRATCH[next++]);
+		}
+	}
+	/** After a command: write spilled defs back to their slots. */
+	public void storeSpilled(Set<Temp> defs) {
+		for (Temp t : sortedBySerial(defs))
+			if (isSpilled(t))
+				fileWriter.format("\tsw %s,%s\n", spillScratch.get(t.getSerialNumber()), spillSlot(t));
+		spillScratch.clear();
+	}
+	private static List<Temp> sortedBySerial(Set<Temp> temps) {
+		List<Temp> list = new ArrayList<>();
+		for (Temp t : temps) if (t != null) list.add(t);
+		list.sort((a, b) -> Integer.compare(a.getSerialNumber(), b.getSerialNumber()));
+		return list;
+	}
+	/** Move an outgoing argument into destReg; spilled args are loaded straight from their slot. */
+	private void moveArg(String destReg, Temp src) {
+		if (isSpilled(src) && !spillScratch.containsKey(src.getSerialNumber()))
+			fileWriter.format("\tlw %s,%s\n", destReg, spillSlot(src));
+		else
+			emitMove(destReg, reg(src));
+	}
+	/** Store an outgoing argument at off($sp); spilled args go through $v1. */
+	private void storeArg(Temp src, int off) {
+		if (isSpilled(src) && !spillScratch.containsKey(src.getSerialNumber())) {
+			fileWriter.format("\tlw $v1,%s\n", spillSlot(src));
+			fileWriter.format("\tsw $v1,%d($sp)\n", off);
+		} else {
+			fileWriter.format("\tsw %s,%d($sp)\n", reg(src), off);
+		}
+	}
+
 	/***********************/
 	/* The file writer ... */
 	/***********************/
@@ -325,6 +421,7 @@ public class MipsGenerator
 		/* Emit vtables in .data (after all code) so .word func_* gets full 32-bit address; in .text SPIM stores only offset */
 		fileWriter.print(".data\n");
 		emitVtables();
+		if (gcMode()) fileWriter.print("\t.align 2\ngc_data_end:\n");
 		fileWriter.print(".text\n");
 		fileWriter.print("\tli $v0,10\n");
 		fileWriter.print("\tsyscall\n");
@@ -332,7 +429,7 @@ public class MipsGenerator
 	}
 	public void printInt(Temp t)
 	{
-		fileWriter.format("\tmove $a0,%s\n", reg(t));
+		emitMove("$a0", reg(t));
 		fileWriter.format("\tli $v0,1\n");
 		fileWriter.format("\tsyscall\n");
 		fileWriter.format("\tli $a0,32\n");
@@ -355,13 +452,170 @@ public class MipsGenerator
 		ensureDataEmitted(label);
 	}
 
-	/** Malloc numBytes, result in dst. Store vtable ptr at offset 0 if vtableLabel non-null. */
+	/**
+	 * The heap is carved out of HEAP_CHUNK-byte sbrk chunks by bumping $gp (not handed out by the
+	 * allocator) up to the chunk end in heap_limit; both start at 0, so the first allocation fetches
+	 * a chunk. A request larger than a chunk gets an sbrk of its own. The rest of a chunk too small
+	 * for the next request is left unused; chunk memory is fresh from sbrk, so it reads as zero.
+	 */
+	private static final int HEAP_CHUNK = 65536;
+
+	/** $v0 = bytes (in register bytes, not $a0/$v0) from the heap; also sets $a0. */
+	private void emitHeapAllocate(String bytes, String id) {
+		String fit = "heap_fit_" + id, grow = "heap_grow_" + id;
+		fileWriter.format("\tlw $a0,heap_limit\n\tsubu $a0,$a0,$gp\n\tbgeu $a0,%s,%s\n", bytes, fit);
+		fileWriter.format("\tli $a0,%d\n\tbgeu $a0,%s,%s\n\tmove $a0,%s\n", HEAP_CHUNK, bytes, grow, bytes);
+		fileWriter.format("%s:\n\tli $v0,9\n\tsyscall\n\tmove $gp,$v0\n\taddu $a0,$v0,$a0\n\tsw $a0,heap_limit\n", grow);
+		fileWriter.format("%s:\n\tmove $v0,$gp\n\taddu $gp,$gp,%s\n", fit, bytes);
+	}
+
+	/*****************/
+	/* Collector     */
+	/*****************/
+
+	/**
+	 * gc_alloc flags: the collector scans the words of a GC_SCAN block for pointers (instances and
+	 * arrays), never those of a string.
+	 */
+	private static final int GC_SCAN = 2, GC_NO_SCAN = 0;
+	private static final int GC_HEAP = gcHeapBytes("GC_HEAP", 65536), GC_MAX_HEAP = gcHeapBytes("GC_MAX_HEAP", 4 << 20);
+	/** Registers gc_alloc keeps across a collection (all but its clobbers, $gp and $zero/$at/$k0/$k1/$sp). */
+	private static final String[] GC_SAVED = {
+		"$a0", "$a1", "$ra", "$a2", "$a3", "$fp",
+		"$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8", "$t9",
+		"$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7" };
+
+	/**
+	 * Set up the collected heap: a bitmap with one bit per 8-byte granule (set where an allocated
+	 * block starts), then GC_HEAP bytes as one free run. Called at main:, whose $sp is the bottom of
+	 * the stack the collector scans.
+	 */
+	private void emitGcInit() {
+		fileWriter.print("\tsw $sp,gc_stack_base\n");
+		fileWriter.format("\tli $a0,%d\n\tli $v0,9\n\tsyscall\n\tsw $v0,gc_bitmap\n", (GC_MAX_HEAP + 255) / 256 * 4);
+		fileWriter.format("\tli $a0,%d\n\tli $v0,9\n\tsyscall\n\tsw $v0,gc_heap_start\n", GC_HEAP);
+		fileWriter.print("\taddu $a1,$v0,$a0\n\tsw $a1,gc_heap_end\n");
+		fileWriter.print("\tsw $a0,0($v0)\n\tsw $zero,4($v0)\n\tsw $v0,gc_free_list\n");
+	}
+
+	/** $a1 = address of the bitmap word for the block offset bytes into the heap, $a3 = its bit; uses $a2. */
+	private void emitGcBitmapBit(String offset) {
+		fileWriter.format("\tsrl $a1,%s,3\n\tandi $a2,$a1,31\n\tsrl $a1,$a1,5\n\tsll $a1,$a1,2\n", offset);
+		fileWriter.print("\tlw $a3,gc_bitmap\n\taddu $a1,$a1,$a3\n\tli $a3,1\n\tsllv $a3,$a3,$a2\n");
+	}
+
+	/** Sweep: the free run from $t7 up to $t4 goes on the free list; $t8 keeps the largest run. */
+	private void emitGcCloseRun(String label) {
+		fileWriter.format("\tbeq $t7,$zero,%s\n", label);
+		fileWriter.print("\tsubu $v1,$t4,$t7\n\tsw $v1,0($t7)\n\tlw $a0,gc_free_list\n\tsw $a0,4($t7)\n\tsw $t7,gc_free_list\n");
+		fileWriter.format("\tli $t7,0\n\tbgeu $t8,$v1,%s\n\tmove $t8,$v1\n", label);
+	}
+
+	/**
+	 * Runtime of -DGC=1: gc_alloc takes the payload size in $a0 and flags in $a1 and returns a
+	 * zeroed payload in $v0, clobbering only $a0, $a1 and $v1.
+	 *
+	 * A block is an 8-byte aligned header word (size, bit 0 mark, bit 1 GC_SCAN, bit 2 allocated)
+	 * followed by the payload; the heap is tiled by blocks, and the runs of free blocks are kept
+	 * on gc_free_list (next run at +4). Allocation bumps $gp through the current run up to heap_limit and
+	 * then takes the next run, leaving the rest of the old one as a free block.
+	 *
+	 * When the list is empty the collector marks and sweeps. IR temps carry no types, so roots are
+	 * found conservatively: every word of the stack (including the registers gc_alloc saved) and of
+	 * .data that points into an allocated block keeps it alive, also when it points inside one (an
+	 * element pointer or a string past its length word). Instances and arrays are then scanned the
+	 * same way, with an explicit mark stack. The heap grows by sbrk, up to GC_MAX_HEAP, when the
+	 * request still does not fit or less than a quarter of it is free.
+	 */
+	private void emitGcRuntime() {
+		fileWriter.print("gc_alloc:\n\taddi $a0,$a0,11\n\tli $v0,-8\n\tand $a0,$a0,$v0\n");
+		fileWriter.print("gc_alloc_retry:\n\tlw $v0,heap_limit\n\tsubu $v0,$v0,$gp\n\tbltu $v0,$a0,gc_alloc_refill\n");
+		fileWriter.print("\tandi $a1,$a1,2\n\tor $a1,$a1,$a0\n\tori $a1,$a1,4\n\tsw $a1,0($gp)\n");
+		// Mark the block start in the bitmap ($a2/$a3 belong to the caller here)
+		fileWriter.print("\tlw $v0,gc_heap_start\n\tsubu $v0,$gp,$v0\n\tsrl $v0,$v0,3\n\tandi $v1,$v0,31\n");
+		fileWriter.print("\tsrl $v0,$v0,5\n\tsll $v0,$v0,2\n\tlw $a1,gc_bitmap\n\taddu $v0,$v0,$a1\n");
+		fileWriter.print("\tli $a1,1\n\tsllv $a1,$a1,$v1\n\tlw $v1,0($v0)\n\tor $v1,$v1,$a1\n\tsw $v1,0($v0)\n");
+		fileWriter.print("\taddu $a0,$gp,$a0\n\taddi $v0,$gp,4\n");
+		fileWriter.print("gc_alloc_zero:\n\tbeq $v0,$a0,gc_alloc_done\n\tsw $zero,0($v0)\n\taddi $v0,$v0,4\n\tj gc_alloc_zero\n");
+		fileWriter.print("gc_alloc_done:\n\taddi $v0,$gp,4\n\tmove $gp,$a0\n\tjr $ra\n");
+		// The rest of the run ($v0 bytes) becomes a free block
+		fileWriter.print("gc_alloc_refill:\n\tbeq $v0,$zero,gc_alloc_pop\n\tsw $v0,0($gp)\n");
+		fileWriter.print("gc_alloc_pop:\n\tlw $v0,gc_free_list\n\tbeq $v0,$zero,gc_collect\n");
+		fileWriter.print("\tlw $v1,4($v0)\n\tsw $v1,gc_free_list\n\tlw $v1,0($v0)\n\tmove $gp,$v0\n\taddu $v1,$v0,$v1\n\tsw $v1,heap_limit\n\tj gc_alloc_retry\n");
+
+		fileWriter.format("gc_collect:\n\taddi $sp,$sp,-%d\n", 4 * GC_SAVED.length);
+		for (int k = 0; k < GC_SAVED.length; k++)
+			fileWriter.format("\tsw %s,%d($sp)\n", GC_SAVED[k], 4 * k);
+		fileWriter.print("\tmove $gp,$zero\n\tsw $zero,heap_limit\n");
+		fileWriter.print("\tlw $t0,gc_heap_start\n\tlw $t1,gc_heap_end\n\tlw $t2,gc_bitmap\n\tmove $t3,$sp\n");
+		// Mark: the stack and .data are the first two ranges on the mark stack, below $t3
+		fileWriter.print("\tlw $t5,gc_stack_base\n\taddi $sp,$sp,-16\n\tsw $t3,0($sp)\n\tsw $t5,4($sp)\n");
+		fileWriter.print("\tla $t4,gc_data_start\n\tla $t5,gc_data_end\n\tsw $t4,8($sp)\n\tsw $t5,12($sp)\n");
+		fileWriter.print("gc_mark_range:\n\tbeq $sp,$t3,gc_sweep\n\tlw $t4,0($sp)\n\tlw $t5,4($sp)\n\taddi $sp,$sp,8\n");
+		fileWriter.print("gc_mark_word:\n\tbgeu $t4,$t5,gc_mark_range\n\tlw $a0,0($t4)\n\taddi $t4,$t4,4\n");
+		fileWriter.print("\tbltu $a0,$t0,gc_mark_word\n\tbgeu $a0,$t1,gc_mark_word\n");
+		// The block holding $a0 starts at the last bitmap bit at or before its granule
+		fileWriter.print("\tsubu $v0,$a0,$t0\n");
+		emitGcBitmapBit("$v0");
+		fileWriter.print("\tsll $a3,$a3,1\n\taddi $a3,$a3,-1\n\tlw $v0,0($a1)\n\tand $v0,$v0,$a3\n");
+		fileWriter.print("gc_mark_find:\n\tbne $v0,$zero,gc_mark_found\n\tbeq $a1,$t2,gc_mark_word\n");
+		fileWriter.print("\taddi $a1,$a1,-4\n\tlw $v0,0($a1)\n\tj gc_mark_find\n");
+		fileWriter.print("gc_mark_found:\n\tli $a2,-1\n");
+		fileWriter.print("gc_mark_bit:\n\tsrl $v0,$v0,1\n\taddi $a2,$a2,1\n\tbne $v0,$zero,gc_mark_bit\n");
+		fileWriter.print("\tsubu $a1,$a1,$t2\n\tsll $a1,$a1,3\n\taddu $a1,$a1,$a2\n\tsll $a1,$a1,3\n\taddu $a1,$a1,$t0\n");
+		// Unmarked, and $a0 is inside it rather than in a free gap after it
+		fileWriter.print("\tlw $v0,0($a1)\n\tandi $v1,$v0,1\n\tbne $v1,$zero,gc_mark_word\n");
+		fileWriter.print("\tli $v1,-8\n\tand $v1,$v0,$v1\n\taddu $v1,$a1,$v1\n\tbgeu $a0,$v1,gc_mark_word\n");
+		fileWriter.print("\tori $v0,$v0,1\n\tsw $v0,0($a1)\n\tandi $v0,$v0,2\n\tbeq $v0,$zero,gc_mark_word\n");
+		fileWriter.print("\taddi $a1,$a1,4\n\taddi $sp,$sp,-8\n\tsw $a1,0($sp)\n\tsw $v1,4($sp)\n\tj gc_mark_word\n");
+
+		// Sweep: unmark live blocks, free the rest and put each maximal free run on the list
+		fileWriter.print("gc_sweep:\n\tsw $zero,gc_free_list\n\tmove $t4,$t0\n\tli $t6,0\n\tli $t7,0\n\tli $t8,0\n");
+		fileWriter.print("gc_sweep_block:\n\tbeq $t4,$t1,gc_sweep_done\n\tlw $v0,0($t4)\n\tli $v1,-8\n\tand $t5,$v0,$v1\n");
+		fileWriter.print("\tandi $v1,$v0,1\n\tbne $v1,$zero,gc_sweep_live\n\tandi $v1,$v0,4\n\tbeq $v1,$zero,gc_sweep_free\n");
+		fileWriter.print("\tsubu $v0,$t4,$t0\n");
+		emitGcBitmapBit("$v0");
+		fileWriter.print("\tlw $v0,0($a1)\n\txor $v0,$v0,$a3\n\tsw $v0,0($a1)\n");
+		fileWriter.print("gc_sweep_free:\n\taddu $t6,$t6,$t5\n\tbne $t7,$zero,gc_sweep_next\n\tmove $t7,$t4\n\tj gc_sweep_next\n");
+		fileWriter.print("gc_sweep_live:\n\taddi $v0,$v0,-1\n\tsw $v0,0($t4)\n");
+		emitGcCloseRun("gc_sweep_next");
+		fileWriter.print("gc_sweep_next:\n\taddu $t4,$t4,$t5\n\tj gc_sweep_block\n");
+		fileWriter.print("gc_sweep_done:\n");
+		emitGcCloseRun("gc_grow_check");
+
+		// Grow by the heap size (at least the request, at most up to GC_MAX_HEAP)
+		fileWriter.print("gc_grow_check:\n\tlw $a0,0($sp)\n\tsubu $t9,$t1,$t0\n\tbltu $t8,$a0,gc_grow\n");
+		fileWriter.print("\tsll $v0,$t6,2\n\tbgeu $v0,$t9,gc_resume\n");
+		fileWriter.print("gc_grow:\n\tmove $a1,$t9\n\tbgeu $a1,$a0,gc_grow_cap\n\tmove $a1,$a0\n");
+		fileWriter.format("gc_grow_cap:\n\tli $v0,%d\n\tsubu $v0,$v0,$t9\n\tbgeu $v0,$a1,gc_grow_sbrk\n\tmove $a1,$v0\n", GC_MAX_HEAP);
+		fileWriter.print("\tbgeu $a1,$a0,gc_grow_sbrk\n\tbgeu $t8,$a0,gc_resume\n\tj gc_out_of_memory\n");
+		// The new memory must extend the heap, so it becomes one more free run
+		fileWriter.print("gc_grow_sbrk:\n\tmove $a0,$a1\n\tli $v0,9\n\tsyscall\n\tbne $v0,$t1,gc_out_of_memory\n");
+		fileWriter.print("\tsw $a0,0($v0)\n\tlw $v1,gc_free_list\n\tsw $v1,4($v0)\n\tsw $v0,gc_free_list\n");
+		fileWriter.print("\taddu $t1,$t1,$a0\n\tsw $t1,gc_heap_end\n");
+		fileWriter.print("gc_resume:\n");
+		for (int k = 0; k < GC_SAVED.length; k++)
+			fileWriter.format("\tlw %s,%d($sp)\n", GC_SAVED[k], 4 * k);
+		fileWriter.format("\taddi $sp,$sp,%d\n\tj gc_alloc_retry\n", 4 * GC_SAVED.length);
+		fileWriter.print("gc_out_of_memory:\n\tla $a0,string_out_of_memory\n\tli $v0,4\n\tsyscall\n\tli $v0,10\n\tsyscall\n");
+	}
+
+	/** Bump-allocate numBytes into dst (inline; sbrk a new chunk when the current one is full). Store vtable ptr at offset 0 if vtableLabel non-null. */
 	public void allocateClass(Temp dst, int numBytes, String vtableLabel) {
 		if (DEBUG_VTABLE && vtableLabel != null)
 			System.err.println("[DEBUG_VTABLE] allocateClass numBytes=" + numBytes + " vtable=" + vtableLabel + " -> store at 0(" + reg(dst) + ")");
-		fileWriter.format("\tli $a0,%d\n", numBytes);
-		fileWriter.print("\tli $v0,9\n\tsyscall\n");
-		fileWriter.format("\tmove %s,$v0\n", reg(dst));
+		if (gcMode()) {
+			// Fields may hold pointers: the collector scans the instance
+			fileWriter.format("\tli $a0,%d\n\tli $a1,%d\n\tjal gc_alloc\n", numBytes, GC_SCAN);
+			emitMove(reg(dst), "$v0");
+		} else {
+			String ok = "heap_ok_" + internalLabelCounter++;
+			fileWriter.format("\tmove %s,$gp\n\taddi $gp,$gp,%d\n\tlw $a0,heap_limit\n\tbgeu $a0,$gp,%s\n", reg(dst), numBytes, ok);
+			// Class instances are far smaller than a chunk
+			fileWriter.format("\tli $a0,%d\n\tli $v0,9\n\tsyscall\n\taddu $a0,$v0,$a0\n\tsw $a0,heap_limit\n", HEAP_CHUNK);
+			emitMove(reg(dst), "$v0");
+			fileWriter.format("\taddi $gp,$v0,%d\n%s:\n", numBytes, ok);
+		}
 		if (vtableLabel != null) {
 			if (DEBUG_VTABLE) fileWriter.format("# DEBUG_VTABLE: store vtable %s at 0(%s)\n", vtableLabel, reg(dst));
 			fileWriter.format("\tla $a0,%s\n", vtableLabel);
@@ -371,23 +625,28 @@ public class MipsGenerator
 
 	/** Allocate 4+size*4 bytes, store length at 0, result in dst. Use $s0 (not in allocator pool). */
 	public void allocateArray(Temp dst, Temp sizeTemp) {
-		fileWriter.format("\tli $s0,4\n");
-		fileWriter.format("\tmul $s0,$s0,%s\n", reg(sizeTemp));
+		int id = internalLabelCounter++;
+		// A negative size gets just the length word, recorded as 0, so the unsigned bounds check rejects every index
+		String sized = "alloc_sized_" + id, ok = "alloc_ok_" + id;
+		fileWriter.format("\tsll $s0,%s,2\n", reg(sizeTemp));
 		fileWriter.print("\taddi $s0,$s0,4\n");
-		fileWriter.print("\tmove $a0,$s0\n");
-		fileWriter.print("\tli $v0,9\n\tsyscall\n");
+		fileWriter.format("\tbgez %s,%s\n\tli $s0,4\n%s:\n", reg(sizeTemp), sized, sized);
+		if (gcMode())
+			fileWriter.format("\tmove $a0,$s0\n\tli $a1,%d\n\tjal gc_alloc\n", GC_SCAN);
+		else
+			emitHeapAllocate("$s0", String.valueOf(id));
 		fileWriter.format("\tsw %s,0($v0)\n", reg(sizeTemp));
-		fileWriter.format("\tmove %s,$v0\n", reg(dst));
+		fileWriter.format("\tbgez %s,%s\n\tsw $zero,0($v0)\n%s:\n", reg(sizeTemp), ok, ok);
+		emitMove(reg(dst), "$v0");
 	}
 	public void load(Temp dst, String varName)
 	{
 		if (currentFunction != null && localVarNames.contains(varName)) {
 			Map<String, Integer> offsets = functionVarOffsets.get(currentFunction);
 			if (offsets != null && offsets.containsKey(varName)) {
-				int off = offsets.get(varName);
-				String base = frameBase();
-				if (DEBUG_TRACE_CALLS) fileWriter.format("# load %s <- %s (%s+%d)\n", reg(dst), varName, base, off);
-				fileWriter.format("\tlw %s,%d(%s)\n", reg(dst), off, base);
+				String slot = frameSlot(offsets.get(varName));
+				if (DEBUG_TRACE_CALLS) fileWriter.format("# load %s <- %s (%s)\n", reg(dst), varName, slot);
+				fileWriter.format("\tlw %s,%s\n", reg(dst), slot);
 				return;
 			}
 		}
@@ -402,7 +661,7 @@ public class MipsGenerator
 		fileWriter.format("\tla %s,%s\n", reg(dst), label);
 	}
 
-	/** Emit .data section for a string literal (null-terminated). Skip if label already emitted (same literal in IR twice). */
+	/** Emit .data section for a string literal (null-terminated, its length in the word before). Skip if label already emitted (same literal in IR twice). */
 	public void allocateString(String label, String value) {
 		if (stringLabelsEmitted.contains(label))
 			return;
@@ -410,20 +669,26 @@ public class MipsGenerator
 		String content = value;
 		if (content.length() >= 2 && content.startsWith("\"") && content.endsWith("\""))
 			content = content.substring(1, content.length() - 1);
+		int length = content.length();
 		content = content.replace("\\", "\\\\").replace("\"", "\\\"");
 		fileWriter.print(".data\n");
+		fileWriter.format("\t.align 2\n\t.word %d\n", length);
 		fileWriter.format("\t%s: .asciiz \"%s\"\n", label, content);
 		ensureTextWithPreamble();
 	}
 
-	/** Load from base+offset with null check (invalid pointer -> exit). */
-	public void loadField(Temp dst, Temp base, int offset) {
-		fileWriter.format("\tbeq %s,$zero,ptr_error_loadField\n", reg(base));
+	/** Load from base+offset with null check (invalid pointer -> exit), unless NullCheckElimination proved base non-null. */
+	public void loadField(Temp dst, Temp base, int offset, boolean checkNull) {
+		if (checkNull) fileWriter.format("\tbeq %s,$zero,ptr_error_loadField\n", reg(base));
 		fileWriter.format("\tlw %s,%d(%s)\n", reg(dst), offset, reg(base));
 	}
 
-	/** Load from array[index]; length at 0(base), elements at 4(base)+. Null and bounds check. Index may be null (constant 0). */
-	public void loadArray(Temp dst, Temp arrayBase, Temp index) {
+	/**
+	 * Load from array[index]; length at 0(base), elements at 4(base)+. Index may be null (constant 0).
+	 * The null check is left out where NullCheckElimination proved the base non-null, the bounds
+	 * check where BoundsCheckElimination proved 0 <= index < length.
+	 */
+	public void loadArray(Temp dst, Temp arrayBase, Temp index, boolean checkNull, boolean checkBounds) {
 		int siteId = loadArraySiteId++;
 		if (DEBUG_LOAD_ARRAY_SITE) fileWriter.format("# loadArray #%d base=%s index=%s\n", siteId, reg(arrayBase), index == null ? "0" : reg(index));
 		if (DEBUG_TRACE_CALLS) {
@@ -432,19 +697,9 @@ public class MipsGenerator
 			fileWriter.format("\tmove $a0,%s\n\tli $v0,1\n\tsyscall\n\tli $a0,10\n\tli $v0,11\n\tsyscall\n", reg(arrayBase));
 			fileWriter.format("\tlw %s,0($sp)\n\taddi $sp,$sp,4\n", reg(arrayBase));
 		}
-		// index==null: use $t9 for 0 and save/restore (base may be in $s1)
-		String indexReg = index == null ? "$t9" : reg(index);
-		if (index == null) fileWriter.print("\taddi $sp,$sp,-4\n\tsw $t9,0($sp)\n\tli $t9,0\n");
 		String errLabel = DEBUG_LOAD_ARRAY_SITE ? String.format("ptr_error_loadArray_%d", siteId) : "ptr_error_loadArray";
-		fileWriter.format("\tbeq %s,$zero,%s\n", reg(arrayBase), errLabel);
-		fileWriter.format("\tlw $s0,0(%s)\n", reg(arrayBase));
-		fileWriter.format("\tblt %s,$zero,bounds_error\n", indexReg);
-		fileWriter.format("\tbge %s,$s0,bounds_error\n", indexReg);
-		fileWriter.format("\tli $s0,4\n");
-		fileWriter.format("\tmul $s0,$s0,%s\n", indexReg);
-		fileWriter.format("\tadd $s0,$s0,%s\n", reg(arrayBase));
-		fileWriter.format("\tlw %s,4($s0)\n", reg(dst));
-		if (index == null) fileWriter.print("\tlw $t9,0($sp)\n\taddi $sp,$sp,4\n");
+		if (checkNull) fileWriter.format("\tbeq %s,$zero,%s\n", reg(arrayBase), errLabel);
+		fileWriter.format("\tlw %s,%s\n", reg(dst), elementOperand(arrayBase, index, checkBounds));
 		if (DEBUG_LOAD_ARRAY_SITE) {
 			String doneLabel = "loadArray_done_" + siteId;
 			fileWriter.format("\tj %s\n", doneLabel);
@@ -453,58 +708,43 @@ public class MipsGenerator
 		}
 	}
 
-	public void storeField(Temp base, int offset, Temp src) {
-		// Copy base to $s1 so base and src can be the same register (e.g. after call).
-		// $s0 is used by array/saturation; $s1 is free per spec ($s0-$s9 for aux).
-		fileWriter.format("\tmove $s1,%s\n", reg(base));
-		fileWriter.format("\tbeq $s1,$zero,ptr_error_storeField\n");
-		fileWriter.format("\tsw %s,%d($s1)\n", reg(src), offset);
+	/**
+	 * Bounds check (when asked) and address operand of array[index], computed in $s0.
+	 * One unsigned compare covers both ends: a negative index is a huge unsigned one.
+	 */
+	private String elementOperand(Temp arrayBase, Temp index, boolean checkBounds) {
+		if (checkBounds) {
+			fileWriter.format("\tlw $s0,0(%s)\n", reg(arrayBase));
+			if (index == null)
+				fileWriter.print("\tblez $s0,bounds_error\n");
+			else
+				fileWriter.format("\tbgeu %s,$s0,bounds_error\n", reg(index));
+		}
+		if (index == null)
+			return String.format("4(%s)", reg(arrayBase));
+		fileWriter.format("\tsll $s0,%s,2\n", reg(index));
+		fileWriter.format("\tadd $s0,$s0,%s\n", reg(arrayBase));
+		return "4($s0)";
 	}
 
-	/** Store to array[index]; index may be null (constant 0). index==null: use $t9 and save/restore. */
-	public void storeArray(Temp arrayBase, Temp index, Temp src) {
-		String indexReg = index == null ? "$t9" : reg(index);
-		if (index == null) fileWriter.print("\taddi $sp,$sp,-4\n\tsw $t9,0($sp)\n\tli $t9,0\n");
-		fileWriter.format("\tbeq %s,$zero,ptr_error_storeArray\n", reg(arrayBase));
-		fileWriter.format("\tlw $s0,0(%s)\n", reg(arrayBase));
-		fileWriter.format("\tblt %s,$zero,bounds_error\n", indexReg);
-		fileWriter.format("\tbge %s,$s0,bounds_error\n", indexReg);
-		fileWriter.format("\tli $s0,4\n");
-		fileWriter.format("\tmul $s0,$s0,%s\n", indexReg);
-		fileWriter.format("\tadd $s0,$s0,%s\n", reg(arrayBase));
-		fileWriter.format("\tsw %s,4($s0)\n", reg(src));
-		if (index == null) fileWriter.print("\tlw $t9,0($sp)\n\taddi $sp,$sp,4\n");
-	}
-	/** Store src at array[index]; base is in $s2 (e.g. after moveBaseToS2). */
-	public void storeArrayWithBaseInS2(Temp index, Temp src) {
-		String indexReg = index == null ? "$s1" : reg(index);
-		// When index is null, caller has already set $s1 (e.g. via PopS1 after PushS1).
-		if (DEBUG_STORE_ARRAY) {
-			fileWriter.format("\t# DEBUG storeArray: index=%s value=%s base=$s2\n", indexReg, reg(src));
-			fileWriter.format("\taddi $sp,$sp,-8\n\tsw $a0,0($sp)\n\tsw $v0,4($sp)\n");
-			fileWriter.format("\tli $a0,91\n\tli $v0,11\n\tsyscall\n");
-			fileWriter.format("\tmove $a0,%s\n\tli $v0,1\n\tsyscall\n\tli $a0,32\n\tli $v0,11\n\tsyscall\n", indexReg);
-			fileWriter.format("\tmove $a0,%s\n\tli $v0,1\n\tsyscall\n\tli $a0,32\n\tli $v0,11\n\tsyscall\n", reg(src));
-			fileWriter.format("\tlw $a0,0($sp)\n\tlw $v0,4($sp)\n\taddi $sp,$sp,8\n");
-		}
-		fileWriter.format("\tbeq $s2,$zero,ptr_error_storeArray\n");
-		fileWriter.format("\tlw $s0,0($s2)\n");
-		fileWriter.format("\tblt %s,$zero,bounds_error\n", indexReg);
-		fileWriter.format("\tbge %s,$s0,bounds_error\n", indexReg);
-		fileWriter.format("\tli $s0,4\n");
-		fileWriter.format("\tmul $s0,$s0,%s\n", indexReg);
-		fileWriter.format("\tadd $s0,$s0,$s2\n");
-		fileWriter.format("\tsw %s,4($s0)\n", reg(src));
+	public void storeField(Temp base, int offset, Temp src, boolean checkNull) {
+		if (checkNull) fileWriter.format("\tbeq %s,$zero,ptr_error_storeField\n", reg(base));
+		fileWriter.format("\tsw %s,%d(%s)\n", reg(src), offset, reg(base));
+	}
+
+	/** Store to array[index]; index may be null (constant 0). Checks as in loadArray. */
+	public void storeArray(Temp arrayBase, Temp index, Temp src, boolean checkNull, boolean checkBounds) {
+		if (checkNull) fileWriter.format("\tbeq %s,$zero,ptr_error_storeArray\n", reg(arrayBase));
+		fileWriter.format("\tsw %s,%s\n", reg(src), elementOperand(arrayBase, index, checkBounds));
 	}
 	public void store(String varName, Temp src)
 	{
 		if (currentFunction != null && localVarNames.contains(varName)) {
 			Map<String, Integer> offsets = functionVarOffsets.get(currentFunction);
 			if (offsets != null && offsets.containsKey(varName)) {
-				int off = offsets.get(varName);
-				String base = frameBase();
-				if (DEBUG_TRACE_CALLS) fileWriter.format("# store %s -> %s (%s+%d)\n", reg(src), varName, base, off);
-				fileWriter.format("\tsw %s,%d(%s)\n", reg(src), off, base);
+				String slot = frameSlot(offsets.get(varName));
+				if (DEBUG_TRACE_CALLS) fileWriter.format("# store %s -> %s (%s)\n", reg(src), varName, slot);
+				fileWriter.format("\tsw %s,%s\n", reg(src), slot);
 				return;
 			}
 		}
@@ -514,115 +754,42 @@ public class MipsGenerator
 		fileWriter.format("\tsw %s,%s\n", reg(src), label);
 	}
 
-	/** Copy $a0 to $s2 (used by IrCommandCopyA0ToS2). */
-	public void copyA0ToS2() {
-		fileWriter.print("\tmove $s2,$a0\n");
-	}
-	/** Load from $s2 into dst (used by IrCommandLoadThis). */
-	public void loadThis(Temp dst) {
-		fileWriter.format("\tmove %s,$s2\n", reg(dst));
-	}
 	/** Store incoming argument (from $a0-$a3 or from stack for param 5+) into param slot at function entry. */
 	public void storeParam(int paramIndex, String varName) {
-		int frameSize = currentFunction != null ? functionFrameSizes.getOrDefault(currentFunction, 0) : 0;
-		// Param 5+ are on stack at 56+frameSize+4*(paramIndex-4) from current $sp (callee already did addi $sp,-frameSize)
-		boolean fromStack = paramIndex >= 4;
-		int stackArgOffset = fromStack ? (56 + frameSize + 4 * (paramIndex - 4)) : -1;
-
+		String src = "$a" + paramIndex;
+		if (paramIndex >= 4) {
+			src = "$t0";
+			fileWriter.format("\tlw $t0,%s\n", incomingArgSlot(paramIndex));
+		}
+		String dest = null;
 		if (currentFunction != null && localVarNames.contains(varName)) {
 			Map<String, Integer> offsets = functionVarOffsets.get(currentFunction);
-			if (offsets != null && offsets.containsKey(varName)) {
-				int off = offsets.get(varName);
-				String base = frameBase();
-				if (fromStack) {
-					fileWriter.format("\tlw $t0,%d(%s)\n", stackArgOffset, base);
-					if (DEBUG_PARAMS) fileWriter.format("\t# DEBUG_PARAMS param %d (%s)=\n\tmove $a0,$t0\n\tli $v0,1\n\tsyscall\n\tli $a0,32\n\tli $v0,11\n\tsyscall\n", paramIndex, varName);
-					if (DEBUG_TRACE_CALLS) fileWriter.format("# storeParam stack arg %d -> %s (%s+%d)\n", paramIndex, varName, base, off);
-					fileWriter.format("\tsw $t0,%d(%s)\n", off, base);
-				} else {
-					String reg = "$a" + paramIndex;
-					if (DEBUG_PARAMS) fileWriter.format("\t# DEBUG_PARAMS param %d (%s)=\n\tmove $t9,%s\n\tmove $a0,$t9\n\tli $v0,1\n\tsyscall\n\tli $a0,32\n\tli $v0,11\n\tsyscall\n", paramIndex, varName, reg);
-					if (DEBUG_TRACE_CALLS) fileWriter.format("# storeParam $a%d -> %s (%s+%d)\n", paramIndex, varName, base, off);
-					fileWriter.format("\tsw %s,%d(%s)\n", reg, off, base);
-					if (DEBUG_TRACE_CALLS && paramIndex == 0) {
-						fileWriter.format("# DEBUG storeParam: value stored in $sp+%d (param 0):\n", off);
-						fileWriter.format("\tmove $t0,%s\n\tmove $a0,$t0\n\tli $v0,1\n\tsyscall\n\tli $a0,10\n\tli $v0,11\n\tsyscall\n", reg);
-					}
-				}
-				return;
-			}
+			if (offsets != null && offsets.containsKey(varName))
+				dest = frameSlot(offsets.get(varName));
 		}
-		String label = varLabel(varName);
-		ensureDataEmitted(label);
-		if (fromStack) {
-			String base = frameBase();
-			fileWriter.format("\tlw $t0,%d(%s)\n", stackArgOffset, base);
-			if (DEBUG_PARAMS) fileWriter.format("\t# DEBUG_PARAMS param %d (%s)=\n\tmove $a0,$t0\n\tli $v0,1\n\tsyscall\n\tli $a0,32\n\tli $v0,11\n\tsyscall\n", paramIndex, varName);
-			if (DEBUG_TRACE_CALLS) fileWriter.format("# storeParam stack arg %d -> %s (%s)\n", paramIndex, varName, label);
-			fileWriter.format("\tsw $t0,%s\n", label);
-		} else {
-			String reg = "$a" + paramIndex;
-			if (DEBUG_PARAMS) fileWriter.format("\t# DEBUG_PARAMS param %d (%s)=\n\tmove $t9,%s\n\tmove $a0,$t9\n\tli $v0,1\n\tsyscall\n\tli $a0,32\n\tli $v0,11\n\tsyscall\n", paramIndex, varName, reg);
-			if (DEBUG_TRACE_CALLS) fileWriter.format("# storeParam $a%d -> %s (%s)\n", paramIndex, varName, label);
-			fileWriter.format("\tsw %s,%s\n", reg, label);
-			if (DEBUG_TRACE_CALLS && paramIndex == 0) {
-				fileWriter.format("# DEBUG storeParam: value stored in %s (param 0):\n", label);
-				fileWriter.format("\tmove $t0,%s\n\tmove $a0,$t0\n\tli $v0,1\n\tsyscall\n\tli $a0,10\n\tli $v0,11\n\tsyscall\n", reg);
-			}
+		if (dest == null) {
+			dest = varLabel(varName);
+			ensureDataEmitted(dest);
 		}
+		if (DEBUG_PARAMS) fileWriter.format("\t# DEBUG_PARAMS param %d (%s)=\n\tmove $t9,%s\n\tmove $a0,$t9\n\tli $v0,1\n\tsyscall\n\tli $a0,32\n\tli $v0,11\n\tsyscall\n", paramIndex, varName, src);
+		if (DEBUG_TRACE_CALLS) fileWriter.format("# storeParam %s -> %s (%s)\n", src, varName, dest);
+		fileWriter.format("\tsw %s,%s\n", src, dest);
+	}
+	/** Copy incoming argument paramIndex straight into dst (promoted params of leaf functions). */
+	public void loadParam(Temp dst, int paramIndex) {
+		if (paramIndex < 4)
+			emitMove(reg(dst), "$a" + paramIndex);
+		else
+			fileWriter.format("\tlw %s,%s\n", reg(dst), incomingArgSlot(paramIndex));
+	}
+	/** Param 5+ sit in the caller's outgoing area, 56 bytes above our frame (callee already did addi $sp,-frameSize). */
+	private String incomingArgSlot(int paramIndex) {
+		int frameSize = currentFunction != null ? functionFrameSizes.getOrDefault(currentFunction, 0) : 0;
+		return String.format("%d($sp)", CALL_SAVE_AREA_BYTES + frameSize + 4 * (paramIndex - 4) + spDepth);
 	}
-
-	/** Push temp onto stack (4 bytes). */
-	public void push(Temp t) {
-		fileWriter.format("\taddi $sp,$sp,-4\n");
-		fileWriter.format("\tsw %s,0($sp)\n", reg(t));
-	}
-	/** Pop temp from stack (4 bytes). */
-	public void pop(Temp t) {
-		fileWriter.format("\tlw %s,0($sp)\n", reg(t));
-		fileWriter.format("\taddi $sp,$sp,4\n");
-	}
-	/** Pop stack into $s1 (so we don't overwrite call result in base's register). */
-	public void popToS1() {
-		fileWriter.format("\tlw $s1,0($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,4\n");
-	}
-	/** Push $s2 onto stack (preserve array base across RHS that may call functions). */
-	public void pushS2() {
-		fileWriter.format("\taddi $sp,$sp,-4\n");
-		fileWriter.print("\tsw $s2,0($sp)\n");
-	}
-	/** Push $s0 onto stack so nested eval can overwrite $s0 (outer addPairs arg preserved). */
-	public void pushS0() {
-		fileWriter.format("\taddi $sp,$sp,-4\n");
-		fileWriter.print("\tsw $s0,0($sp)\n");
-	}
-	/** Pop stack into $s2 (restore array base after RHS). */
-	public void popS2() {
-		fileWriter.format("\tlw $s2,0($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,4\n");
-	}
-	/** Move temp into $s1 (preserve index across RHS). */
-	public void moveToS1(Temp t) {
-		fileWriter.format("\tmove $s1,%s\n", reg(t));
-		if (DEBUG_STORE_ARRAY) fileWriter.print("\t# DBG:afterMoveToS1 print $s1:\n\taddi $sp,$sp,-8\n\tsw $a0,0($sp)\n\tsw $v0,4($sp)\n\tmove $a0,$s1\n\tli $v0,1\n\tsyscall\n\tli $a0,10\n\tli $v0,11\n\tsyscall\n\tlw $a0,0($sp)\n\tlw $v0,4($sp)\n\taddi $sp,$sp,8\n");
-	}
-	/** Push $s1 onto stack (preserve index across RHS). */
-	public void pushS1() {
-		fileWriter.format("\taddi $sp,$sp,-4\n");
-		fileWriter.print("\tsw $s1,0($sp)\n");
-		if (DEBUG_STORE_ARRAY) fileWriter.print("\t# DBG:afterPushS1 (pushed $s1)\n");
-	}
-	/** Pop stack into $s1 (restore index after RHS). */
-	public void popS1() {
-		fileWriter.format("\tlw $s1,0($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,4\n");
-		if (DEBUG_STORE_ARRAY) fileWriter.print("\t# DBG:afterPopS1 print $s1:\n\taddi $sp,$sp,-8\n\tsw $a0,0($sp)\n\tsw $v0,4($sp)\n\tmove $a0,$s1\n\tli $v0,1\n\tsyscall\n\tli $a0,10\n\tli $v0,11\n\tsyscall\n\tlw $a0,0($sp)\n\tlw $v0,4($sp)\n\taddi $sp,$sp,8\n");
-	}
-	/** Store src at offset($s1) with null check. Base is in $s1 (e.g. after popToS1). */
-	public void storeFieldBaseS1(int offset, Temp src) {
-		fileWriter.format("\tbeq $s1,$zero,ptr_error_storeFieldS1\n");
-		fileWriter.format("\tsw %s,%d($s1)\n", reg(src), offset);
+	/** Address operand of the current function's frame slot at byte offset off. */
+	private String frameSlot(int off) {
+		return String.format("%d($sp)", off + spDepth);
 	}
 
 	public void li(Temp t, int value)
@@ -631,9 +798,28 @@ public class MipsGenerator
 	}
 	public void moveReg(String destReg, Temp src)
 	{
-		fileWriter.format("\tmove %s,%s\n", destReg, reg(src));
+		emitMove(destReg, reg(src));
+	}
+	/** Register copy dst := src (IrCommandMove); nothing is emitted when both got the same register. */
+	public void move(Temp dst, Temp src)
+	{
+		// A spilled dst is written straight from src's register (or reload scratch) by storeSpilled
+		if (isSpilled(dst) && src != null) {
+			spillScratch.put(dst.getSerialNumber(), reg(src));
+			return;
+		}
+		emitMove(reg(dst), reg(src));
+	}
+	/** Emit "move dest,src" unless coalescing put both in the same register. */
+	private void emitMove(String destReg, String srcReg)
+	{
+		if (!destReg.equals(srcReg))
+			fileWriter.format("\tmove %s,%s\n", destReg, srcReg);
 	}
-	/** Clamp value in reg to L integer range [-32768, 32767]. Use $k0 so we never clobber $s0 (may be live). */
+	/**
+	 * Clamp value in reg to L integer range [-32768, 32767]. Use $k0 so we never clobber $s0 (may be live).
+	 * The in-range path is three instructions: reg fits iff sign-extending its low half gives reg back.
+	 */
 	private void clampToS16(String reg) {
 		if (debugOverflow()) {
 			// DEBUG_OVERFLOW: print value in reg before clamp (one int per line), preserve reg and $a0,$v0
@@ -645,43 +831,49 @@ public class MipsGenerator
 			fileWriter.format("\tlw %s,0($sp)\n\tlw $a0,4($sp)\n\tlw $v0,8($sp)\n\taddi $sp,$sp,12\n", reg);
 		}
 		int id = internalLabelCounter++;
-		String sh = "sat_high_" + id;
 		String sl = "sat_low_" + id;
 		String done = "sat_done_" + id;
-		fileWriter.format("\tli $k0,32767\n");
-		fileWriter.format("\tbgt %s,$k0,%s\n", reg, sh);
-		fileWriter.format("\tli $k0,-32768\n");
-		fileWriter.format("\tblt %s,$k0,%s\n", reg, sl);
-		fileWriter.format("\tj %s\n", done);
-		fileWriter.format("%s:\n\tli $k0,32767\n\tmove %s,$k0\n\tj %s\n", sh, reg, done);
-		fileWriter.format("%s:\n\tli $k0,-32768\n\tmove %s,$k0\n", sl, reg);
+		fileWriter.format("\tsll $k0,%s,16\n", reg);
+		fileWriter.format("\tsra $k0,$k0,16\n");
+		fileWriter.format("\tbeq $k0,%s,%s\n", reg, done);
+		fileWriter.format("\tbltz %s,%s\n", reg, sl);
+		fileWriter.format("\tli %s,32767\n\tj %s\n", reg, done);
+		fileWriter.format("%s:\n\tli %s,-32768\n", sl, reg);
 		fileWriter.format("%s:\n", done);
 	}
 
-	public void add(Temp dst, Temp oprnd1, Temp oprnd2)
+	/** Arithmetic: saturate is false where RangeAnalysis proved the result cannot leave 16 bits. */
+	public void add(Temp dst, Temp oprnd1, Temp oprnd2, boolean saturate)
 	{
 		fileWriter.format("\tadd %s,%s,%s\n", reg(dst), reg(oprnd1), reg(oprnd2));
-		clampToS16(reg(dst));
+		if (saturate) clampToS16(reg(dst));
 	}
-	public void mul(Temp dst, Temp oprnd1, Temp oprnd2)
+	public void mul(Temp dst, Temp oprnd1, Temp oprnd2, boolean saturate)
 	{
 		fileWriter.format("\tmul %s,%s,%s\n", reg(dst), reg(oprnd1), reg(oprnd2));
-		clampToS16(reg(dst));
+		if (saturate) clampToS16(reg(dst));
 	}
-	public void sub(Temp dst, Temp oprnd1, Temp oprnd2)
+	public void sub(Temp dst, Temp oprnd1, Temp oprnd2, boolean saturate)
 	{
 		fileWriter.format("\tsub %s,%s,%s\n", reg(dst), reg(oprnd1), reg(oprnd2));
-		clampToS16(reg(dst));
+		if (saturate) clampToS16(reg(dst));
 	}
-	public void div(Temp dst, Temp oprnd1, Temp oprnd2)
+	/** checkZero is false where StrengthReduction proved the divisor non-zero. */
+	public void div(Temp dst, Temp oprnd1, Temp oprnd2, boolean saturate, boolean checkZero)
 	{
+		if (!checkZero) {
+			fileWriter.format("\tdiv %s,%s\n", reg(oprnd1), reg(oprnd2));
+			fileWriter.format("\tmflo %s\n", reg(dst));
+			if (saturate) clampToS16(reg(dst));
+			return;
+		}
 		int id = internalLabelCounter++;
 		String lz = "div_by_zero_" + id;
 		String lok = "div_ok_" + id;
 		fileWriter.format("\tbeq %s,$zero,%s\n", reg(oprnd2), lz);
 		fileWriter.format("\tdiv %s,%s\n", reg(oprnd1), reg(oprnd2));
 		fileWriter.format("\tmflo %s\n", reg(dst));
-		clampToS16(reg(dst));
+		if (saturate) clampToS16(reg(dst));
 		fileWriter.format("\tj %s\n", lok);
 		fileWriter.format("%s:\n", lz);
 		fileWriter.format("\tla $a0,string_illegal_div_by_0\n");
@@ -689,6 +881,25 @@ public class MipsGenerator
 		fileWriter.format("\tli $v0,10\n\tsyscall\n");
 		fileWriter.format("%s:\n", lok);
 	}
+	/** Strength-reduced arithmetic and element pointers (see StrengthReduction). */
+	public void shiftLeft(Temp dst, Temp src, int shift, boolean saturate)
+	{
+		fileWriter.format("\tsll %s,%s,%d\n", reg(dst), reg(src), shift);
+		if (saturate) clampToS16(reg(dst));
+	}
+	public void shiftRight(Temp dst, Temp src, int shift)
+	{
+		fileWriter.format("\tsra %s,%s,%d\n", reg(dst), reg(src), shift);
+	}
+	public void elementAddress(Temp dst, Temp arrayBase, Temp index)
+	{
+		fileWriter.format("\tsll $s0,%s,2\n", reg(index));
+		fileWriter.format("\tadd %s,$s0,%s\n", reg(dst), reg(arrayBase));
+	}
+	public void addImmediate(Temp dst, Temp src, int value)
+	{
+		fileWriter.format("\taddi %s,%s,%d\n", reg(dst), reg(src), value);
+	}
 	public void label(String inlabel)
 	{
 		// Function-end labels (Label_N_end): do NOT emit .text here, and emit function-unique end label
@@ -708,43 +919,22 @@ public class MipsGenerator
 			emitTraceChar('L');
 		if (DEBUG_MIPS_TRACE && inlabel != null && inlabel.contains("while_end"))
 			emitTraceChar('W');
-		// If this is a function entry, allocate stack frame for locals/params (after label so jal lands here)
+		// If this is a function entry, allocate its frame (after label so jal lands here); leaf functions usually have none
 		if (functionVarOffsets.containsKey(inlabel)) {
 			currentFunction = inlabel;
+			spDepth = 0;
 			int frameSize = functionFrameSizes.getOrDefault(inlabel, 0);
-			if (frameSize > 0) {
+			if (frameSize > 0)
 				fileWriter.format("\taddi $sp,$sp,-%d\n", frameSize);
-				boolean usesFp = functionUsesFp(inlabel);
-				if (usesFp) {
-					// 0($sp)=saved $fp, 4($sp)=$ra; then $fp=$sp so params at 8($fp),12($fp),... (push/pop don't move $fp)
-					fileWriter.print("\tsw $fp,0($sp)\n\tsw $ra,4($sp)\n\tmove $fp,$sp\n");
-					if (DEBUG_MIPS_TRACE) emitTraceChar('S');
-					int nParam = functionParamCount.getOrDefault(inlabel, 0);
-					for (int i = 0; i < Math.min(4, nParam); i++)
-						fileWriter.format("\tsw $a%d,%d($fp)\n", i, 8 + i * 4);
-					if (debugFuncArgs(inlabel)) emitDebugPrintA0A1A2A3();
-				} else if (functionSavesRa.contains(inlabel)) {
-					fileWriter.print("\tsw $ra,0($sp)\n");
-					if (DEBUG_MIPS_TRACE) emitTraceChar('S');
-					int nParam = functionParamCount.getOrDefault(inlabel, 0);
-					for (int i = 0; i < Math.min(4, nParam); i++)
-						fileWriter.format("\tsw $a%d,%d($sp)\n", i, 4 + i * 4);
-					if (debugFuncArgs(inlabel)) emitDebugPrintA0A1A2A3();
-				}
+			if (functionSavesRa.contains(inlabel)) {
+				fileWriter.print("\tsw $ra,0($sp)\n");
+				if (DEBUG_MIPS_TRACE) emitTraceChar('S');
 			}
+			for (String r : functionCalleeSaves.getOrDefault(inlabel, new ArrayList<>()))
+				fileWriter.format("\tsw %s,%s\n", r, frameSlot(functionVarOffsets.get(inlabel).get(r)));
+			if (debugFuncArgs(inlabel)) emitDebugPrintA0A1A2A3();
 		}
 	}
-	/** True if this function's frame uses $fp (slots at 8+), so load/store must use $fp. */
-	private boolean functionUsesFp(String funcName) {
-		Map<String, Integer> offsets = functionVarOffsets.get(funcName);
-		if (offsets == null || offsets.isEmpty()) return false;
-		int min = offsets.values().stream().min(Integer::compare).orElse(0);
-		return min >= 8;
-	}
-	/** Base register for current function's frame ($fp if usesFp else $sp). */
-	private String frameBase() {
-		return (currentFunction != null && functionUsesFp(currentFunction)) ? "$fp" : "$sp";
-	}	
 	public void jump(String inlabel)
 	{
 		// Use function-unique end label so "j X_end" has exactly one definition (avoids wrong target with multiple .text segments).
@@ -760,20 +950,15 @@ public class MipsGenerator
 	{
 		if (debugRecursion()) emitDebugPrintSp();  // only when debugging: print frame base before loading $ra
 		if (currentFunction != null) {
-			int frameSize = functionFrameSizes.getOrDefault(currentFunction, 0);
-			if (frameSize > 0) {
-				if (functionUsesFp(currentFunction)) {
-					// $sp may be below $fp due to push; restore $sp from $fp then restore $ra,$fp
-					fileWriter.format("\tmove $t0,$fp\n\taddi $sp,$t0,%d\n\tlw $ra,4($t0)\n\tlw $fp,0($t0)\n", frameSize);
-					if (DEBUG_MIPS_TRACE) emitTraceChar('Y');
-				} else if (functionSavesRa.contains(currentFunction)) {
-					fileWriter.print("\tlw $ra,0($sp)\n");
-					if (DEBUG_MIPS_TRACE) emitTraceChar('Y');
-					fileWriter.format("\taddi $sp,$sp,%d\n", frameSize);
-				} else {
-					fileWriter.format("\taddi $sp,$sp,%d\n", frameSize);
-				}
+			for (String r : functionCalleeSaves.getOrDefault(currentFunction, new ArrayList<>()))
+				fileWriter.format("\tlw %s,%s\n", r, frameSlot(functionVarOffsets.get(currentFunction).get(r)));
+			if (functionSavesRa.contains(currentFunction)) {
+				fileWriter.print("\tlw $ra,0($sp)\n");
+				if (DEBUG_MIPS_TRACE) emitTraceChar('Y');
 			}
+			int frameSize = functionFrameSizes.getOrDefault(currentFunction, 0);
+			if (frameSize > 0)
+				fileWriter.format("\taddi $sp,$sp,%d\n", frameSize);
 		}
 		emitDebugPrintV0();  // DEBUG_RECURSION: print return value before jr $ra
 		if (debugRecursionTrace()) emitTraceChar('X');  // about to return
@@ -847,144 +1032,118 @@ public class MipsGenerator
 	{
 		int id = internalLabelCounter++;
 		String okLabel = "ps_ok_" + id;
-		fileWriter.format("\tmove $a0,%s\n", reg(t));
+		emitMove("$a0", reg(t));
 		fileWriter.format("\tbne $a0,$zero,%s\n\tla $a0,dbg_print_a0\n\tli $v0,4\n\tsyscall\n\tli $v0,10\n\tsyscall\n", okLabel);
 		fileWriter.format("%s:\n\tli $v0,4\n\tsyscall\n", okLabel);
 	}
 
-	/** Concatenate two strings; result in dst. left and right are string pointers. */
-	public void concatStrings(Temp dst, Temp left, Temp right) {
+	/** Concatenate strings; result in dst. parts are string pointers, passed to string_concat on the stack. */
+	public void concatStrings(Temp dst, List<Temp> parts) {
 		ensureTextWithPreamble();
 		emitTraceChar('C');
-		// Push both to stack so we don't overwrite when left/right share regs with $a0/$a1 or each other
-		fileWriter.print("\taddi $sp,$sp,-8\n");
-		fileWriter.format("\tsw %s,0($sp)\n", reg(left));
-		fileWriter.format("\tsw %s,4($sp)\n", reg(right));
-		fileWriter.print("\tlw $a0,0($sp)\n");
-		fileWriter.print("\tlw $a1,4($sp)\n");
-		fileWriter.print("\taddi $sp,$sp,8\n");
+		// Store below $sp first: spilled parts are read from $sp-relative slots
+		int bytes = 4 * parts.size();
+		for (int k = 0; k < parts.size(); k++)
+			storeArg(parts.get(k), 4 * k - bytes);
+		fileWriter.format("\taddi $sp,$sp,%d\n\tli $a0,%d\n", -bytes, parts.size());
 		fileWriter.print("\tjal string_concat\n");
-		fileWriter.format("\tmove %s,$v0\n", reg(dst));
+		fileWriter.format("\taddi $sp,$sp,%d\n", bytes);
+		emitMove(reg(dst), "$v0");
 	}
 	/** String value equality: dst = 1 if left equals right else 0. */
 	public void eqStrings(Temp dst, Temp left, Temp right) {
 		ensureTextWithPreamble();
-		fileWriter.print("\taddi $sp,$sp,-8\n");
-		fileWriter.format("\tsw %s,0($sp)\n", reg(left));
-		fileWriter.format("\tsw %s,4($sp)\n", reg(right));
-		fileWriter.print("\tlw $a0,0($sp)\n");
-		fileWriter.print("\tlw $a1,4($sp)\n");
-		fileWriter.print("\taddi $sp,$sp,8\n");
+		emitMove("$a0", reg(left));
+		emitMove("$a1", reg(right));
+		// The same pointer (one interned literal, one object, or both null) is equal without a call
+		String done = "str_eq_done_" + internalLabelCounter++;
+		fileWriter.format("\tli $v0,1\n\tbeq $a0,$a1,%s\n", done);
 		fileWriter.print("\tjal string_equals\n");
-		fileWriter.format("\tmove %s,$v0\n", reg(dst));
-	}
-	/** Frame: 56 bytes = $t0..$t9 (0..36) + $ra (40) + $s0 (44) + $s1 (48) + $s2 (52). Saves $s0/$s1/$s2 so nested call arg survives. */
-	public void callFunc(String funcName, java.util.List<Temp> args, Temp dst, String receiverVarName)
+		emitLabelOnly(done);
+		emitMove(reg(dst), "$v0");
+	}
+	/** Registers a function preserves for its callers (the allocator hands them to temps live across calls). */
+	public static final List<String> CALLEE_SAVED_REGS = List.of("$s1", "$s2", "$s3", "$s4", "$fp");
+	/** Caller-save area: $t0..$t9 (0..36) + $ra (40) + $s0 (44) + $s1 (48) + $s2 (52). Params 4+ follow at 56($sp).
+	 *  The $s1/$s2 slots are only used when the live set is unknown; callees preserve them otherwise. */
+	private static final int CALL_SAVE_AREA_BYTES = 56;
+	/** Save-area slot of every register a call may have to preserve. */
+	private static final String[] CALL_SAVE_REGS = { "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8", "$t9", "$ra", "$s0", "$s1", "$s2" };
+	/** Serials of temps live across the call being emitted (set per command); null = unknown, save everything. */
+	private Set<Integer> liveAcrossCall = null;
+	/** Registers saved around the call being emitted, in save-area order. */
+	private List<String> callSaves = new ArrayList<>();
+	/** True when the call being emitted passes no stack args, so callSaves take consecutive slots from 0($sp). */
+	private boolean callSavesPacked = false;
+
+	/** Set the temps live across the next command (only read by calls). */
+	public void setLiveAcrossCall(Set<Integer> live) {
+		this.liveAcrossCall = live;
+	}
+	/** Registers the current call must preserve: caller-saved ones holding temps live across it, plus $ra unless the frame keeps it. */
+	private List<String> registersToSave() {
+		if (liveAcrossCall == null || tempToReg == null)
+			return java.util.Arrays.asList(CALL_SAVE_REGS);
+		Set<String> live = new HashSet<>();
+		for (int serial : liveAcrossCall) {
+			String r = tempToReg.get(serial);
+			if (r != null && !CALLEE_SAVED_REGS.contains(r)) live.add(r);
+		}
+		if (currentFunction == null || !functionSavesRa.contains(currentFunction)) live.add("$ra");
+		List<String> saves = new ArrayList<>();
+		for (String r : CALL_SAVE_REGS)
+			if (live.contains(r)) saves.add(r);
+		return saves;
+	}
+	/** Open the call frame, save live caller registers and pass args (params 0-3 in $a0-$a3, the rest on the stack). Returns the frame size. */
+	private int emitCallPrologue(java.util.List<Temp> args)
 	{
-		callFunc(funcName, args, dst, receiverVarName, false, false);
-	}
-	public void callFunc(String funcName, java.util.List<Temp> args, Temp dst, String receiverVarName, boolean firstArgFromS2)
+		int n = (args != null) ? args.size() : 0;
+		callSaves = registersToSave();
+		// With stack args the callee expects them 56 bytes above its frame; otherwise the saves are packed (or absent)
+		callSavesPacked = n <= 4;
+		int frameBytes = callSavesPacked ? 4 * callSaves.size() : CALL_SAVE_AREA_BYTES + 4 * (n - 4);
+		if (frameBytes > 0)
+			fileWriter.format("\taddi $sp,$sp,-%d\n", frameBytes);
+		spDepth = frameBytes;
+		for (String r : callSaves)
+			fileWriter.format("\tsw %s,%d($sp)\n", r, callSaveOffset(r));
+		// An arg can only sit in its own $a register (IrCommandCall hints), so moving in order never overwrites a pending arg.
+		for (int k = 0; k < n && k < 4; k++)
+			if (args.get(k) != null) moveArg("$a" + k, args.get(k));
+		for (int k = 4; k < n; k++)
+			if (args.get(k) != null) storeArg(args.get(k), CALL_SAVE_AREA_BYTES + 4 * (k - 4));
+		return frameBytes;
+	}
+	/** Restore the saved caller registers, close the call frame and copy the result out of $v0. */
+	private void emitCallEpilogue(int frameBytes, Temp dst)
 	{
-		callFunc(funcName, args, dst, receiverVarName, firstArgFromS2, false, false);
-	}
-	public void callFunc(String funcName, java.util.List<Temp> args, Temp dst, String receiverVarName, boolean firstArgFromS2, boolean arg0InS0)
+		for (String r : callSaves)
+			fileWriter.format("\tlw %s,%d($sp)\n", r, callSaveOffset(r));
+		if (frameBytes > 0)
+			fileWriter.format("\taddi $sp,$sp,%d\n", frameBytes);
+		spDepth = 0;
+		if (dst != null) emitMove(reg(dst), "$v0");
+	}
+	private int callSaveOffset(String reg) {
+		if (callSavesPacked) return 4 * callSaves.indexOf(reg);
+		return 4 * java.util.Arrays.asList(CALL_SAVE_REGS).indexOf(reg);
+	}
+	/** Direct call. args are in parameter order (receiver first for methods); checkNull tests a devirtualized receiver. */
+	public void callFunc(String funcName, java.util.List<Temp> args, Temp dst, boolean checkNull)
 	{
-		callFunc(funcName, args, dst, receiverVarName, firstArgFromS2, arg0InS0, false);
-	}
-	public void callFunc(String funcName, java.util.List<Temp> args, Temp dst, String receiverVarName, boolean firstArgFromS2, boolean arg0InS0, boolean arg0OnStack) {
-		callFunc(funcName, args, dst, receiverVarName, firstArgFromS2, arg0InS0, arg0OnStack, false, false);
-	}
-	public void callFunc(String funcName, java.util.List<Temp> args, Temp dst, String receiverVarName, boolean firstArgFromS2, boolean arg0InS0, boolean arg0OnStack, boolean arg1OnStack, boolean argsPushedLTR3)
-	{
-		final int saveAreaBytes = 56;
-		final int stackStartIndex = firstArgFromS2 ? 3 : 4;
-		final int extraArgsCount = (args == null) ? 0 : Math.max(0, args.size() - stackStartIndex);
-		final int frameBytes = saveAreaBytes + 4 * extraArgsCount;
-		int n = args != null ? args.size() : 0;
-		// n>=4 and arg0OnStack: for n==4 only, load 9th/10th (actually 1st/3rd) from stack before frame; for n>=5 do NOT load before frame (would clobber 7th/8th). Load 9th/10th from above frame after storing 5th-8th; pop 2 words after call returns.
-		boolean n4EarlySetup = arg0OnStack && n >= 4 && !firstArgFromS2;
-		if (n4EarlySetup && n == 4) {
-			fileWriter.print("\tlw $t8,0($sp)\n\tlw $t9,4($sp)\n\taddi $sp,$sp,8\n");
-		}
-		// For n==2 or n==3, pop into $a1 or $a2 before frame (no early setup needed)
-		if (arg0OnStack && args != null && n >= 2 && n < 4) {
-			if (n == 2) fileWriter.print("\tlw $a1,0($sp)\n\taddi $sp,$sp,4\n");
-			else fileWriter.print("\tlw $a2,0($sp)\n\taddi $sp,$sp,4\n");
-		}
-		fileWriter.format("\taddi $sp,$sp,-%d\n", frameBytes);
-		fileWriter.format("\tsw $t0,0($sp)\n\tsw $t1,4($sp)\n\tsw $t2,8($sp)\n\tsw $t3,12($sp)\n\tsw $t4,16($sp)\n\tsw $t5,20($sp)\n\tsw $t6,24($sp)\n\tsw $t7,28($sp)\n\tsw $t8,32($sp)\n\tsw $t9,36($sp)\n\tsw $ra,40($sp)\n\tsw $s0,44($sp)\n\tsw $s1,48($sp)\n\tsw $s2,52($sp)\n");
-		// 2- or 3-arg LTR: first args were pushed. push is addi -4 then sw. n==2: one push -> 1st at frameBytes($sp). n==3: two pushes -> 2nd at frameBytes, 1st at frameBytes+4.
-		// Load from above frame only; pop the pushed words after the call returns (below)
-		if (argsPushedLTR3 && (n == 2 || n == 3) && !firstArgFromS2) {
-			if (n == 2) {
-				fileWriter.format("\tlw $a0,%d($sp)\n", frameBytes);
-				fileWriter.format("\tmove $a1,%s\n", reg(args.get(1)));
-			} else {
-				fileWriter.format("\tlw $a0,%d($sp)\n\tlw $a1,%d($sp)\n", frameBytes + 4, frameBytes);
-				fileWriter.format("\tmove $a2,%s\n", reg(args.get(2)));
-			}
-		}
-		if (!n4EarlySetup && !argsPushedLTR3) {
-			if (firstArgFromS2)
-				fileWriter.print("\tmove $a0,$s2\n");
-			else if (receiverVarName != null)
-				loadVarToA0(receiverVarName);
-			else if (arg0InS0)
-				fileWriter.print("\tmove $a0,$s0\n");
-			else if (args != null && args.size() > 0 && args.get(args.size() - 1) != null)
-				fileWriter.format("\tmove $a0,%s\n", reg(args.get(args.size() - 1)));
-			if (firstArgFromS2) {
-				if (args != null && args.size() > 0 && !arg0OnStack) {
-					if (arg0InS0) fileWriter.print("\tmove $a1,$s0\n");
-					else if (args.get(0) != null) fileWriter.format("\tmove $a1,%s\n", reg(args.get(0)));
-				}
-				if (args != null && args.size() > 1 && args.get(1) != null) fileWriter.format("\tmove $a2,%s\n", reg(args.get(1)));
-				if (args != null && args.size() > 2 && args.get(2) != null) fileWriter.format("\tmove $a3,%s\n", reg(args.get(2)));
-			} else {
-				if (n > 1 && !(arg0OnStack && n == 2) && args.get(n - 2) != null) fileWriter.format("\tmove $a1,%s\n", reg(args.get(n - 2)));
-				if (n > 2 && !(arg0OnStack && n == 3)) {
-					if (arg1OnStack)
-						fileWriter.format("\tlw $a2,%d($sp)\n", frameBytes);
-					else if (args.get(n - 3) != null) fileWriter.format("\tmove $a2,%s\n", reg(args.get(n - 3)));
-				}
-				if (n > 3 && !(arg0OnStack && n == 4) && args.get(n - 4) != null) fileWriter.format("\tmove $a3,%s\n", reg(args.get(n - 4)));
-			}
-		}
-		// Extra args: store 5th..8th at saveAreaBytes, saveAreaBytes+4, ... paramIndex = n-1-i so args.get(paramIndex) is the (i+1)th param; stack slot (i-stackStartIndex) holds param i (5th param = index 4).
-		if (args != null && extraArgsCount > 0) {
-			for (int i = stackStartIndex; i < n; i++) {
-				int paramIndex = n - 1 - i;
-				int off = saveAreaBytes + 4 * (i - stackStartIndex);
-				if (paramIndex >= 0 && args.get(paramIndex) != null)
-					fileWriter.format("\tsw %s,%d($sp)\n", reg(args.get(paramIndex)), off);
-			}
-		}
-		// n4EarlySetup: set $a0-$a3 after storing stack args (so we don't overwrite regs that held 5th-8th).
-		if (n4EarlySetup && args != null && n >= 4) {
-			if (n >= 5) {
-				fileWriter.format("\tmove $a0,%s\n", reg(args.get(n - 1)));
-				fileWriter.format("\tmove $a1,%s\n", reg(args.get(n - 2)));
-				fileWriter.format("\tmove $a2,%s\n", reg(args.get(n - 3)));
-				fileWriter.format("\tmove $a3,%s\n", reg(args.get(n - 4)));
-			} else if (n == 4) {
-				// We pushed to (when i=2) then n (PushS0 when i=0); so 0($sp)=n, 4($sp)=to. We loaded $t8=n, $t9=to.
-				fileWriter.print("\tmove $a0,$t8\n");
-				fileWriter.format("\tmove $a1,%s\n", reg(args.get(2)));
-				fileWriter.print("\tmove $a2,$t9\n");
-				fileWriter.format("\tmove $a3,%s\n", reg(args.get(0)));
-			}
-		}
+		int n = (args != null) ? args.size() : 0;
+		int frameBytes = emitCallPrologue(args);
+		if (checkNull) fileWriter.format("\tbeq $a0,$zero,ptr_error_loadField\n");
 		if (DEBUG_TRACE_CALLS) {
-			fileWriter.format("# call %s: $a0 (first arg) = %s\n", funcName, firstArgFromS2 ? "$s2" : (args != null && args.size() > 0 ? reg(args.get(0)) : "?"));
+			fileWriter.format("# call %s: $a0 (first arg) = %s\n", funcName, n > 0 ? reg(args.get(0)) : "?");
 			fileWriter.print("\tmove $t0,$a0\n");
 			fileWriter.print("\tli $v0,1\n\tsyscall\n");
 			fileWriter.print("\tli $a0,10\n\tli $v0,11\n\tsyscall\n");
 			fileWriter.print("\tmove $a0,$t0\n");
 		}
 		if (DEBUG_ARGS) {
-			System.err.println("[DEBUG_ARGS] callFunc " + funcName + " arg0InS0=" + arg0InS0 + " nargs=" + n);
-			if (n >= 2 && !firstArgFromS2)
-				System.err.println("[DEBUG_ARGS]   $a0=1st param <- args.get(" + (n-1) + ") " + (args.get(n-1) != null ? reg(args.get(n-1)) : "null") + ", $a1=2nd param <- " + (arg0InS0 ? "$s0 (was args.get(0))" : "args.get(" + (n-2) + ") " + reg(args.get(n-2))));
+			System.err.println("[DEBUG_ARGS] callFunc " + funcName + " nargs=" + n);
 			// Print $a0 and $a1 before jal (as integers; for pointers you see addresses)
 			fileWriter.print("\t# DEBUG_ARGS: print $a0 $a1 before jal\n");
 			fileWriter.print("\taddi $sp,$sp,-8\n\tsw $a0,0($sp)\n\tsw $a1,4($sp)\n");
@@ -995,13 +1154,13 @@ public class MipsGenerator
 			fileWriter.print("\tlw $a0,0($sp)\n\tlw $a1,4($sp)\n\taddi $sp,$sp,8\n");
 		}
 		// DEBUG_CALL_ARGS: print all n args before jal (param 1..n as integers, space-sep, then newline)
-		if (debugCallArgs() && n >= 2 && !firstArgFromS2 && args != null) {
+		if (debugCallArgs() && n >= 2) {
 			fileWriter.print("\t# DEBUG_CALL_ARGS: print args 1.." + n + " before jal " + funcName + "\n");
 			fileWriter.print("\taddi $sp,$sp,-16\n\tsw $a0,0($sp)\n\tsw $a1,4($sp)\n\tsw $a2,8($sp)\n\tsw $a3,12($sp)\n");
 			for (int k = 0; k < 4 && k < n; k++) {
 				fileWriter.print("\tli $v0,1\n\tlw $a0," + (k * 4) + "($sp)\n\tsyscall\n\tli $v0,11\n\tli $a0,32\n\tsyscall\n");
 			}
-			int stackBase = 56 + 16; // 5th param at 56($sp) with our 16-byte save above it
+			int stackBase = CALL_SAVE_AREA_BYTES + 16; // 5th param at 56($sp) with our 16-byte save above it
 			for (int k = 4; k < n; k++) {
 				int off = stackBase + 4 * (k - 4);
 				fileWriter.print("\tli $v0,1\n\tlw $a0," + off + "($sp)\n\tsyscall\n\tli $v0,11\n\tli $a0,32\n\tsyscall\n");
@@ -1011,153 +1170,23 @@ public class MipsGenerator
 		}
 		if (DEBUG_MIPS_TRACE) emitTraceChar('J');
 		fileWriter.format("\tjal %s\n", toMipsFuncLabel(funcName));
-		fileWriter.format("\tlw $ra,40($sp)\n\tlw $t0,0($sp)\n\tlw $t1,4($sp)\n\tlw $t2,8($sp)\n\tlw $t3,12($sp)\n\tlw $t4,16($sp)\n\tlw $t5,20($sp)\n\tlw $t6,24($sp)\n\tlw $t7,28($sp)\n\tlw $t8,32($sp)\n\tlw $t9,36($sp)\n\tlw $s0,44($sp)\n\tlw $s1,48($sp)\n\tlw $s2,52($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,%d\n", frameBytes);
-		// LTR: we pushed args before the frame; pop them after restoring the frame
-		if (argsPushedLTR3 && n == 2)
-			fileWriter.print("\taddi $sp,$sp,4\n");
-		else if (argsPushedLTR3 && n == 3)
-			fileWriter.print("\taddi $sp,$sp,8\n");
-		// 4 args with arg0OnStack and arg1OnStack: we pushed n and to (2 words); pop them (unless n4EarlySetup already popped at start)
-		if (arg0OnStack && arg1OnStack && n == 4 && !n4EarlySetup)
-			fileWriter.print("\taddi $sp,$sp,8\n");
-		// n4EarlySetup with 5+ args: we pushed 9th/10th before frame; pop them after restoring the frame
-		if (n4EarlySetup && n >= 5)
-			fileWriter.print("\taddi $sp,$sp,8\n");
-		if (dst != null) fileWriter.format("\tmove %s,$v0\n", reg(dst));
-	}
-	/** Virtual method call: load method from object's vtable at slot, jalr. Receiver in $a0. */
-	public void callFuncVirtual(int methodSlot, java.util.List<Temp> args, Temp dst, boolean firstArgFromS2)
-	{
-		final int saveAreaBytes = 56;
-		final int stackStartIndex = firstArgFromS2 ? 3 : 4;
-		final int extraArgsCount = (args == null) ? 0 : Math.max(0, args.size() - stackStartIndex);
-		final int frameBytes = saveAreaBytes + 4 * extraArgsCount;
-		fileWriter.format("\taddi $sp,$sp,-%d\n", frameBytes);
-		fileWriter.format("\tsw $t0,0($sp)\n\tsw $t1,4($sp)\n\tsw $t2,8($sp)\n\tsw $t3,12($sp)\n\tsw $t4,16($sp)\n\tsw $t5,20($sp)\n\tsw $t6,24($sp)\n\tsw $t7,28($sp)\n\tsw $t8,32($sp)\n\tsw $t9,36($sp)\n\tsw $ra,40($sp)\n\tsw $s0,44($sp)\n\tsw $s1,48($sp)\n\tsw $s2,52($sp)\n");
-		if (firstArgFromS2)
-			fileWriter.print("\tmove $a0,$s2\n");
-		else if (args != null && args.size() > 0 && args.get(0) != null)
-			fileWriter.format("\tmove $a0,%s\n", reg(args.get(0)));
-		if (firstArgFromS2) {
-			if (args != null && args.size() > 0 && args.get(0) != null) fileWriter.format("\tmove $a1,%s\n", reg(args.get(0)));
-			if (args != null && args.size() > 1 && args.get(1) != null) fileWriter.format("\tmove $a2,%s\n", reg(args.get(1)));
-			if (args != null && args.size() > 2 && args.get(2) != null) fileWriter.format("\tmove $a3,%s\n", reg(args.get(2)));
-		} else {
-			if (args != null && args.size() > 1 && args.get(1) != null) fileWriter.format("\tmove $a1,%s\n", reg(args.get(1)));
-			if (args != null && args.size() > 2 && args.get(2) != null) fileWriter.format("\tmove $a2,%s\n", reg(args.get(2)));
-			if (args != null && args.size() > 3 && args.get(3) != null) fileWriter.format("\tmove $a3,%s\n", reg(args.get(3)));
-		}
-		// Extra args on stack above save area
-		if (args != null && extraArgsCount > 0) {
-			for (int i = stackStartIndex; i < args.size(); i++) {
-				if (args.get(i) != null) {
-					int off = saveAreaBytes + 4 * (i - stackStartIndex);
-					fileWriter.format("\tsw %s,%d($sp)\n", reg(args.get(i)), off);
-				}
-			}
-		}
-		fileWriter.format("\tbeq $a0,$zero,ptr_error_loadField\n");
-		if (DEBUG_VTABLE) {
-			fileWriter.format("# virtual call: slot=%d vtable+%d -> $t0 then jalr $t0\n", methodSlot, methodSlot * 4);
-			System.err.println("[DEBUG_VTABLE] virtual call slot=" + methodSlot + " offset=" + (methodSlot * 4) + " firstArgFromS2=" + firstArgFromS2 + " argsSize=" + (args != null ? args.size() : 0));
-			if (DEBUG_VTABLE_PRINT_A0) {
-				fileWriter.print("# DEBUG: print $a0 (receiver) before lw vtable\n");
-				fileWriter.print("\taddi $sp,$sp,-4\n\tsw $a0,0($sp)\n");
-				fileWriter.print("\tli $v0,1\n\tsyscall\n");
-				fileWriter.print("\tli $a0,32\n\tli $v0,11\n\tsyscall\n");
-				fileWriter.print("\tlw $a0,0($sp)\n\taddi $sp,$sp,4\n");
-			}
-		}
-		fileWriter.format("\tlw $t0,0($a0)\n");
-		fileWriter.format("\tlw $t0,%d($t0)\n", methodSlot * 4);
-		if (DEBUG_MIPS_TRACE) emitTraceChar('V');
-		fileWriter.print("\tjalr $t0\n");
-		fileWriter.format("\tlw $ra,40($sp)\n\tlw $t0,0($sp)\n\tlw $t1,4($sp)\n\tlw $t2,8($sp)\n\tlw $t3,12($sp)\n\tlw $t4,16($sp)\n\tlw $t5,20($sp)\n\tlw $t6,24($sp)\n\tlw $t7,28($sp)\n\tlw $t8,32($sp)\n\tlw $t9,36($sp)\n\tlw $s0,44($sp)\n\tlw $s1,48($sp)\n\tlw $s2,52($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,%d\n", frameBytes);
-		if (dst != null) fileWriter.format("\tmove %s,$v0\n", reg(dst));
-	}
-	/** Copy base temp into $s2 so base survives arg evaluation and call; base must be in reg before this. */
-	public void moveBaseToS2(Temp base) {
-		if (DEBUG_TRACE_CALLS) fileWriter.format("# moveBaseToS2: $s2 <- %s (first arg)\n", reg(base));
-		if (DEBUG_VTABLE) fileWriter.format("# DEBUG_VTABLE: moveBaseToS2 $s2 <- %s (receiver)\n", reg(base));
-		fileWriter.format("\tmove $s2,%s\n", reg(base));
-	}
-	/** Copy temp into $s0 so it survives following arg evaluation (nested calls). */
-	public void moveTempToS0(Temp t) {
-		if (t != null) {
-			if (DEBUG_ARGS) System.err.println("[DEBUG_ARGS] moveTempToS0: $s0 <- " + reg(t) + " (temp " + (t != null ? t.toString() : "?") + ")");
-			fileWriter.format("\tmove $s0,%s\n", reg(t));
-		}
-	}
-	/** Load variable (by IR name) directly into $s2; no temp, so base cannot be clobbered by arg eval. */
-	public void loadVarToS2(String varIrName) {
-		if (currentFunction != null && localVarNames.contains(varIrName)) {
-			Map<String, Integer> offsets = functionVarOffsets.get(currentFunction);
-			if (offsets != null && offsets.containsKey(varIrName)) {
-				fileWriter.format("\tlw $s2,%d($sp)\n", offsets.get(varIrName));
-				return;
-			}
-		}
-		String label = varLabel(varIrName);
-		ensureDataEmitted(label);
-		fileWriter.format("\tlw $s2,%s\n", label);
-	}
-	/** Store $s2 back to variable slot (restore after call so callee did not overwrite outer activation's local). */
-	public void storeS2ToVar(String varIrName) {
-		if (currentFunction != null && localVarNames.contains(varIrName)) {
-			Map<String, Integer> offsets = functionVarOffsets.get(currentFunction);
-			if (offsets != null && offsets.containsKey(varIrName)) {
-				fileWriter.format("\tsw $s2,%d($sp)\n", offsets.get(varIrName));
-				return;
-			}
-		}
-		String label = varLabel(varIrName);
-		ensureDataEmitted(label);
-		fileWriter.format("\tsw $s2,%s\n", label);
-	}
-	/** Load variable (by IR name) into $a0 so method call gets receiver from memory (avoids clobbered temp). */
-	public void loadVarToA0(String varIrName) {
-		if (currentFunction != null && localVarNames.contains(varIrName)) {
-			Map<String, Integer> offsets = functionVarOffsets.get(currentFunction);
-			if (offsets != null && offsets.containsKey(varIrName)) {
-				fileWriter.format("\tlw $a0,%d($sp)\n", offsets.get(varIrName));
-				return;
-			}
-		}
-		String label = varLabel(varIrName);
-		ensureDataEmitted(label);
-		fileWriter.format("\tlw $a0,%s\n", label);
+		emitCallEpilogue(frameBytes, dst);
 	}
-	/** Call function and store $v0 at base+offset. Base must already be in $s2 (call moveBaseToS2 first). Frame 48 bytes: $t0-$t9, $ra, $s2. */
-	public void callFuncAndStoreResultAtFieldWithBaseInS2(String funcName, java.util.List<Temp> args, int fieldOffset)
+	/** The receiver check of an inlined method call; same error path as callFuncVirtual's. */
+	public void nullCheck(Temp t)
 	{
-		fileWriter.format("\taddi $sp,$sp,-48\n");
-		fileWriter.format("\tsw $t0,0($sp)\n\tsw $t1,4($sp)\n\tsw $t2,8($sp)\n\tsw $t3,12($sp)\n\tsw $t4,16($sp)\n\tsw $t5,20($sp)\n\tsw $t6,24($sp)\n\tsw $t7,28($sp)\n\tsw $t8,32($sp)\n\tsw $t9,36($sp)\n\tsw $ra,40($sp)\n\tsw $s2,44($sp)\n");
-		if (args != null && args.size() > 0 && args.get(0) != null) fileWriter.format("\tmove $a0,%s\n", reg(args.get(0)));
-		if (args != null && args.size() > 1 && args.get(1) != null) fileWriter.format("\tmove $a1,%s\n", reg(args.get(1)));
-		if (args != null && args.size() > 2 && args.get(2) != null) fileWriter.format("\tmove $a2,%s\n", reg(args.get(2)));
-		if (args != null && args.size() > 3 && args.get(3) != null) fileWriter.format("\tmove $a3,%s\n", reg(args.get(3)));
-		fileWriter.format("\tjal %s\n", toMipsFuncLabel(funcName));
-		fileWriter.format("\tlw $ra,40($sp)\n\tlw $t0,0($sp)\n\tlw $t1,4($sp)\n\tlw $t2,8($sp)\n\tlw $t3,12($sp)\n\tlw $t4,16($sp)\n\tlw $t5,20($sp)\n\tlw $t6,24($sp)\n\tlw $t7,28($sp)\n\tlw $t8,32($sp)\n\tlw $t9,36($sp)\n\tlw $s2,44($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,48\n");
-		fileWriter.format("\tbeq $s2,$zero,ptr_error_s2\n");
-		fileWriter.format("\tsw $v0,%d($s2)\n", fieldOffset);
+		fileWriter.format("\tbeq %s,$zero,ptr_error_loadField\n", reg(t));
 	}
-	/** Virtual call and store $v0 at base+offset. Base (receiver) in $s2. */
-	public void callFuncVirtualAndStoreResultAtFieldWithBaseInS2(int methodSlot, java.util.List<Temp> args, int fieldOffset)
+	/** Virtual method call: load method from object's vtable at slot, jalr. Receiver is args.get(0), passed in $a0. */
+	public void callFuncVirtual(int methodSlot, java.util.List<Temp> args, Temp dst, boolean checkNull)
 	{
-		fileWriter.format("\taddi $sp,$sp,-48\n");
-		fileWriter.format("\tsw $t0,0($sp)\n\tsw $t1,4($sp)\n\tsw $t2,8($sp)\n\tsw $t3,12($sp)\n\tsw $t4,16($sp)\n\tsw $t5,20($sp)\n\tsw $t6,24($sp)\n\tsw $t7,28($sp)\n\tsw $t8,32($sp)\n\tsw $t9,36($sp)\n\tsw $ra,40($sp)\n\tsw $s2,44($sp)\n");
-		fileWriter.print("\tmove $a0,$s2\n");
-		if (args != null && args.size() > 0 && args.get(0) != null) fileWriter.format("\tmove $a1,%s\n", reg(args.get(0)));
-		if (args != null && args.size() > 1 && args.get(1) != null) fileWriter.format("\tmove $a2,%s\n", reg(args.get(1)));
-		if (args != null && args.size() > 2 && args.get(2) != null) fileWriter.format("\tmove $a3,%s\n", reg(args.get(2)));
+		int frameBytes = emitCallPrologue(args);
+		if (checkNull) fileWriter.format("\tbeq $a0,$zero,ptr_error_loadField\n");
 		if (DEBUG_VTABLE) {
-			fileWriter.format("# virtual call (store field): slot=%d vtable+%d -> jalr $t0 (receiver from $s2)\n", methodSlot, methodSlot * 4);
-			System.err.println("[DEBUG_VTABLE] virtual call (store) slot=" + methodSlot + " offset=" + (methodSlot * 4) + " argsSize=" + (args != null ? args.size() : 0));
+			fileWriter.format("# virtual call: slot=%d vtable+%d -> $t0 then jalr $t0\n", methodSlot, methodSlot * 4);
+			System.err.println("[DEBUG_VTABLE] virtual call slot=" + methodSlot + " offset=" + (methodSlot * 4) + " argsSize=" + (args != null ? args.size() : 0));
 			if (DEBUG_VTABLE_PRINT_A0) {
-				fileWriter.print("# DEBUG: print $a0 (receiver from $s2) before lw vtable\n");
+				fileWriter.print("# DEBUG: print $a0 (receiver) before lw vtable\n");
 				fileWriter.print("\taddi $sp,$sp,-4\n\tsw $a0,0($sp)\n");
 				fileWriter.print("\tli $v0,1\n\tsyscall\n");
 				fileWriter.print("\tli $a0,32\n\tli $v0,11\n\tsyscall\n");
@@ -1166,24 +1195,10 @@ public class MipsGenerator
 		}
 		fileWriter.format("\tlw $t0,0($a0)\n");
 		fileWriter.format("\tlw $t0,%d($t0)\n", methodSlot * 4);
+		if (DEBUG_MIPS_TRACE) emitTraceChar('V');
 		fileWriter.print("\tjalr $t0\n");
-		fileWriter.format("\tlw $ra,40($sp)\n\tlw $t0,0($sp)\n\tlw $t1,4($sp)\n\tlw $t2,8($sp)\n\tlw $t3,12($sp)\n\tlw $t4,16($sp)\n\tlw $t5,20($sp)\n\tlw $t6,24($sp)\n\tlw $t7,28($sp)\n\tlw $t8,32($sp)\n\tlw $t9,36($sp)\n\tlw $s2,44($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,48\n");
-		fileWriter.format("\tbeq $s2,$zero,ptr_error_s2\n");
-		fileWriter.format("\tsw $v0,%d($s2)\n", fieldOffset);
-	}
-	/** For legacy IR: call and store $v0 at base+offset; copies base to $s2 then uses WithBaseInS2. */
-	public void callFuncAndStoreResultAtField(String funcName, java.util.List<Temp> args, Temp base, int fieldOffset) {
-		moveBaseToS2(base);
-		callFuncAndStoreResultAtFieldWithBaseInS2(funcName, args, fieldOffset);
-	}
-	/** For legacy IR: base is on top of stack; pop into $s2 then call and store. */
-	public void callFuncAndStoreResultAtFieldFromStack(String funcName, java.util.List<Temp> args, int fieldOffset) {
-		fileWriter.format("\tlw $s2,0($sp)\n");
-		fileWriter.format("\taddi $sp,$sp,4\n");
-		callFuncAndStoreResultAtFieldWithBaseInS2(funcName, args, fieldOffset);
+		emitCallEpilogue(frameBytes, dst);
 	}
-
 	/**************************************/
 	/* USUAL SINGLETON IMPLEMENTATION ... */
 	/**************************************/
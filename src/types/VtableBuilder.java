@@ -1,79 +1,68 @@
 package types;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Builds vtables for dynamic dispatch. Call build() once before IR generation.
- * Method slots are assigned in order of first appearance when traversing the
- * class hierarchy (base classes first, depth-first).
+ * Slots are assigned per hierarchy: a class starts from its parent's layout (an
+ * override reuses the parent's slot) and appends its own new methods after it, so
+ * a vtable holds exactly the methods its class can call and a method keeps its
+ * slot in every subclass.
  */
 public class VtableBuilder {
-    private static Map<String, Integer> methodToSlot = new HashMap<>();
-    private static List<String> slotToMethod = new ArrayList<>();
+    private static Map<String, Map<String, Integer>> classToSlots = new HashMap<>();
     private static Map<String, String[]> classToVtableEntries = new HashMap<>();
+    private static Map<String, String> classToFather = new HashMap<>();
     private static boolean built = false;
 
     /** Build vtables from all classes in the program. */
     public static void build(List<TypeClass> allClasses) {
         if (built) return;
         built = true;
-        methodToSlot.clear();
-        slotToMethod.clear();
+        classToSlots.clear();
         classToVtableEntries.clear();
+        classToFather.clear();
 
-        // Topological sort: parents before children
-        List<TypeClass> sorted = new ArrayList<>();
-        List<TypeClass> remaining = new ArrayList<>(allClasses);
-        while (!remaining.isEmpty()) {
-            TypeClass added = null;
-            for (TypeClass c : remaining) {
-                if (c.father == null || sorted.stream().anyMatch(x -> x.name.equals(c.father.name))) {
-                    added = c;
-                    break;
-                }
-            }
-            if (added == null) break; // cycle or missing parent
-            sorted.add(added);
-            remaining.remove(added);
-        }
-        if (!remaining.isEmpty()) sorted.addAll(remaining);
-
-        // Assign slot indices: traverse hierarchy, assign slot to each method on first appearance
-        int nextSlot = 0;
-        for (TypeClass cls : sorted) {
-            List<TypeClass> chain = new ArrayList<>();
-            for (TypeClass c = cls; c != null; c = c.father)
-                chain.add(0, c);
-            for (TypeClass c : chain) {
-                for (TypeClassMember m = c.dataMembers; m != null; m = m.next) {
-                    if (m.kind == TypeClassMember.METHOD && !methodToSlot.containsKey(m.name)) {
-                        methodToSlot.put(m.name, nextSlot);
-                        slotToMethod.add(m.name);
-                        nextSlot++;
-                    }
-                }
-            }
-        }
+        for (TypeClass cls : allClasses)
+            slotsOf(cls);
 
         // Build vtable for each class: for each slot in order, put the implementation label
-        int numSlots = slotToMethod.size();
-        for (TypeClass cls : sorted) {
-            String[] entries = new String[numSlots];
-            for (int slot = 0; slot < numSlots; slot++) {
-                String methodName = slotToMethod.get(slot);
-                TypeClass defining = cls.getMethodDefiningClass(methodName);
+        for (TypeClass cls : allClasses) {
+            Map<String, Integer> slots = classToSlots.get(cls.name);
+            String[] entries = new String[slots.size()];
+            for (Map.Entry<String, Integer> e : slots.entrySet()) {
+                TypeClass defining = cls.getMethodDefiningClass(e.getKey());
                 if (defining != null)
-                    entries[slot] = defining.name + "_" + methodName;
+                    entries[e.getValue()] = defining.name + "_" + e.getKey();
             }
             classToVtableEntries.put(cls.name, entries);
+            if (cls.father != null)
+                classToFather.put(cls.name, cls.father.name);
         }
     }
 
-    public static int getMethodSlot(String methodName) {
-        Integer slot = methodToSlot.get(methodName);
+    /** Method name -> slot for cls: the parent's slots, then cls's own new methods in order. */
+    private static Map<String, Integer> slotsOf(TypeClass cls) {
+        Map<String, Integer> slots = classToSlots.get(cls.name);
+        if (slots != null) return slots;
+        classToSlots.put(cls.name, new LinkedHashMap<>());   // guards against an inheritance cycle
+        slots = (cls.father != null) ? new LinkedHashMap<>(slotsOf(cls.father)) : new LinkedHashMap<>();
+        for (TypeClassMember m = cls.dataMembers; m != null; m = m.next)
+            if (m.kind == TypeClassMember.METHOD && !slots.containsKey(m.name))
+                slots.put(m.name, slots.size());
+        classToSlots.put(cls.name, slots);
+        return slots;
+    }
+
+    /** Slot of methodName in className's vtable (and in every subclass's), or -1. */
+    public static int getMethodSlot(String className, String methodName) {
+        Map<String, Integer> slots = classToSlots.get(className);
+        Integer slot = (slots != null) ? slots.get(methodName) : null;
         return slot != null ? slot : -1;
     }
 
@@ -81,8 +70,29 @@ public class VtableBuilder {
         return classToVtableEntries.get(className);
     }
 
-    public static int getNumSlots() {
-        return methodToSlot.size();
+    /**
+     * Class hierarchy analysis: every implementation a call through the given slot can reach
+     * when the receiver's static type is className, i.e. the slot's entry in className and
+     * in each of its subclasses.
+     */
+    public static Set<String> getImplementations(String className, int slot) {
+        Set<String> result = new LinkedHashSet<>();
+        for (Map.Entry<String, String[]> e : classToVtableEntries.entrySet()) {
+            String c = e.getKey();
+            while (c != null && !c.equals(className))
+                c = classToFather.get(c);
+            if (c != null && slot >= 0 && slot < e.getValue().length && e.getValue()[slot] != null)
+                result.add(e.getValue()[slot]);
+        }
+        return result;
+    }
+
+    /** Clear the entries of methods that were removed as unreachable (their class is never allocated). */
+    public static void retainImplementations(Set<String> functions) {
+        for (String[] entries : classToVtableEntries.values())
+            for (int slot = 0; slot < entries.length; slot++)
+                if (entries[slot] != null && !functions.contains(entries[slot]))
+                    entries[slot] = null;
     }
 
     public static java.util.Set<String> getClassNames() {